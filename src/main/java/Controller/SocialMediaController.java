@@ -5,14 +5,40 @@ import Service.MessageService;
 
 import Model.Account;
 import Model.Message;
+import Model.MessageBatchResult;
+import Model.MessagePage;
 
 import io.javalin.Javalin;
+import io.javalin.config.JavalinConfig;
 import io.javalin.http.Context;
+import io.javalin.http.Handler;
+import io.javalin.util.ConcurrencyUtil;
+import io.javalin.util.LoomUtil;
 
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+
+import DAO.Repositories;
+
+import Util.ConnectionUnavailableException;
+import Util.ConnectionUtil;
+import Util.JsonCodec;
+import Util.ModelCodecModule;
+import Util.RouteMetrics;
+import Util.UnitOfWork;
+
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * TODO: You will need to write your own endpoints and handlers for your controller. The endpoints you will need can be
@@ -21,13 +47,32 @@ import java.util.List;
  */
 public class SocialMediaController {
 
+    // page sizes for GET /messages when paging parameters are given
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int MAX_PAGE_SIZE = 1000;
+    // most messages accepted by one POST /messages/batch
+    private static final int MAX_BATCH_SIZE = 1000;
+
     AccountService accountService;
     MessageService messageService;
+    // whether requests run on virtual threads, from socialmedia.server.threads
+    boolean virtualThreads;
+    // whether the storage engine uses the H2 database, see Repositories.usesDatabase()
+    boolean database;
+    // runs every handler, so blocking DAO calls never hold a Jetty thread; null with virtual threads or without a
+    // database
+    ThreadPoolExecutor jdbcExecutor;
+    // latency, status and in-flight counts per route, served on GET /metrics
+    RouteMetrics routeMetrics;
 
     // init the Controler
     public SocialMediaController(){
         this.accountService = new AccountService();
         this.messageService = new MessageService();
+        this.virtualThreads = useVirtualThreads();
+        this.database = Repositories.usesDatabase();
+        this.jdbcExecutor = this.virtualThreads || !this.database ? null : newJdbcExecutor();
+        this.routeMetrics = new RouteMetrics();
     }
 
     /**
@@ -36,22 +81,187 @@ public class SocialMediaController {
      * @return a Javalin app object which defines the behavior of the Javalin controller.
      */
     public Javalin startAPI() {
-        Javalin app = Javalin.create();
+        Javalin app = Javalin.create(config -> {
+            // share one pre-built JSON codec for request parsing and context.json()
+            config.jsonMapper(JsonCodec.INSTANCE);
+            configureThreads(config, this.virtualThreads);
+        });
         
-        app.post("register", this::registerNewUserHandler);
-        app.post("login", this::loginHandler);
+        // every handler runs on the JDBC executor, or on its own virtual thread, in a unit of work: one connection and
+        // one commit per request
+        app.post("register", onJdbcExecutor(this::registerNewUserHandler));
+        app.post("login", onJdbcExecutor(this::loginHandler));
         
-        app.post("messages", this::createMessageHandler);
-        app.get("messages", this::getAllMessagesHandler);
-        app.get("messages/{message_id}", this::getMessageByIdHandler);
-        app.delete("messages/{message_id}", this::deleteMessageByIdHandler);
-        app.patch("messages/{message_id}", this::updateMessageHandler);
-        app.get("accounts/{account_id}/messages", this::getAllMessagesFromAccountIdHandler);
+        app.post("messages", onJdbcExecutor(this::createMessageHandler));
+        app.post("messages/batch", onJdbcExecutor(this::createMessagesBatchHandler));
+        app.get("messages", onJdbcExecutor(this::getAllMessagesHandler));
+        app.get("messages/{message_id}", onJdbcExecutor(this::getMessageByIdHandler));
+        app.delete("messages/{message_id}", onJdbcExecutor(this::deleteMessageByIdHandler));
+        app.patch("messages/{message_id}", onJdbcExecutor(this::updateMessageHandler));
+        app.get("accounts/{account_id}/messages", onJdbcExecutor(this::getAllMessagesFromAccountIdHandler));
+
+        // no database access, so served straight from the Jetty thread
+        app.get("metrics", this::metricsHandler);
+
+        // when the server stops, queued messages are written and queued requests are dropped with the executor
+        app.events(event -> event.serverStopped(this.messageService::close));
+        if(this.jdbcExecutor != null) app.events(event -> event.serverStopped(this.jdbcExecutor::shutdownNow));
 
         return app;
     }
 
 
+    /**
+     * Choose the threads handlers run on, from the socialmedia.server.threads system property:
+     * "platform" (default) runs them on the JDBC executor, with Jetty on a QueuedThreadPool of at most
+     * socialmedia.server.maxThreads threads,
+     * "virtual" on one virtual thread per request, so requests blocked on JDBC no longer hold a pool thread.
+     * Virtual threads need a JDK that has them; on older ones this falls back to platform threads.
+     * @return true if requests run on virtual threads
+     * @throws IllegalArgumentException if socialmedia.server.threads is neither
+     */
+    private static boolean useVirtualThreads() {
+        String mode = System.getProperty("socialmedia.server.threads", "platform");
+        if(mode.equals("virtual")){
+            if(LoomUtil.INSTANCE.getLoomAvailable()) return true;
+            System.err.println("Virtual threads are not available on this JDK, using platform threads");
+        }else if(!mode.equals("platform")){
+            throw new IllegalArgumentException("socialmedia.server.threads must be platform or virtual, not " + mode);
+        }
+        return false;
+    }
+
+    /**
+     * Set Jetty up for the threads chosen by useVirtualThreads().
+     * @param config the Javalin config being built
+     * @param virtualThreads true to serve every request on its own virtual thread
+     */
+    private static void configureThreads(JavalinConfig config, boolean virtualThreads) {
+        ConcurrencyUtil.INSTANCE.setUseLoom(virtualThreads);
+        if(virtualThreads) return;
+
+        int maxThreads = Integer.getInteger("socialmedia.server.maxThreads", 250);
+        config.jetty.server(() -> {
+            QueuedThreadPool threadPool = new QueuedThreadPool(maxThreads, Math.min(8, maxThreads), 60_000);
+            threadPool.setName("JettyServerThreadPool");
+            return new Server(threadPool);
+        });
+    }
+
+    /**
+     * Create the executor handlers run on. It has as many threads as the connection pool has connections
+     * (socialmedia.jdbcExecutor.threads to override), since more could only wait for a connection, and queues at most
+     * socialmedia.jdbcExecutor.queueCapacity requests (default 1000) before rejecting new ones.
+     * With virtual threads there is no such executor: a bounded pool of platform threads would cap the requests in
+     * progress again, which is what virtual threads are for. Each request then runs on its own virtual thread, and
+     * the connection pool is what bounds the work on the database; a request that cannot get a connection in time is
+     * answered with 503.
+     * @return the executor
+     */
+    private static ThreadPoolExecutor newJdbcExecutor() {
+        int threads = Integer.getInteger("socialmedia.jdbcExecutor.threads", ConnectionUtil.getPoolStatistics().getMaxSize());
+        int queueCapacity = Integer.getInteger("socialmedia.jdbcExecutor.queueCapacity", 1000);
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                Thread thread = new Thread(runnable, "jdbc-worker-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Run handler on the JDBC executor, in a UnitOfWork, and hand Javalin a future for its completion so the Jetty
+     * thread is free in the meantime. With virtual threads, run it right away on the request's own thread instead.
+     * When the storage engine does not use the database, run it right away and without a UnitOfWork, so the
+     * connection pool is never started.
+     * If the executor queue is full, set 503 with a Retry-After header right away instead of queueing the request,
+     * so latency stays bounded under overload.
+     * Every request is counted in routeMetrics, with its status and its latency including the time it was queued.
+     * @param handler the handler to wrap
+     * @return the wrapped handler
+     */
+    private Handler onJdbcExecutor(Handler handler) {
+        Handler work = this.database ? inUnitOfWork(handler) : handler;
+        return context -> {
+            // routes are registered without their leading slash
+            String route = context.method() + " /" + context.endpointHandlerPath();
+            long start = this.routeMetrics.started(route);
+            // a handler that throws is answered with 500 by Javalin. Each request is counted before its response
+            // can go out, so a client reading /metrics right after a response sees that request
+            if(this.jdbcExecutor == null){
+                try{
+                    work.handle(context);
+                }catch(Throwable e){
+                    this.routeMetrics.finished(route, 500, start);
+                    throw e;
+                }
+                this.routeMetrics.finished(route, context.statusCode(), start);
+                return;
+            }
+            CompletableFuture<Void> done = new CompletableFuture<>();
+            try{
+                this.jdbcExecutor.execute(() -> {
+                    try{
+                        work.handle(context);
+                    }catch(Throwable e){
+                        this.routeMetrics.finished(route, 500, start);
+                        done.completeExceptionally(e);
+                        return;
+                    }
+                    this.routeMetrics.finished(route, context.statusCode(), start);
+                    done.complete(null);
+                });
+            }catch(RejectedExecutionException e){
+                context.status(503);
+                context.header("Retry-After", "1");
+                this.routeMetrics.finished(route, 503, start);
+                return;
+            }
+            context.future(() -> done);
+        };
+    }
+
+    /**
+     * Run handler in a UnitOfWork, so all the DAO calls it makes share one connection and commit together.
+     * If handler throws, everything it wrote is rolled back. If it cannot get a connection, set 503 with a
+     * Retry-After header, like a full executor queue does.
+     * @param handler the handler to wrap
+     * @return the wrapped handler
+     */
+    private static Handler inUnitOfWork(Handler handler) {
+        return context -> {
+            try(UnitOfWork unitOfWork = UnitOfWork.begin()){
+                handler.handle(context);
+                unitOfWork.commit();
+            }catch(ConnectionUnavailableException e){
+                context.status(503);
+                context.header("Retry-After", "1");
+            }
+        };
+    }
+
+    /**
+     * Handler for the per-route metrics, the per-statement database timings, the connection pool counters and the
+     * message cache counters, in the Prometheus text format. The database metrics are left out when the storage
+     * engine does not use the database.
+     * Always set 200.
+     * @param context The Javalin Context object manages information about both the HTTP request and response.
+     */
+    private void metricsHandler(Context context) {
+        context.status(200);
+        context.contentType("text/plain; version=0.0.4; charset=utf-8");
+        StringBuilder metrics = new StringBuilder(this.routeMetrics.toPrometheusText());
+        if(this.database){
+            metrics.append(ConnectionUtil.getQueryMetrics().toPrometheusText())
+                .append(ConnectionUtil.getPoolStatistics().toPrometheusText());
+        }
+        metrics.append(this.messageService.getMessageCacheStatistics().toPrometheusText("message"));
+        context.result(metrics.toString());
+    }
+
     /**
      * This handler for register a new user.
      * If success, response the inserted account as json and set 200.
@@ -60,8 +270,7 @@ public class SocialMediaController {
      * @throws JsonProcessingException will be thrown if there is an issue converting JSON into an object.
      */
     private void registerNewUserHandler(Context context) throws JsonProcessingException {
-        ObjectMapper mapper = new ObjectMapper();
-        Account newAccount = mapper.readValue(context.body(), Account.class);
+        Account newAccount = JsonCodec.ACCOUNT_READER.readValue(context.body());
         
         // create the new account
         newAccount = this.accountService.createAccount(newAccount);
@@ -87,8 +296,7 @@ public class SocialMediaController {
      */
     private void loginHandler(Context context) throws JsonProcessingException {
         
-        ObjectMapper mapper = new ObjectMapper();
-        Account account = mapper.readValue(context.body(), Account.class);
+        Account account = JsonCodec.ACCOUNT_READER.readValue(context.body());
 
         // call service layer to check the login condition
         Account matchedAccount = this.accountService.logInAccountMatches(account);
@@ -114,8 +322,7 @@ public class SocialMediaController {
      */
     private void createMessageHandler(Context context) throws JsonProcessingException {
 
-        ObjectMapper mapper = new ObjectMapper();
-        Message message = mapper.readValue(context.body(), Message.class);
+        Message message = JsonCodec.MESSAGE_READER.readValue(context.body());
 
         // call service layer to create a new message and insert
         Message newMessage = this.messageService.insertMessage(message);
@@ -129,17 +336,161 @@ public class SocialMediaController {
         context.json(newMessage);
     }
 
+    /**
+     * Handler for create many Messages at once
+     * The body is a json array of messages, each like the body of POST /messages.
+     * Response a json array with one result per message, in request order: its index, 200 and the created message,
+     * or 400 and no message if that message was rejected. Set 200.
+     * If the body is not an array or holds more than MAX_BATCH_SIZE messages, set 400.
+     * @param context The Javalin Context object manages information about both the HTTP request and response.
+     */
+    private void createMessagesBatchHandler(Context context) {
+
+        List<Message> messages;
+        try{
+            messages = JsonCodec.MESSAGE_LIST_READER.readValue(context.body());
+        }catch(JsonProcessingException e){
+            context.status(400);
+            return;
+        }
+
+        if(messages == null || messages.size() > MAX_BATCH_SIZE){
+            context.status(400);
+            return;
+        }
+
+        List<MessageBatchResult> results = this.messageService.insertMessages(messages);
+        context.status(200);
+        context.json(results);
+    }
+
     /**
      * Handler for retrive all messages
      * Response all messages get from database as json.
-     * Always set 200.
+     * If any of the query parameters limit, after_id or before_id is given, response one page of messages instead,
+     * as a json object with the messages and a next_cursor to pass back as after_id (or before_id).
+     * If the query parameter stream is json or ndjson, write every message straight to the response as it is read,
+     * as one json array or as one json object per line.
+     * If the query parameter ids is given (e.g. ids=1,2,3), response only those messages, in that order, skipping
+     * the ids that do not exist.
+     * Set 400 if the paging, stream or ids parameters are invalid, otherwise always set 200.
      * @param context The Javalin Context object manages information about both the HTTP request and response.
-     * @throws JsonProcessingException will be thrown if there is an issue converting JSON into an object.
+     * @throws IOException will be thrown if there is an issue writing the streamed response.
      */
-    private void getAllMessagesHandler(Context context) throws JsonProcessingException {
-        List<Message> allMessages = this.messageService.getAllMessages();
+    private void getAllMessagesHandler(Context context) throws IOException {
+
+        String idsParam = context.queryParam("ids");
+        if(idsParam != null){
+            getMessagesByIds(context, idsParam);
+            return;
+        }
+
+        String streamParam = context.queryParam("stream");
+        if(streamParam != null){
+            streamAllMessages(context, streamParam);
+            return;
+        }
+
+        String limitParam = context.queryParam("limit");
+        String afterIdParam = context.queryParam("after_id");
+        String beforeIdParam = context.queryParam("before_id");
+
+        // no paging requested, keep returning the whole list
+        if(limitParam == null && afterIdParam == null && beforeIdParam == null){
+            List<Message> allMessages = this.messageService.getAllMessages();
+            context.status(200);
+            context.json(allMessages);
+            return;
+        }
+
+        int limit;
+        int after_id;
+        Integer before_id;
+        try{
+            limit = limitParam == null ? DEFAULT_PAGE_SIZE : Integer.parseInt(limitParam);
+            after_id = afterIdParam == null ? 0 : Integer.parseInt(afterIdParam);
+            before_id = beforeIdParam == null ? null : Integer.valueOf(beforeIdParam);
+        }catch(NumberFormatException e){
+            context.status(400);
+            return;
+        }
+
+        // page size out of range, or both directions asked at once
+        if(limit < 1 || limit > MAX_PAGE_SIZE || (afterIdParam != null && beforeIdParam != null)){
+            context.status(400);
+            return;
+        }
+
+        MessagePage page = this.messageService.getMessagesPage(after_id, before_id, limit);
+        context.status(200);
+        context.json(page);
+    }
+
+    /**
+     * Response the messages whose ids are listed in idsParam, fetched with one query for all ids not cached.
+     * @param context The Javalin Context object manages information about both the HTTP request and response.
+     * @param idsParam comma separated message ids, at most MAX_PAGE_SIZE of them. Otherwise set 400.
+     */
+    private void getMessagesByIds(Context context, String idsParam) {
+
+        String[] parts = idsParam.split(",");
+        if(parts.length > MAX_PAGE_SIZE){
+            context.status(400);
+            return;
+        }
+
+        List<Integer> message_ids = new ArrayList<>(parts.length);
+        try{
+            for(String part : parts){
+                message_ids.add(Integer.valueOf(part.trim()));
+            }
+        }catch(NumberFormatException e){
+            context.status(400);
+            return;
+        }
+
+        List<Message> messages = this.messageService.getMessagesByIds(message_ids);
+        context.status(200);
+        context.json(messages);
+    }
+
+    /**
+     * Write every message to the response output stream while the rows are read, so neither the list of messages
+     * nor the serialised body is ever held in memory as a whole.
+     * @param context The Javalin Context object manages information about both the HTTP request and response.
+     * @param format json for a single json array, ndjson for one json object per line. Otherwise set 400.
+     * @throws IOException will be thrown if the response cannot be written, e.g. the client went away, or if the
+     *         messages stop being read part way. The array is then left open, so the client cannot take what it got
+     *         for the whole list.
+     */
+    private void streamAllMessages(Context context, String format) throws IOException {
+
+        boolean ndjson;
+        if(format.equals("json")){
+            ndjson = false;
+        }else if(format.equals("ndjson")){
+            ndjson = true;
+        }else{
+            context.status(400);
+            return;
+        }
+
         context.status(200);
-        context.json(allMessages);
+        context.contentType(ndjson ? "application/x-ndjson" : "application/json");
+
+        try(JsonGenerator generator = JsonCodec.createGenerator(context.outputStream())){
+            if(ndjson){
+                generator.setRootValueSeparator(null);
+                this.messageService.streamAllMessages(message -> {
+                    ModelCodecModule.writeMessage(message, generator);
+                    generator.writeRaw('\n');
+                });
+            }else{
+                generator.writeStartArray();
+                this.messageService.streamAllMessages(message -> ModelCodecModule.writeMessage(message, generator));
+                generator.writeEndArray();
+            }
+        }
     }
 
     /**
@@ -196,8 +547,7 @@ public class SocialMediaController {
      */
     private void updateMessageHandler(Context context) throws JsonProcessingException {
         
-        ObjectMapper mapper = new ObjectMapper();
-        Message message = mapper.readValue(context.body(), Message.class);
+        Message message = JsonCodec.MESSAGE_READER.readValue(context.body());
         
         // get message id and text
         int message_id = Integer.valueOf(context.pathParam("message_id"));
@@ -215,11 +565,11 @@ public class SocialMediaController {
     }
 
     /**
-     * Handler to get all messages fron a given user.
-     * First check if account id exist.
-     * Then query all messages from the user.
-     * Response all messages if success, set 200.
-     * Otherwise set 400.
+     * Handler to get all messages fron a given user, newest first.
+     * The optional query parameters since_epoch and until_epoch (both inclusive) restrict the time range,
+     * and limit caps the number of messages returned.
+     * Response the messages, set 200.
+     * Set 400 if the range parameters are invalid.
      *  @param context The Javalin Context object manages information about both the HTTP request and response.
      * @throws JsonProcessingException will be thrown if there is an issue converting JSON into an object.
      */
@@ -228,9 +578,37 @@ public class SocialMediaController {
         // get account id
         int account_id = Integer.valueOf(context.pathParam("account_id"));
 
-        List<Message> userMessages = this.messageService.getAllMessagesByUserId(account_id);
-        
+        String sinceParam = context.queryParam("since_epoch");
+        String untilParam = context.queryParam("until_epoch");
+        String limitParam = context.queryParam("limit");
+
+        // no range requested, return every message of the user
+        if(sinceParam == null && untilParam == null && limitParam == null){
+            List<Message> userMessages = this.messageService.getAllMessagesByUserId(account_id);
+            context.status(200);
+            context.json(userMessages);
+            return;
+        }
+
+        long since_epoch;
+        long until_epoch;
+        int limit;
+        try{
+            since_epoch = sinceParam == null ? Long.MIN_VALUE : Long.parseLong(sinceParam);
+            until_epoch = untilParam == null ? Long.MAX_VALUE : Long.parseLong(untilParam);
+            limit = limitParam == null ? MAX_PAGE_SIZE : Integer.parseInt(limitParam);
+        }catch(NumberFormatException e){
+            context.status(400);
+            return;
+        }
+
+        if(limit < 1 || limit > MAX_PAGE_SIZE || since_epoch > until_epoch){
+            context.status(400);
+            return;
+        }
+
+        List<Message> userMessages = this.messageService.getMessagesByUserId(account_id, since_epoch, until_epoch, limit);
         context.status(200);
         context.json(userMessages);
     }
-}
\ No newline at end of file
+}
@@ -6,6 +6,9 @@ import Util.ConnectionUtil;
 import java.sql.*;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
 
 
 /*
@@ -15,7 +18,7 @@ import java.util.ArrayList;
  * password     varchar(255)
 */
 
-public class AccountDAO {
+public class AccountDAO implements AccountRepository {
     /* 
      * Due to the mini project and the readme, 
      * it seems like I better get connection in each method, instead of create a static one.
@@ -82,6 +85,33 @@ public class AccountDAO {
         return null;
     }
 
+    /**
+     * find which of the given account ids exist, with a single query whatever the number of ids.
+     * @param ids account ids to look for
+     * @return Set<Integer> of the ids that exist. Empty if none exist or SQL failed.
+     */
+    public Set<Integer> getExistingAccountIds(Collection<Integer> ids){
+
+        Set<Integer> existing = new HashSet<>();
+        // one array parameter instead of an IN list, so the statement text is the same for any number of ids
+        String sql = "SELECT account_id FROM Account WHERE account_id = ANY(?);";
+
+        try(Connection connection = ConnectionUtil.getConnection();
+            PreparedStatement ps = connection.prepareStatement(sql);){
+
+            ps.setArray(1, connection.createArrayOf("INTEGER", ids.toArray()));
+
+            try(ResultSet rs = ps.executeQuery()){
+                while(rs.next()){
+                    existing.add(rs.getInt("account_id"));
+                }
+            }
+        }catch(SQLException e){
+            System.err.println(e.getMessage());
+        }
+        return existing;
+    }
+
     /**
      * return the account queried from database by given username
      * @param username The username need to search.
@@ -204,7 +234,7 @@ public class AccountDAO {
      */
     public boolean deleteAccountByUsername(String username){
 
-        String sql = "DELETE FROM Account WHERE username = String";
+        String sql = "DELETE FROM Account WHERE username = ?;";
 
         try(Connection connection = ConnectionUtil.getConnection();
             PreparedStatement ps = connection.prepareStatement(sql);){
@@ -0,0 +1,67 @@
+package DAO;
+
+import Model.Account;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Storage of accounts. AccountDAO keeps them in the database, InMemoryAccountRepository in the heap;
+ * Repositories picks one at startup.
+ */
+public interface AccountRepository {
+
+    /**
+     * @return List<Account> that contains all accounts. May be empty.
+     */
+    List<Account> getAllAccounts();
+
+    /**
+     * @param id account_id
+     * @return the Account, or null if not found
+     */
+    Account getAccountById(int id);
+
+    /**
+     * @param ids account ids to check
+     * @return Set<Integer> of the ids that belong to an existing account
+     */
+    Set<Integer> getExistingAccountIds(Collection<Integer> ids);
+
+    /**
+     * @param username
+     * @return the Account, or null if not found
+     */
+    Account getAccountByUserName(String username);
+
+    /**
+     * @param insertAccount Account with username and password
+     * @return the inserted Account with its account_id, or null if the username is taken or the insert failed
+     */
+    Account insertAccount(Account insertAccount);
+
+    /**
+     * @param account Account with account_id and the new password
+     * @return true if the account was updated
+     */
+    boolean updateAccountPasswordById(Account account);
+
+    /**
+     * @param account Account with username and the new password
+     * @return true if the account was updated
+     */
+    boolean updateAccountPasswordByUsername(Account account);
+
+    /**
+     * @param username
+     * @return true if the account was deleted
+     */
+    boolean deleteAccountByUsername(String username);
+
+    /**
+     * @param id account_id
+     * @return true if the account was deleted
+     */
+    boolean deleteAccountById(int id);
+}
@@ -0,0 +1,551 @@
+package DAO;
+
+import Model.Account;
+import Model.Message;
+import Util.RecordBuffers;
+import Util.WriteAheadLog;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+
+/**
+ * Accounts and messages kept in the heap like InMemoryAccountRepository and InMemoryMessageRepository do, made
+ * durable with a write-ahead log and snapshots, so a restart rebuilds them from local files instead of the database.
+ *
+ * Every insert, update and delete is applied in memory and appended to a WriteAheadLog as a Mutation under one lock,
+ * so the log has them in the order they were applied; the lock is let go before the write waits for the log to reach
+ * the disk, so concurrent writes share a disk flush. A write returns once it is on disk.
+ *
+ * Every snapshotMillis, if anything was written, a background thread takes a snapshot. It starts a new epoch of the
+ * log under the lock, which takes no longer than one write, and then writes out the accounts and messages while the
+ * writes go on. The snapshot may so hold some changes of the new epoch, but since a Mutation holds a whole row, or a
+ * deletion, applying the new epoch on top of it gives the same rows as applying it on top of the state it started
+ * from. Once the snapshot is on disk, under its final name, the epochs before it and older snapshots are deleted.
+ *
+ * A snapshot file is a series of chunks of length-prefixed Mutations, each with a CRC32, and a footer listing them.
+ * On startup the chunks of the latest snapshot are loaded by a pool of threads while another reads the log from that
+ * snapshot's epoch on; the log's records are then applied in order.
+ */
+public class DurableMemoryStore implements AutoCloseable {
+
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".bin";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+    // "SNAP", the last int of a complete snapshot file
+    private static final int MAGIC = 0x534e4150;
+    private static final int CHUNK_RECORDS = 65536;
+
+    private final Path directory;
+    private final long snapshotMillis;
+    private final Accounts accounts = new Accounts();
+    private final Messages messages = new Messages(accounts);
+    private final WriteAheadLog log;
+    // orders the writes in memory as in the log; scratch is guarded by it
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private ByteBuffer scratch = ByteBuffer.allocate(1024).order(ByteOrder.LITTLE_ENDIAN);
+    // one snapshot at a time; snapshotAppended, the log's sequence number when the last one started, is guarded by it
+    private final Object snapshotMonitor = new Object();
+    private long snapshotAppended;
+    private final Object stopped = new Object();
+    private volatile boolean running = true;
+    private final Thread snapshotter;
+
+    /**
+     * Rebuild the accounts and messages from directory, creating it if needed.
+     * @param directory where the snapshots and the log are
+     * @param segmentBytes size of the log's segment files; no account or message may take more than that
+     * @param snapshotMillis how often a snapshot is taken, 0 for only when snapshot() is called
+     * @throws UncheckedIOException if the files cannot be read or a snapshot is damaged
+     */
+    public DurableMemoryStore(Path directory, int segmentBytes, long snapshotMillis){
+        this.directory = directory;
+        this.snapshotMillis = snapshotMillis;
+        ExecutorService pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors() + 1);
+        try{
+            Files.createDirectories(directory);
+            Path snapshot = null;
+            for(Path file : snapshotFiles(directory)){
+                if(file.getFileName().toString().endsWith(TEMPORARY_SUFFIX)){
+                    // left by a snapshot that did not finish
+                    Files.delete(file);
+                } else if(snapshot == null || epochOf(file) > epochOf(snapshot)){
+                    snapshot = file;
+                }
+            }
+            long fromEpoch = snapshot == null ? 0 : epochOf(snapshot);
+
+            List<Mutation> tail = new ArrayList<>();
+            Future<WriteAheadLog> opened = pool.submit(() -> WriteAheadLog.open(directory, segmentBytes, fromEpoch,
+                (segments, address, length) -> tail.add(Mutation.decode(segments.buffer(address),
+                    RecordBuffers.offset(address)))));
+            if(snapshot != null) loadSnapshot(snapshot, pool);
+            this.log = opened.get();
+            for(Mutation mutation : tail){
+                mutation.applyTo(accounts, messages);
+            }
+            // a restart with records in the log is worth a snapshot even if nothing else is written
+            this.snapshotAppended = tail.isEmpty() ? 0 : -1;
+            deleteSnapshotsBefore(fromEpoch);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot restore accounts and messages from " + directory, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if(cause instanceof IOException){
+                throw new UncheckedIOException("Cannot restore accounts and messages from " + directory,
+                    (IOException) cause);
+            }
+            throw cause instanceof RuntimeException ? (RuntimeException) cause : new IllegalStateException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while restoring from " + directory, e);
+        } finally {
+            pool.shutdown();
+        }
+        if(snapshotMillis > 0){
+            this.snapshotter = new Thread(this::takeSnapshots, "memory-store-snapshot");
+            this.snapshotter.setDaemon(true);
+            this.snapshotter.start();
+        } else {
+            this.snapshotter = null;
+        }
+    }
+
+    /**
+     * @return the accounts, kept durable by this store
+     */
+    public AccountRepository accounts(){
+        return accounts;
+    }
+
+    /**
+     * @return the messages, kept durable by this store
+     */
+    public MessageRepository messages(){
+        return messages;
+    }
+
+    /**
+     * Take a snapshot now, unless nothing was written since the last one. Writes go on meanwhile.
+     * @throws IOException if the snapshot cannot be written; the log still has everything then
+     */
+    public void snapshot() throws IOException {
+        synchronized (snapshotMonitor){
+            long epoch;
+            long appended;
+            int accountLastId;
+            int messageLastId;
+            writeLock.lock();
+            try{
+                appended = log.getAppended();
+                if(appended == snapshotAppended) return;
+                epoch = log.rotate();
+                accountLastId = accounts.lastId();
+                messageLastId = messages.lastId();
+            } finally {
+                writeLock.unlock();
+            }
+
+            Path file = directory.resolve(String.format("%s%06d%s", SNAPSHOT_PREFIX, epoch, SNAPSHOT_SUFFIX));
+            Path temporary = directory.resolve(file.getFileName() + TEMPORARY_SUFFIX);
+            try(FileChannel channel = FileChannel.open(temporary,
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)){
+                SnapshotWriter writer = new SnapshotWriter(channel);
+                for(Account account : accounts.getAllAccounts()){
+                    writer.add(account);
+                }
+                writer.endChunk();
+                messages.streamAllMessages(writer::add);
+                writer.finish(epoch, accountLastId, messageLastId);
+                channel.force(true);
+            }
+            Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE);
+            log.deleteBefore(epoch);
+            deleteSnapshotsBefore(epoch);
+            snapshotAppended = appended;
+        }
+    }
+
+    /**
+     * Stop taking snapshots and force the log to disk. The repositories must not be written to afterwards.
+     */
+    @Override
+    public void close(){
+        synchronized (stopped){
+            running = false;
+            stopped.notifyAll();
+        }
+        try{
+            if(snapshotter != null) snapshotter.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        log.close();
+    }
+
+    private void takeSnapshots(){
+        while(true){
+            synchronized (stopped){
+                try{
+                    if(running) stopped.wait(snapshotMillis);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if(!running) return;
+            }
+            try{
+                snapshot();
+            } catch (IOException e) {
+                System.err.println("Taking a snapshot of accounts and messages failed: " + e.getMessage());
+            }
+        }
+    }
+
+    private void loadSnapshot(Path file, ExecutorService pool)
+            throws IOException, ExecutionException, InterruptedException {
+        List<Future<?>> loads = new ArrayList<>();
+        int accountLastId;
+        int messageLastId;
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)){
+            long size = channel.size();
+            ByteBuffer end = size < 8 ? null : read(channel, size - 8, 8);
+            if(end == null || end.getInt(4) != MAGIC) throw new IOException(file + " is not a complete snapshot");
+            ByteBuffer footer = read(channel, size - 8 - end.getInt(0), end.getInt(0));
+            footer.getLong();
+            accountLastId = footer.getInt();
+            messageLastId = footer.getInt();
+            int chunks = footer.getInt();
+            for(int i = 0; i < chunks; i++){
+                long offset = footer.getLong();
+                int length = footer.getInt();
+                int crc = footer.getInt();
+                // the mapping stays valid after the channel is closed
+                MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+                chunk.order(ByteOrder.LITTLE_ENDIAN);
+                loads.add(pool.submit(() -> loadChunk(file, chunk, crc)));
+            }
+        }
+        for(Future<?> load : loads){
+            load.get();
+        }
+        accounts.restoreLastId(accountLastId);
+        messages.restoreLastId(messageLastId);
+    }
+
+    private Void loadChunk(Path file, ByteBuffer chunk, int crc) throws IOException {
+        CRC32 check = new CRC32();
+        check.update(chunk.duplicate());
+        if((int) check.getValue() != crc) throw new IOException(file + " is damaged");
+        int at = 0;
+        while(at < chunk.limit()){
+            Mutation.decode(chunk, at + 4).applyTo(accounts, messages);
+            at += 4 + chunk.getInt(at);
+        }
+        return null;
+    }
+
+    private void deleteSnapshotsBefore(long epoch) throws IOException {
+        for(Path file : snapshotFiles(directory)){
+            if(!file.getFileName().toString().endsWith(TEMPORARY_SUFFIX) && epochOf(file) < epoch) Files.delete(file);
+        }
+    }
+
+    // the sequence number of the record, 0 if it could not be appended and undo was run; called under writeLock
+    private long append(ByteBuffer record, Runnable undo){
+        scratch = record;
+        try{
+            return log.append(record);
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            undo.run();
+            return 0;
+        }
+    }
+
+    private long appendAccount(Account account, Runnable undo){
+        return append(Mutation.encode(scratch.clear(), account), undo);
+    }
+
+    private long appendMessage(Message message, Runnable undo){
+        return append(Mutation.encode(scratch.clear(), message), undo);
+    }
+
+    private long appendDeletion(byte kind, int id, Runnable undo){
+        return append(Mutation.encodeDeletion(scratch.clear(), kind, id), undo);
+    }
+
+    // wait, without holding writeLock, until the record is on disk
+    private void sync(long sequence){
+        if(sequence > 0) log.sync(sequence);
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(Math.max(0, length)).order(ByteOrder.LITTLE_ENDIAN);
+        while(buffer.hasRemaining()){
+            if(channel.read(buffer, position + buffer.position()) < 0) throw new IOException("Unexpected end of file");
+        }
+        return buffer.flip();
+    }
+
+    // snapshot files, finished or not
+    private static List<Path> snapshotFiles(Path directory) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try(DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SNAPSHOT_PREFIX + "*")){
+            for(Path file : stream){
+                files.add(file);
+            }
+        }
+        return files;
+    }
+
+    private static long epochOf(Path snapshot){
+        String name = snapshot.getFileName().toString();
+        return Long.parseLong(name.substring(SNAPSHOT_PREFIX.length(), name.indexOf('.')));
+    }
+
+    /**
+     * Writes the chunks and the footer of a snapshot file.
+     */
+    private static final class SnapshotWriter {
+        private final FileChannel channel;
+        private final CRC32 crc = new CRC32();
+        private final List<long[]> chunks = new ArrayList<>();
+        private ByteBuffer buffer = ByteBuffer.allocate(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+        private ByteBuffer record = ByteBuffer.allocate(1024).order(ByteOrder.LITTLE_ENDIAN);
+        private long position;
+        private long chunkStart;
+        private int chunkRecords;
+
+        SnapshotWriter(FileChannel channel){
+            this.channel = channel;
+        }
+
+        void add(Account account) throws IOException {
+            record = Mutation.encode(record.clear(), account);
+            add();
+        }
+
+        void add(Message message) throws IOException {
+            record = Mutation.encode(record.clear(), message);
+            add();
+            if(chunkRecords == CHUNK_RECORDS) endChunk();
+        }
+
+        void endChunk() throws IOException {
+            flush();
+            if(chunkRecords == 0) return;
+            chunks.add(new long[]{chunkStart, position - chunkStart, (int) crc.getValue()});
+            crc.reset();
+            chunkStart = position;
+            chunkRecords = 0;
+        }
+
+        void finish(long epoch, int accountLastId, int messageLastId) throws IOException {
+            endChunk();
+            int footerLength = 8 + 4 + 4 + 4 + chunks.size() * 16;
+            ByteBuffer footer = ByteBuffer.allocate(footerLength + 8).order(ByteOrder.LITTLE_ENDIAN);
+            footer.putLong(epoch).putInt(accountLastId).putInt(messageLastId).putInt(chunks.size());
+            for(long[] chunk : chunks){
+                footer.putLong(chunk[0]).putInt((int) chunk[1]).putInt((int) chunk[2]);
+            }
+            footer.putInt(footerLength).putInt(MAGIC).flip();
+            write(footer);
+        }
+
+        private void add() throws IOException {
+            int length = record.remaining();
+            if(buffer.remaining() < 4 + length){
+                flush();
+                if(buffer.capacity() < 4 + length){
+                    buffer = ByteBuffer.allocate(4 + length).order(ByteOrder.LITTLE_ENDIAN);
+                }
+            }
+            buffer.putInt(length).put(record);
+            chunkRecords++;
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            crc.update(buffer.duplicate());
+            write(buffer);
+            buffer.clear();
+        }
+
+        private void write(ByteBuffer bytes) throws IOException {
+            while(bytes.hasRemaining()){
+                position += channel.write(bytes);
+            }
+        }
+    }
+
+    /**
+     * InMemoryAccountRepository whose writes are appended to the log.
+     */
+    private final class Accounts extends InMemoryAccountRepository {
+
+        @Override
+        public Account insertAccount(Account insertAccount){
+            Account inserted;
+            long sequence;
+            writeLock.lock();
+            try{
+                inserted = super.insertAccount(insertAccount);
+                if(inserted == null) return null;
+                sequence = appendAccount(inserted, () -> restoreDeletion(inserted.getAccount_id()));
+            } finally {
+                writeLock.unlock();
+            }
+            sync(sequence);
+            return sequence == 0 ? null : inserted;
+        }
+
+        @Override
+        public boolean updateAccountPasswordById(Account account){
+            return updated(() -> getAccountById(account.getAccount_id()), account.getPassword());
+        }
+
+        @Override
+        public boolean updateAccountPasswordByUsername(Account account){
+            return updated(() -> getAccountByUserName(account.getUsername()), account.getPassword());
+        }
+
+        @Override
+        public boolean deleteAccountByUsername(String username){
+            return deleted(() -> getAccountByUserName(username));
+        }
+
+        @Override
+        public boolean deleteAccountById(int id){
+            return deleted(() -> getAccountById(id));
+        }
+
+        private boolean updated(Supplier<Account> lookup, String password){
+            long sequence;
+            writeLock.lock();
+            try{
+                Account previous = lookup.get();
+                if(previous == null) return false;
+                Account current = new Account(previous.getAccount_id(), previous.getUsername(), password);
+                super.updateAccountPasswordById(current);
+                sequence = appendAccount(current, () -> restore(previous));
+            } finally {
+                writeLock.unlock();
+            }
+            sync(sequence);
+            return sequence != 0;
+        }
+
+        private boolean deleted(Supplier<Account> lookup){
+            long sequence;
+            writeLock.lock();
+            try{
+                Account previous = lookup.get();
+                if(previous == null) return false;
+                super.deleteAccountById(previous.getAccount_id());
+                sequence = appendDeletion(Mutation.ACCOUNT_DELETED, previous.getAccount_id(), () -> restore(previous));
+            } finally {
+                writeLock.unlock();
+            }
+            sync(sequence);
+            return sequence != 0;
+        }
+    }
+
+    /**
+     * InMemoryMessageRepository whose writes are appended to the log.
+     */
+    private final class Messages extends InMemoryMessageRepository {
+
+        Messages(AccountRepository accountRepository){
+            super(accountRepository);
+        }
+
+        @Override
+        public Message insertMessage(Message insertMessage){
+            long sequence;
+            writeLock.lock();
+            try{
+                sequence = appendInserted(super.insertMessage(insertMessage));
+            } finally {
+                writeLock.unlock();
+            }
+            sync(sequence);
+            return sequence == 0 ? null : insertMessage;
+        }
+
+        @Override
+        public List<Message> insertMessages(List<Message> insertMessages){
+            List<Message> inserted = new ArrayList<>(insertMessages.size());
+            long sequence = 0;
+            writeLock.lock();
+            try{
+                for(Message message : insertMessages){
+                    long appended = appendInserted(super.insertMessage(message));
+                    inserted.add(appended == 0 ? null : message);
+                    sequence = Math.max(sequence, appended);
+                }
+            } finally {
+                writeLock.unlock();
+            }
+            // one wait for the whole batch
+            sync(sequence);
+            return inserted;
+        }
+
+        @Override
+        public Message updateMessageTextReturning(int message_id, String message_text){
+            Message updated;
+            long sequence;
+            writeLock.lock();
+            try{
+                Message previous = getMessageById(message_id);
+                updated = super.updateMessageTextReturning(message_id, message_text);
+                if(updated == null) return null;
+                sequence = appendMessage(updated, () -> restore(previous));
+            } finally {
+                writeLock.unlock();
+            }
+            sync(sequence);
+            return sequence == 0 ? null : updated;
+        }
+
+        @Override
+        public Message deleteMessageById(int message_id){
+            Message deleted;
+            long sequence;
+            writeLock.lock();
+            try{
+                deleted = super.deleteMessageById(message_id);
+                if(deleted == null) return null;
+                sequence = appendDeletion(Mutation.MESSAGE_DELETED, message_id, () -> restore(deleted));
+            } finally {
+                writeLock.unlock();
+            }
+            sync(sequence);
+            return sequence == 0 ? null : deleted;
+        }
+
+        // called under writeLock
+        private long appendInserted(Message inserted){
+            if(inserted == null) return 0;
+            return appendMessage(inserted, () -> restoreDeletion(inserted.getMessage_id()));
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package DAO;
+
+import Model.Account;
+import Util.ConcurrentIntMap;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Accounts kept in the heap only, indexed by account_id and by username. Nothing survives a restart, unless they
+ * are kept by a DurableMemoryStore.
+ *
+ * Reads take no lock. Writes are serialized, so the two indexes never disagree for longer than one write, and
+ * usernames stay unique like the database's unique constraint keeps them. Every Account handed out is a copy.
+ * Deleting an account does not check for its messages, unlike the database's foreign key.
+ */
+public class InMemoryAccountRepository implements AccountRepository {
+
+    private final ConcurrentIntMap<Account> byId = new ConcurrentIntMap<>();
+    private final ConcurrentHashMap<String, Account> byUsername = new ConcurrentHashMap<>();
+    private final AtomicInteger lastId = new AtomicInteger();
+
+    public List<Account> getAllAccounts(){
+        List<Account> accounts = new ArrayList<>();
+        for(Account account : byId.values()){
+            accounts.add(copy(account));
+        }
+        accounts.sort(Comparator.comparingInt(Account::getAccount_id));
+        return accounts;
+    }
+
+    public Account getAccountById(int id){
+        return copy(byId.get(id));
+    }
+
+    public Set<Integer> getExistingAccountIds(Collection<Integer> ids){
+        Set<Integer> existing = new HashSet<>();
+        for(Integer id : ids){
+            if(id != null && byId.get(id) != null) existing.add(id);
+        }
+        return existing;
+    }
+
+    public Account getAccountByUserName(String username){
+        return username == null ? null : copy(byUsername.get(username));
+    }
+
+    public synchronized Account insertAccount(Account insertAccount){
+        if(insertAccount.getUsername() == null || byUsername.containsKey(insertAccount.getUsername())) return null;
+
+        // like an identity column, an id is never handed out twice
+        Account account = new Account(lastId.incrementAndGet(), insertAccount.getUsername(), insertAccount.getPassword());
+        byId.put(account.getAccount_id(), account);
+        byUsername.put(account.getUsername(), account);
+        return copy(account);
+    }
+
+    public synchronized boolean updateAccountPasswordById(Account account){
+        Account current = byId.get(account.getAccount_id());
+        if(current == null) return false;
+        replace(new Account(current.getAccount_id(), current.getUsername(), account.getPassword()));
+        return true;
+    }
+
+    public synchronized boolean updateAccountPasswordByUsername(Account account){
+        Account current = account.getUsername() == null ? null : byUsername.get(account.getUsername());
+        if(current == null) return false;
+        replace(new Account(current.getAccount_id(), current.getUsername(), account.getPassword()));
+        return true;
+    }
+
+    public synchronized boolean deleteAccountByUsername(String username){
+        Account current = username == null ? null : byUsername.remove(username);
+        if(current == null) return false;
+        byId.remove(current.getAccount_id());
+        return true;
+    }
+
+    public synchronized boolean deleteAccountById(int id){
+        Account current = byId.remove(id);
+        if(current == null) return false;
+        byUsername.remove(current.getUsername());
+        return true;
+    }
+
+    /**
+     * Put account back as it was stored, with its own account_id, when the repository is rebuilt from a snapshot or
+     * a log.
+     * @param account stored as is, so it must not be changed afterwards
+     */
+    synchronized void restore(Account account){
+        Account previous = byId.get(account.getAccount_id());
+        if(previous != null) byUsername.remove(previous.getUsername());
+        replace(account);
+        restoreLastId(account.getAccount_id());
+    }
+
+    /**
+     * Remove an account, if there, when the repository is rebuilt; its account_id is not handed out again.
+     * @param id account_id
+     */
+    synchronized void restoreDeletion(int id){
+        Account deleted = byId.remove(id);
+        if(deleted != null) byUsername.remove(deleted.getUsername());
+        restoreLastId(id);
+    }
+
+    /**
+     * @param id no account_id up to this one is handed out again
+     */
+    void restoreLastId(int id){
+        lastId.accumulateAndGet(id, Math::max);
+    }
+
+    /**
+     * @return the highest account_id handed out so far
+     */
+    int lastId(){
+        return lastId.get();
+    }
+
+    // stored accounts are never changed in place, an update stores a new one
+    private void replace(Account account){
+        byId.put(account.getAccount_id(), account);
+        byUsername.put(account.getUsername(), account);
+    }
+
+    private static Account copy(Account account){
+        return account == null ? null : new Account(account.getAccount_id(), account.getUsername(), account.getPassword());
+    }
+}
@@ -0,0 +1,212 @@
+package DAO;
+
+import Model.Message;
+import Util.ConcurrentIntMap;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Messages kept in the heap only. Nothing survives a restart, unless they are kept by a DurableMemoryStore.
+ *
+ * The primary index maps message_id to the message; the secondary index keeps, per posted_by, the (time_posted_epoch,
+ * message_id) pairs in the same newest-first order as the database's message_posted_by_time_idx, so a timeline
+ * page reads only the messages it returns. Ids are handed out in increasing order like an identity column, which is
+ * what the paging by message_id relies on. Stored messages are never changed in place and every Message handed out
+ * is a copy, so no lock is needed to read them.
+ *
+ * The foreign key on posted_by is checked against the AccountRepository given to the constructor.
+ */
+public class InMemoryMessageRepository implements MessageRepository {
+
+    private final AccountRepository accountRepository;
+    private final ConcurrentIntMap<Message> byId = new ConcurrentIntMap<>();
+    private final ConcurrentIntMap<NavigableSet<TimelineKey>> byPostedBy = new ConcurrentIntMap<>();
+    private final AtomicInteger lastId = new AtomicInteger();
+
+    /**
+     * @param accountRepository accounts that posted_by must refer to
+     */
+    public InMemoryMessageRepository(AccountRepository accountRepository){
+        this.accountRepository = accountRepository;
+    }
+
+    public Message insertMessage(Message insertMessage){
+        if(accountRepository.getAccountById(insertMessage.getPosted_by()) == null) return null;
+
+        Message message = new Message(lastId.incrementAndGet(), insertMessage.getPosted_by(),
+            insertMessage.getMessage_text(), insertMessage.getTime_posted_epoch());
+        // into the primary index first: a timeline entry whose message is not there yet or any more is skipped
+        byId.put(message.getMessage_id(), message);
+        byPostedBy.computeIfAbsent(message.getPosted_by(), posted_by -> new ConcurrentSkipListSet<>())
+            .add(new TimelineKey(message.getTime_posted_epoch(), message.getMessage_id()));
+
+        insertMessage.setMessage_id(message.getMessage_id());
+        return insertMessage;
+    }
+
+    public List<Message> insertMessages(List<Message> insertMessages){
+        // there is no batch to fail as a whole here, every row succeeds or fails on its own
+        List<Message> inserted = new ArrayList<>(insertMessages.size());
+        for(Message message : insertMessages){
+            inserted.add(insertMessage(message));
+        }
+        return inserted;
+    }
+
+    public List<Message> getAllMessages(){
+        return getMessagesAfterId(0, Integer.MAX_VALUE);
+    }
+
+    public void streamAllMessages(MessageSink sink) throws IOException {
+        int last = lastId.get();
+        for(int id = 1; id <= last; id++){
+            Message message = byId.get(id);
+            if(message != null) sink.accept(copy(message));
+        }
+    }
+
+    public List<Message> getMessagesAfterId(int after_id, int limit){
+        List<Message> messages = new ArrayList<>();
+        int last = lastId.get();
+        // also keeps after_id + 1 from overflowing
+        if(after_id >= last) return messages;
+        for(int id = Math.max(after_id, 0) + 1; id <= last && messages.size() < limit; id++){
+            Message message = byId.get(id);
+            if(message != null) messages.add(copy(message));
+        }
+        return messages;
+    }
+
+    public List<Message> getMessagesBeforeId(int before_id, int limit){
+        List<Message> messages = new ArrayList<>();
+        // no id is below 1, and before_id - 1 would overflow at Integer.MIN_VALUE
+        if(before_id <= 1) return messages;
+        for(int id = Math.min(before_id - 1, lastId.get()); id > 0 && messages.size() < limit; id--){
+            Message message = byId.get(id);
+            if(message != null) messages.add(copy(message));
+        }
+        return messages;
+    }
+
+    public List<Message> getAllMessagesByUserId(int user_id){
+        return this.getMessagesByUserId(user_id, Long.MIN_VALUE, Long.MAX_VALUE, Integer.MAX_VALUE);
+    }
+
+    public List<Message> getMessagesByUserId(int user_id, long since_epoch, long until_epoch, int limit){
+        List<Message> messages = new ArrayList<>();
+        NavigableSet<TimelineKey> timeline = byPostedBy.get(user_id);
+        if(timeline == null || since_epoch > until_epoch) return messages;
+
+        // newest first, so the range runs from until_epoch down to since_epoch
+        for(TimelineKey key : timeline.subSet(new TimelineKey(until_epoch, Integer.MAX_VALUE), true,
+                new TimelineKey(since_epoch, Integer.MIN_VALUE), true)){
+            if(messages.size() >= limit) break;
+            Message message = byId.get(key.message_id);
+            if(message != null) messages.add(copy(message));
+        }
+        return messages;
+    }
+
+    public Map<Integer, Message> getMessagesByIds(Collection<Integer> message_ids){
+        Map<Integer, Message> messages = new HashMap<>();
+        for(Integer id : message_ids){
+            Message message = id == null ? null : byId.get(id);
+            if(message != null) messages.put(id, copy(message));
+        }
+        return messages;
+    }
+
+    public Message getMessageById(int message_id){
+        return copy(byId.get(message_id));
+    }
+
+    public Message updateMessageTextReturning(int message_id, String message_text){
+        Message updated = byId.computeIfPresent(message_id, message -> new Message(message.getMessage_id(),
+            message.getPosted_by(), message_text, message.getTime_posted_epoch()));
+        return copy(updated);
+    }
+
+    public Message deleteMessageById(int message_id){
+        // of two concurrent deletes only one gets the message back
+        Message deleted = byId.remove(message_id);
+        if(deleted == null) return null;
+        removeFromTimeline(deleted);
+        return copy(deleted);
+    }
+
+    /**
+     * Put message back as it was stored, with its own message_id, when the repository is rebuilt from a snapshot or a
+     * log. posted_by is not checked. May run concurrently for different messages, not with the other write methods.
+     * @param message stored as is, so it must not be changed afterwards
+     */
+    void restore(Message message){
+        Message previous = byId.put(message.getMessage_id(), message);
+        if(previous != null) removeFromTimeline(previous);
+        byPostedBy.computeIfAbsent(message.getPosted_by(), posted_by -> new ConcurrentSkipListSet<>())
+            .add(new TimelineKey(message.getTime_posted_epoch(), message.getMessage_id()));
+        restoreLastId(message.getMessage_id());
+    }
+
+    /**
+     * Remove a message, if there, when the repository is rebuilt; its message_id is not handed out again.
+     * @param message_id
+     */
+    void restoreDeletion(int message_id){
+        Message deleted = byId.remove(message_id);
+        if(deleted != null) removeFromTimeline(deleted);
+        restoreLastId(message_id);
+    }
+
+    /**
+     * @param message_id no message_id up to this one is handed out again
+     */
+    void restoreLastId(int message_id){
+        lastId.accumulateAndGet(message_id, Math::max);
+    }
+
+    /**
+     * @return the highest message_id handed out so far
+     */
+    int lastId(){
+        return lastId.get();
+    }
+
+    private void removeFromTimeline(Message message){
+        NavigableSet<TimelineKey> timeline = byPostedBy.get(message.getPosted_by());
+        if(timeline != null){
+            timeline.remove(new TimelineKey(message.getTime_posted_epoch(), message.getMessage_id()));
+        }
+    }
+
+    private static Message copy(Message message){
+        return message == null ? null : new Message(message.getMessage_id(), message.getPosted_by(),
+            message.getMessage_text(), message.getTime_posted_epoch());
+    }
+
+    /**
+     * Entry of the posted_by index, ordered by time_posted_epoch descending, then message_id descending.
+     */
+    private static final class TimelineKey implements Comparable<TimelineKey> {
+        final long time_posted_epoch;
+        final int message_id;
+
+        TimelineKey(long time_posted_epoch, int message_id) {
+            this.time_posted_epoch = time_posted_epoch;
+            this.message_id = message_id;
+        }
+
+        @Override
+        public int compareTo(TimelineKey other) {
+            int byTime = Long.compare(other.time_posted_epoch, time_posted_epoch);
+            return byTime != 0 ? byTime : Integer.compare(other.message_id, message_id);
+        }
+    }
+}
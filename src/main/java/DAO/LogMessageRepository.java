@@ -0,0 +1,273 @@
+package DAO;
+
+import Model.Message;
+import Util.IntLongIndex;
+import Util.RecordBuffers;
+import Util.SegmentedLog;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Messages persisted in an append-only SegmentedLog instead of the database, so an insert, update or delete is one
+ * sequential write into a memory-mapped file rather than a row change and a commit.
+ *
+ * The log holds the records laid out as described in RecordMessageRepository, one per insert and per update, and a
+ * deletion record (just the message_id) per delete. The indexes live in memory and are rebuilt by reading the log
+ * back when the repository is created; the record of a message read last wins, and a deletion record removes it.
+ *
+ * A background thread forces the log to disk every flushMillis milliseconds, so a write is durable against a crash
+ * of the process at once and against a crash of the machine within flushMillis; with flushMillis 0 every write is
+ * forced before it returns. The same thread compacts the log once the records left behind by updates and deletes
+ * take more room than the live ones. The live records are copied into the log's next generation without holding the
+ * lock, their addresses looked up COMPACTION_BATCH ids per read lock, so reads and writes go on meanwhile. Then, under
+ * the write lock, the records appended to the old log since the copy started are copied over too, in order, and the
+ * new generation replaces the old one.
+ */
+public class LogMessageRepository extends RecordMessageRepository implements AutoCloseable {
+
+    // payload of a deletion record: the message_id only, shorter than any message record
+    private static final int DELETION_LENGTH = 4;
+    // ids whose addresses are looked up per read lock while compacting
+    private static final int COMPACTION_BATCH = 1024;
+
+    private final int segmentBytes;
+    private final long flushMillis;
+    private final Thread maintenance;
+    private volatile boolean running = true;
+    // the fields below are guarded by lock; log is volatile for the maintenance thread's force()
+    private volatile SegmentedLog log;
+    private ByteBuffer scratch = ByteBuffer.allocate(1024).order(ByteOrder.LITTLE_ENDIAN);
+    private long liveBytes;
+    private long deadBytes;
+    // writes so far, to tell whether any has to be copied over at the end of a compaction
+    private long writeCount;
+
+    /**
+     * Open the log in directory, creating it if needed, and rebuild the indexes from it.
+     * @param accountRepository accounts that posted_by must refer to
+     * @param directory where the segment files are
+     * @param segmentBytes size of each segment file; no message may take more than that
+     * @param flushMillis how often the log is forced to disk, 0 to force it on every write
+     * @throws UncheckedIOException if the log cannot be opened
+     */
+    public LogMessageRepository(AccountRepository accountRepository, Path directory, int segmentBytes,
+                                long flushMillis){
+        super(accountRepository);
+        this.segmentBytes = segmentBytes;
+        this.flushMillis = flushMillis;
+        try{
+            this.log = SegmentedLog.open(directory, segmentBytes, this::replay);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open the message log in " + directory, e);
+        }
+        this.maintenance = new Thread(this::maintain, "message-log-maintenance");
+        this.maintenance.setDaemon(true);
+        this.maintenance.start();
+    }
+
+    /**
+     * @return bytes of disk taken by the log, including the records left behind by updates and deletes
+     */
+    public long getLogBytes(){
+        return log.getSizeBytes();
+    }
+
+    /**
+     * Stop the maintenance thread, abandoning a compaction in progress, and force the log to disk.
+     */
+    @Override
+    public void close(){
+        running = false;
+        maintenance.interrupt();
+        try{
+            maintenance.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        long stamp = lock.writeLock();
+        try{
+            log.force();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    RecordBuffers records(){
+        return log;
+    }
+
+    @Override
+    long store(Message message, byte[] text) throws IOException {
+        int length = recordLength(text);
+        if(scratch.capacity() < length){
+            scratch = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        writeRecord(scratch, 0, message, text);
+        scratch.clear().limit(length);
+        long address = log.append(scratch);
+        liveBytes += SegmentedLog.recordBytes(length);
+        return address;
+    }
+
+    @Override
+    void storeDeletion(int message_id) throws IOException {
+        appendDeletion(log, message_id);
+        deadBytes += SegmentedLog.recordBytes(DELETION_LENGTH);
+    }
+
+    @Override
+    void discard(long address){
+        int length = SegmentedLog.recordBytes(log.length(address));
+        liveBytes -= length;
+        deadBytes += length;
+    }
+
+    @Override
+    void afterWrite(){
+        writeCount++;
+        if(flushMillis == 0) log.force();
+    }
+
+    // called by SegmentedLog.open() for every record, in order, before the repository is used
+    private void replay(SegmentedLog log, long address, int length){
+        ByteBuffer buffer = log.buffer(address);
+        int at = RecordBuffers.offset(address);
+        int message_id = buffer.getInt(at + MESSAGE_ID);
+        lastId = Math.max(lastId, message_id);
+
+        long previous = index.get(message_id);
+        if(previous != NONE){
+            int previousLength = SegmentedLog.recordBytes(log.length(previous));
+            liveBytes -= previousLength;
+            deadBytes += previousLength;
+        }
+        if(length == DELETION_LENGTH){
+            deadBytes += SegmentedLog.recordBytes(length);
+            if(previous == NONE) return;
+            ByteBuffer deleted = log.buffer(previous);
+            int deletedAt = RecordBuffers.offset(previous);
+            Timeline timeline = byPostedBy.get(deleted.getInt(deletedAt + POSTED_BY));
+            if(timeline != null) timeline.remove(deleted.getLong(deletedAt + TIME_POSTED_EPOCH), message_id);
+            index.set(message_id, NONE);
+        } else {
+            liveBytes += SegmentedLog.recordBytes(length);
+            if(previous == NONE){
+                indexMessage(message_id, buffer.getInt(at + POSTED_BY), buffer.getLong(at + TIME_POSTED_EPOCH), address);
+            } else {
+                // an update, posted_by and time_posted_epoch are unchanged
+                index.set(message_id, address);
+            }
+        }
+    }
+
+    private void maintain(){
+        while(running){
+            try{
+                Thread.sleep(flushMillis > 0 ? flushMillis : 1000);
+            } catch (InterruptedException e) {
+                return;
+            }
+            log.force();
+            try{
+                compactIfWasteful();
+            } catch (IOException e) {
+                System.err.println("Compacting the message log failed: " + e.getMessage());
+            }
+        }
+    }
+
+    // called by the maintenance thread, and by tests
+    void compactIfWasteful() throws IOException {
+        SegmentedLog old;
+        long mark;
+        long writesBefore;
+        int copyUpTo;
+        long stamp = lock.readLock();
+        try{
+            if(deadBytes < segmentBytes || deadBytes < liveBytes) return;
+            old = log;
+            mark = old.end();
+            writesBefore = writeCount;
+            copyUpTo = lastId;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+
+        SegmentedLog compacted = old.nextGeneration();
+        IntLongIndex moved = new IntLongIndex();
+        long[] addresses = new long[COMPACTION_BATCH];
+        for(int from = 1; from <= copyUpTo; from += COMPACTION_BATCH){
+            // an abandoned generation is deleted by the next compaction or open
+            if(!running) return;
+            int to = Math.min(copyUpTo, from + COMPACTION_BATCH - 1);
+            stamp = lock.readLock();
+            try{
+                for(int id = from; id <= to; id++){
+                    addresses[id - from] = index.get(id);
+                }
+            } finally {
+                lock.unlockRead(stamp);
+            }
+            // records are never changed once appended, so they are copied without the lock
+            for(int id = from; id <= to; id++){
+                if(addresses[id - from] != NONE) moved.set(id, copy(old, addresses[id - from], compacted));
+            }
+        }
+        compacted.force();
+
+        stamp = lock.writeLock();
+        try{
+            long compactedDeadBytes = 0;
+            if(writeCount != writesBefore){
+                // the writes made during the copy, in order; a record copied above that one of them changed is left
+                // behind in the new generation like in the old
+                List<Long> tail = new ArrayList<>();
+                old.forEachAfter(mark, (segments, address, length) -> tail.add(address));
+                for(long address : tail){
+                    int message_id = old.buffer(address).getInt(RecordBuffers.offset(address) + MESSAGE_ID);
+                    long previous = moved.get(message_id);
+                    if(previous != NONE) compactedDeadBytes += SegmentedLog.recordBytes(compacted.length(previous));
+                    long copied = copy(old, address, compacted);
+                    if(old.length(address) == DELETION_LENGTH){
+                        compactedDeadBytes += SegmentedLog.recordBytes(DELETION_LENGTH);
+                        moved.set(message_id, NONE);
+                    } else {
+                        moved.set(message_id, copied);
+                    }
+                }
+            }
+            if(lastId > 0 && moved.get(lastId) == NONE){
+                // keep the highest id handed out, so a restart does not hand it out again
+                appendDeletion(compacted, lastId);
+                compactedDeadBytes += SegmentedLog.recordBytes(DELETION_LENGTH);
+            }
+            log.replace(compacted);
+            // readers still decoding from the old log keep its mappings alive until they are done
+            log = compacted;
+            index = moved;
+            deadBytes = compactedDeadBytes;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private static long copy(SegmentedLog from, long address, SegmentedLog to) throws IOException {
+        int at = RecordBuffers.offset(address);
+        ByteBuffer record = from.buffer(address).duplicate();
+        record.position(at).limit(at + from.length(address));
+        return to.append(record);
+    }
+
+    private static void appendDeletion(SegmentedLog log, int message_id) throws IOException {
+        ByteBuffer deletion = ByteBuffer.allocate(DELETION_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+        deletion.putInt(0, message_id);
+        log.append(deletion);
+    }
+}
@@ -3,9 +3,13 @@ package DAO;
 import Model.Message;
 import Util.ConnectionUtil;
 
+import java.io.IOException;
 import java.sql.*;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 
 /*
  * TABLE Message
@@ -18,12 +22,18 @@ import java.util.ArrayList;
  * foreign key (posted_by) references Account(account_id)
  */
 
-public class MessageDAO {
+public class MessageDAO implements MessageRepository {
+
+    // rows pulled from the database per round trip when streaming every message
+    private static final int STREAM_FETCH_SIZE = 1000;
+    // SQLState H2 reports when posted_by does not refer to an existing account
+    private static final String FOREIGN_KEY_VIOLATION = "23506";
 
     /**
      * insert a new message into database.
+     * The foreign key on posted_by is what checks that the account exists, so no lookup is needed beforehand.
      * @param insertMessage Message object that will be inserted. Only need posted_by, message_text, time_posted_epoch
-     * @return Message object taht just been inserted. Null if insert failed.
+     * @return Message object taht just been inserted. Null if insert failed, including when posted_by does not exist.
      */
     public Message insertMessage(Message insertMessage){
         
@@ -47,12 +57,90 @@ public class MessageDAO {
                 }
                 
         } catch (SQLException e) {
-            System.err.println(e.getMessage());
+            // an unknown posted_by is an expected client error, not worth logging
+            if(!FOREIGN_KEY_VIOLATION.equals(e.getSQLState())){
+                System.err.println(e.getMessage());
+            }
         }
         
         return null;
     }
 
+    /**
+     * insert several messages as one JDBC batch in a single transaction.
+     * If the batch is rejected because of a bad row, the rows are inserted one at a time in the same transaction
+     * instead, so only the bad rows fail.
+     * @param insertMessages Message objects that will be inserted. Only need posted_by, message_text, time_posted_epoch
+     * @return List<Message> in the same order, each with its generated message_id, or null where that insert failed.
+     */
+    public List<Message> insertMessages(List<Message> insertMessages){
+
+        List<Message> inserted = new ArrayList<>(insertMessages.size());
+        String sql = "INSERT INTO Message (posted_by, message_text, time_posted_epoch) VALUES (?, ?, ?);";
+
+        try(Connection connection = ConnectionUtil.getConnection();
+            PreparedStatement ps = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);){
+
+                connection.setAutoCommit(false);
+                try{
+                    for(Message message : insertMessages){
+                        ps.setInt(1, message.getPosted_by());
+                        ps.setString(2, message.getMessage_text());
+                        ps.setLong(3, message.getTime_posted_epoch());
+                        ps.addBatch();
+                    }
+                    ps.executeBatch();
+
+                    // generated keys come back in the order the rows were added
+                    try(ResultSet rs = ps.getGeneratedKeys();){
+                        for(Message message : insertMessages){
+                            rs.next();
+                            message.setMessage_id(rs.getInt(1));
+                            inserted.add(message);
+                        }
+                    }
+                    connection.commit();
+                    return inserted;
+
+                } catch (BatchUpdateException e) {
+                    connection.rollback();
+                    ps.clearBatch();
+                }
+
+                // some row was rejected, find out which by inserting them one by one
+                for(Message message : insertMessages){
+                    ps.setInt(1, message.getPosted_by());
+                    ps.setString(2, message.getMessage_text());
+                    ps.setLong(3, message.getTime_posted_epoch());
+                    try{
+                        ps.executeUpdate();
+                        try(ResultSet rs = ps.getGeneratedKeys();){
+                            rs.next();
+                            message.setMessage_id(rs.getInt(1));
+                            inserted.add(message);
+                        }
+                    } catch (SQLException e) {
+                        if(!FOREIGN_KEY_VIOLATION.equals(e.getSQLState())){
+                            System.err.println(e.getMessage());
+                        }
+                        inserted.add(null);
+                    }
+                }
+                connection.commit();
+                return inserted;
+
+        } catch (SQLException e) {
+            System.err.println(e.getMessage());
+        }
+
+        // the transaction did not commit, so nothing was inserted
+        inserted.clear();
+        for(int i = 0; i < insertMessages.size(); i++){
+            inserted.add(null);
+        }
+        return inserted;
+    }
+
     /**
      * get all messages
      * @return List<Message>. May be empty. 
@@ -84,19 +172,154 @@ public class MessageDAO {
     }
 
     /**
-     * get all message by user id (posted_by)
+     * read every message in message_id order and hand each one to sink as soon as it is read.
+     * The query runs with H2's lazy execution so the result is not materialised in memory, and a single
+     * Message instance is reused for all rows, so memory stays flat whatever the table size.
+     * A query that fails part way is not swallowed like in the other methods: the messages before it have already
+     * gone to sink, so the caller must know the stream is incomplete rather than end it as if it were whole.
+     * @param sink receives each message. A failure in the sink aborts the query.
+     * @throws IOException if the sink fails, e.g. because the client went away, or if the query fails, with the
+     *         SQLException as its cause
+     */
+    public void streamAllMessages(MessageSink sink) throws IOException {
+
+        String sql = "SELECT * FROM Message ORDER BY message_id;";
+
+        // prepared like every other query here, so the pool times them and caches them with the connection
+        try(Connection connection = ConnectionUtil.getConnection();
+            PreparedStatement lazyOn = connection.prepareStatement("SET LAZY_QUERY_EXECUTION TRUE");
+            PreparedStatement lazyOff = connection.prepareStatement("SET LAZY_QUERY_EXECUTION FALSE");) {
+
+            // the connection goes back to the pool afterwards, so switch lazy execution off again in any case
+            lazyOn.execute();
+            try(PreparedStatement ps = connection.prepareStatement(sql);) {
+
+                ps.setFetchSize(STREAM_FETCH_SIZE);
+
+                try(ResultSet rs = ps.executeQuery()){
+                    Message message = new Message();
+                    while(rs.next()){
+                        message.setMessage_id(rs.getInt("message_id"));
+                        message.setPosted_by(rs.getInt("posted_by"));
+                        message.setMessage_text(rs.getString("message_text"));
+                        message.setTime_posted_epoch(rs.getLong("time_posted_epoch"));
+                        sink.accept(message);
+                    }
+                }
+            } finally {
+                lazyOff.execute();
+            }
+
+        } catch(SQLException e) {
+            System.err.println(e.getMessage());
+            throw new IOException("Streaming messages failed: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * get up to limit messages with message_id greater than after_id, in ascending message_id order.
+     * Walks the primary key index from after_id, so the cost does not depend on how deep the page is.
+     * @param after_id the keyset cursor, 0 to start from the first message
+     * @param limit maximum number of messages to return
+     * @return List<Message>. May be empty.
+     */
+    public List<Message> getMessagesAfterId(int after_id, int limit){
+
+        List<Message> messages = new ArrayList<>();
+        String sql = "SELECT * FROM Message WHERE message_id > ? ORDER BY message_id ASC LIMIT ?;";
+
+        try(Connection connection = ConnectionUtil.getConnection();
+            PreparedStatement ps = connection.prepareStatement(sql);) {
+
+                ps.setInt(1, after_id);
+                ps.setInt(2, limit);
+
+                // execute the query and get the resultset
+                try(ResultSet rs = ps.executeQuery()){
+                    while(rs.next()){
+                        int message_id = rs.getInt("message_id");
+                        int posted_by = rs.getInt("posted_by");
+                        String message_text = rs.getString("message_text");
+                        long time_posted = rs.getLong("time_posted_epoch");
+                        messages.add(new Message(message_id, posted_by, message_text, time_posted));
+                    }
+                }
+
+        } catch(SQLException e) {
+            System.err.println(e.getMessage());
+        }
+
+        return messages;
+    }
+
+    /**
+     * get up to limit messages with message_id less than before_id, in descending message_id order.
+     * @param before_id the keyset cursor
+     * @param limit maximum number of messages to return
+     * @return List<Message>. May be empty.
+     */
+    public List<Message> getMessagesBeforeId(int before_id, int limit){
+
+        List<Message> messages = new ArrayList<>();
+        String sql = "SELECT * FROM Message WHERE message_id < ? ORDER BY message_id DESC LIMIT ?;";
+
+        try(Connection connection = ConnectionUtil.getConnection();
+            PreparedStatement ps = connection.prepareStatement(sql);) {
+
+                ps.setInt(1, before_id);
+                ps.setInt(2, limit);
+
+                // execute the query and get the resultset
+                try(ResultSet rs = ps.executeQuery()){
+                    while(rs.next()){
+                        int message_id = rs.getInt("message_id");
+                        int posted_by = rs.getInt("posted_by");
+                        String message_text = rs.getString("message_text");
+                        long time_posted = rs.getLong("time_posted_epoch");
+                        messages.add(new Message(message_id, posted_by, message_text, time_posted));
+                    }
+                }
+
+        } catch(SQLException e) {
+            System.err.println(e.getMessage());
+        }
+
+        return messages;
+    }
+
+    /**
+     * get all message by user id (posted_by), newest first
      * @param user_id
      * @return List<Message>. Maybe empty if query failed.
      */
     public List<Message> getAllMessagesByUserId(int user_id){
+        return this.getMessagesByUserId(user_id, Long.MIN_VALUE, Long.MAX_VALUE, Integer.MAX_VALUE);
+    }
+
+    /**
+     * get the messages of a user posted within a time range, newest first.
+     * Served by the (posted_by, time_posted_epoch desc, message_id desc) index, so only the rows returned are read.
+     * @param user_id
+     * @param since_epoch earliest time_posted_epoch to include
+     * @param until_epoch latest time_posted_epoch to include
+     * @param limit maximum number of messages to return
+     * @return List<Message>. Maybe empty if query failed.
+     */
+    public List<Message> getMessagesByUserId(int user_id, long since_epoch, long until_epoch, int limit){
         
         List<Message> messages = new ArrayList<>();
-        String sql = "SELECT * FROM Message WHERE posted_by = ?;";
+        // H2 rates the foreign key's own posted_by index as just as good, so name the composite index explicitly
+        String sql = "SELECT * FROM Message USE INDEX (message_posted_by_time_idx) "
+            + "WHERE posted_by = ? AND time_posted_epoch BETWEEN ? AND ? "
+            + "ORDER BY time_posted_epoch DESC, message_id DESC LIMIT ?;";
 
         try(Connection connection = ConnectionUtil.getConnection();
             PreparedStatement ps = connection.prepareStatement(sql);) {
 
                 ps.setInt(1, user_id);
+                ps.setLong(2, since_epoch);
+                ps.setLong(3, until_epoch);
+                ps.setInt(4, limit);
 
                 // execute the query and get the resultset
                 try(ResultSet rs = ps.executeQuery()){
@@ -116,6 +339,40 @@ public class MessageDAO {
         return messages;
     }
 
+    /**
+     * get the messages with the given ids, with a single query whatever the number of ids.
+     * @param message_ids ids to look up
+     * @return Map<Integer, Message> from message_id to message, only for the ids that exist. Empty if SQL failed.
+     */
+    public Map<Integer, Message> getMessagesByIds(Collection<Integer> message_ids){
+
+        Map<Integer, Message> messages = new HashMap<>();
+        // one array parameter instead of an IN list, so the statement text is the same for any number of ids
+        String sql = "SELECT * FROM Message WHERE message_id = ANY(?);";
+
+        try(Connection connection = ConnectionUtil.getConnection();
+            PreparedStatement ps = connection.prepareStatement(sql);) {
+
+                ps.setArray(1, connection.createArrayOf("INTEGER", message_ids.toArray()));
+
+                // execute the query and get the resultset
+                try(ResultSet rs = ps.executeQuery()){
+                    while(rs.next()){
+                        int message_id = rs.getInt("message_id");
+                        int posted_by = rs.getInt("posted_by");
+                        String message_text = rs.getString("message_text");
+                        long time_posted = rs.getLong("time_posted_epoch");
+                        messages.put(message_id, new Message(message_id, posted_by, message_text, time_posted));
+                    }
+                }
+
+        } catch(SQLException e) {
+            System.err.println(e.getMessage());
+        }
+
+        return messages;
+    }
+
     /**
      * get message by message id
      * @param message_id int.
@@ -149,50 +406,69 @@ public class MessageDAO {
     }
 
     /**
-     * update message_text by message id
+     * update message_text by message id and return the updated row, in one statement.
+     * Uses H2's data change delta table: SELECT FROM FINAL TABLE (UPDATE ...) yields the rows as updated.
      * @param message_id
      * @param message_text should been checked as valid in service layer
-     * @return boolean true if message update success. false otherwise.
+     * @return Message as updated. Null if message_id does not exist or SQL failed.
      */
-    public boolean updateMessageTextByMessageId(int message_id, String message_text){
-        
-        String sql = "UPDATE Message SET message_text = ? WHERE message_id = ?;";
-        
+    public Message updateMessageTextReturning(int message_id, String message_text){
+
+        String sql = "SELECT * FROM FINAL TABLE (UPDATE Message SET message_text = ? WHERE message_id = ?);";
+
         try(Connection connection = ConnectionUtil.getConnection();
             PreparedStatement ps = connection.prepareStatement(sql);){
 
                 ps.setString(1, message_text);
                 ps.setInt(2, message_id);
 
-                // execute update, get the result set
-                int numRowsUpdated = ps.executeUpdate();
-                return numRowsUpdated == 1;
+                // execute the update, the result set holds the updated row if there was one
+                try(ResultSet rs = ps.executeQuery()){
+                    if(rs.next()){
+                        return new Message(rs.getInt("message_id"),
+                            rs.getInt("posted_by"),
+                            rs.getString("message_text"),
+                            rs.getLong("time_posted_epoch"));
+                    }
+                }
 
         } catch (SQLException e) {
             System.err.println(e.getMessage());
         }
 
-        return false;
+        return null;
     }
 
     /**
-     * delete the message by given message id
+     * delete the message by given message id and return the deleted row, in one statement.
+     * Uses H2's data change delta table: SELECT FROM OLD TABLE (DELETE ...) yields the rows as they were before
+     * the delete. Of two concurrent deletes of the same message, only the one that actually removed it gets it back.
      * @param message_id
+     * @return Message that was deleted. Null if message_id does not exist or SQL failed.
      */
-    public void deleteMessageById(int message_id){
+    public Message deleteMessageById(int message_id){
         
-        String sql = "DELETE FROM Message WHERE message_id = ?;";
+        String sql = "SELECT * FROM OLD TABLE (DELETE FROM Message WHERE message_id = ?);";
 
         try(Connection connection = ConnectionUtil.getConnection();
         PreparedStatement ps = connection.prepareStatement(sql);){
 
             ps.setInt(1, message_id);
 
-            // execute update, get the result set
-            int numRowsUpdated = ps.executeUpdate();
+            // execute the delete, the result set holds the deleted row if there was one
+            try(ResultSet rs = ps.executeQuery()){
+                if(rs.next()){
+                    return new Message(rs.getInt("message_id"),
+                        rs.getInt("posted_by"),
+                        rs.getString("message_text"),
+                        rs.getLong("time_posted_epoch"));
+                }
+            }
 
         } catch (SQLException e) {
             System.err.println(e.getMessage());
         }
+
+        return null;
     }
 }
@@ -0,0 +1,95 @@
+package DAO;
+
+import Model.Message;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Storage of messages. MessageDAO keeps them in the database, InMemoryMessageRepository in the heap;
+ * Repositories picks one at startup.
+ *
+ * Every implementation refuses a message whose posted_by is not an existing account.
+ */
+public interface MessageRepository {
+
+    /**
+     * @param insertMessage Message with posted_by, message_text, time_posted_epoch
+     * @return the inserted Message with its message_id. Null if the insert failed or posted_by does not exist.
+     */
+    Message insertMessage(Message insertMessage);
+
+    /**
+     * @param insertMessages Messages with posted_by, message_text, time_posted_epoch
+     * @return List<Message> in the same order, each with its message_id, or null where that insert failed
+     */
+    List<Message> insertMessages(List<Message> insertMessages);
+
+    /**
+     * @return List<Message> of every message, by message_id. May be empty.
+     */
+    List<Message> getAllMessages();
+
+    /**
+     * Hand every message to sink, by message_id, without holding them all in memory.
+     * @param sink receives each message. The Message instance may be reused between calls.
+     * @throws IOException if sink throws
+     */
+    void streamAllMessages(MessageSink sink) throws IOException;
+
+    /**
+     * @param after_id only messages with a larger message_id
+     * @param limit maximum number of messages
+     * @return List<Message> by message_id ascending
+     */
+    List<Message> getMessagesAfterId(int after_id, int limit);
+
+    /**
+     * @param before_id only messages with a smaller message_id
+     * @param limit maximum number of messages
+     * @return List<Message> by message_id descending
+     */
+    List<Message> getMessagesBeforeId(int before_id, int limit);
+
+    /**
+     * @param user_id posted_by
+     * @return List<Message> of the user, newest first
+     */
+    List<Message> getAllMessagesByUserId(int user_id);
+
+    /**
+     * @param user_id posted_by
+     * @param since_epoch earliest time_posted_epoch to include
+     * @param until_epoch latest time_posted_epoch to include
+     * @param limit maximum number of messages
+     * @return List<Message> of the user in that time range, newest first
+     */
+    List<Message> getMessagesByUserId(int user_id, long since_epoch, long until_epoch, int limit);
+
+    /**
+     * @param message_ids ids to look up
+     * @return Map<Integer, Message> from message_id to message, only for the ids that exist
+     */
+    Map<Integer, Message> getMessagesByIds(Collection<Integer> message_ids);
+
+    /**
+     * @param message_id
+     * @return the Message, or null if not found
+     */
+    Message getMessageById(int message_id);
+
+    /**
+     * @param message_id
+     * @param message_text new text
+     * @return the updated Message, or null if it does not exist
+     */
+    Message updateMessageTextReturning(int message_id, String message_text);
+
+    /**
+     * @param message_id
+     * @return the deleted Message, or null if it did not exist
+     */
+    Message deleteMessageById(int message_id);
+}
@@ -0,0 +1,19 @@
+package DAO;
+
+import Model.Message;
+
+import java.io.IOException;
+
+/**
+ * Receives messages one at a time while they are read from storage, so callers can write them out
+ * without building a list of every row first.
+ */
+@FunctionalInterface
+public interface MessageSink {
+
+    /**
+     * @param message the next message. The same instance may be reused for the next row, so it must not be kept.
+     * @throws IOException if the message cannot be written, which stops the read
+     */
+    void accept(Message message) throws IOException;
+}
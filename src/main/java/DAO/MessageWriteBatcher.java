@@ -0,0 +1,175 @@
+package DAO;
+
+import Model.Message;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Group commit for message inserts.
+ *
+ * Callers queue messages with submit() and get a future back. A single writer thread takes everything queued,
+ * up to maxRows messages or whatever arrived within maxDelayMillis of the first one, and inserts it with
+ * MessageRepository.insertMessages as one batch in one transaction. Each future then completes with the inserted
+ * message (carrying its generated message_id), or with null if that row could not be inserted.
+ */
+public class MessageWriteBatcher implements AutoCloseable {
+
+    // how often a writer collecting a batch checks whether close() was called
+    private static final long CLOSE_CHECK_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private final MessageRepository messageRepository;
+    private final int maxRows;
+    private final long maxDelayNanos;
+    private final BlockingQueue<PendingInsert> queue;
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    private final LongAdder flushCount = new LongAdder();
+    private final LongAdder rowCount = new LongAdder();
+
+    /**
+     * @param messageRepository repository the batches are written through
+     * @param maxRows largest number of messages written in one batch
+     * @param maxDelayMillis longest time a message waits for others to join its batch
+     * @param queueCapacity how many messages may wait at once before submit() blocks
+     */
+    public MessageWriteBatcher(MessageRepository messageRepository, int maxRows, long maxDelayMillis, int queueCapacity) {
+        this.messageRepository = messageRepository;
+        this.maxRows = maxRows;
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+        this.queue = new LinkedBlockingQueue<>(queueCapacity);
+        this.writer = new Thread(this::writeLoop, "message-write-batcher");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Queue a message for insertion, waiting for room in the queue if it is full.
+     * @param message Message to insert. Only need posted_by, message_text, time_posted_epoch
+     * @return future completed with the inserted message, or with null if the insert failed
+     */
+    public CompletableFuture<Message> submit(Message message) {
+        CompletableFuture<Message> future = new CompletableFuture<>();
+        if (!running) {
+            future.completeExceptionally(new IllegalStateException("MessageWriteBatcher is closed"));
+            return future;
+        }
+        try {
+            queue.put(new PendingInsert(message, future));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * @return number of batches written so far
+     */
+    public long getFlushCount() {
+        return flushCount.sum();
+    }
+
+    /**
+     * @return number of messages written so far, in all batches
+     */
+    public long getRowCount() {
+        return rowCount.sum();
+    }
+
+    /**
+     * Stop accepting messages, write whatever is still queued without waiting out maxDelayMillis, and stop the
+     * writer thread.
+     */
+    @Override
+    public void close() {
+        running = false;
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // anything that raced in after the writer stopped
+        PendingInsert pending;
+        while ((pending = queue.poll()) != null) {
+            pending.future.completeExceptionally(new IllegalStateException("MessageWriteBatcher is closed"));
+        }
+    }
+
+    private void writeLoop() {
+        List<PendingInsert> batch = new ArrayList<>(maxRows);
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingInsert first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+
+                // collect until the batch is full or the first message has waited long enough, or write it at once
+                // when close() is called
+                long deadline = System.nanoTime() + maxDelayNanos;
+                while (batch.size() < maxRows) {
+                    queue.drainTo(batch, maxRows - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= maxRows || remaining <= 0 || !running) break;
+                    PendingInsert next = queue.poll(Math.min(remaining, CLOSE_CHECK_NANOS), TimeUnit.NANOSECONDS);
+                    if (next != null) batch.add(next);
+                }
+
+                flush(batch);
+            } catch (InterruptedException e) {
+                running = false;
+            } finally {
+                // no-op for the futures flush() already completed
+                for (PendingInsert pending : batch) {
+                    pending.future.completeExceptionally(new IllegalStateException("message was not written"));
+                }
+                batch.clear();
+            }
+        }
+    }
+
+    private void flush(List<PendingInsert> batch) {
+        List<Message> messages = new ArrayList<>(batch.size());
+        for (PendingInsert pending : batch) {
+            messages.add(pending.message);
+        }
+
+        List<Message> inserted;
+        try {
+            inserted = messageRepository.insertMessages(messages);
+        } catch (RuntimeException e) {
+            countFlush(batch.size());
+            for (PendingInsert pending : batch) {
+                pending.future.completeExceptionally(e);
+            }
+            return;
+        }
+
+        countFlush(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            batch.get(i).future.complete(inserted.get(i));
+        }
+    }
+
+    // before any future completes, so a caller woken by its future sees its batch counted
+    private void countFlush(int rows) {
+        flushCount.increment();
+        rowCount.add(rows);
+    }
+
+    private static final class PendingInsert {
+        final Message message;
+        final CompletableFuture<Message> future;
+
+        PendingInsert(Message message, CompletableFuture<Message> future) {
+            this.message = message;
+            this.future = future;
+        }
+    }
+}
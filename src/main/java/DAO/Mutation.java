@@ -0,0 +1,160 @@
+package DAO;
+
+import Model.Account;
+import Model.Message;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * One record of DurableMemoryStore's write-ahead log and snapshots: an account or a message as stored, or the
+ * deletion of one by id. A record holds the whole row, not the change, so it can be applied again with the same
+ * result.
+ *
+ * The layout is a kind byte followed by the fields, numbers in the buffer's byte order and strings as their UTF-8
+ * length (NULL_STRING for null) and bytes.
+ */
+final class Mutation {
+
+    static final byte ACCOUNT = 1;
+    static final byte ACCOUNT_DELETED = 2;
+    static final byte MESSAGE = 3;
+    static final byte MESSAGE_DELETED = 4;
+
+    private static final int NULL_STRING = -1;
+
+    final byte kind;
+    final int id;
+    // set for ACCOUNT and MESSAGE only
+    final Account account;
+    final Message message;
+
+    private Mutation(byte kind, int id, Account account, Message message) {
+        this.kind = kind;
+        this.id = id;
+        this.account = account;
+        this.message = message;
+    }
+
+    /**
+     * Apply the record to the repositories being rebuilt.
+     */
+    void applyTo(InMemoryAccountRepository accounts, InMemoryMessageRepository messages) {
+        switch (kind) {
+            case ACCOUNT:
+                accounts.restore(account);
+                break;
+            case ACCOUNT_DELETED:
+                accounts.restoreDeletion(id);
+                break;
+            case MESSAGE:
+                messages.restore(message);
+                break;
+            default:
+                messages.restoreDeletion(id);
+        }
+    }
+
+    /**
+     * Write a record of account at the buffer's position, growing the buffer if needed.
+     * @return the buffer written to, flipped so the record is between its position and limit
+     */
+    static ByteBuffer encode(ByteBuffer buffer, Account account) {
+        byte[] username = bytes(account.getUsername());
+        byte[] password = bytes(account.getPassword());
+        buffer = room(buffer, 1 + 4 + stringLength(username) + stringLength(password));
+        buffer.put(ACCOUNT).putInt(account.getAccount_id());
+        putString(buffer, username);
+        putString(buffer, password);
+        return buffer.flip();
+    }
+
+    /**
+     * Write a record of message at the buffer's position, growing the buffer if needed.
+     * @return the buffer written to, flipped so the record is between its position and limit
+     */
+    static ByteBuffer encode(ByteBuffer buffer, Message message) {
+        byte[] text = bytes(message.getMessage_text());
+        buffer = room(buffer, 1 + 4 + 4 + 8 + stringLength(text));
+        buffer.put(MESSAGE).putInt(message.getMessage_id()).putInt(message.getPosted_by())
+            .putLong(message.getTime_posted_epoch());
+        putString(buffer, text);
+        return buffer.flip();
+    }
+
+    /**
+     * Write a deletion record at the buffer's position.
+     * @param kind ACCOUNT_DELETED or MESSAGE_DELETED
+     * @return the buffer, flipped so the record is between its position and limit
+     */
+    static ByteBuffer encodeDeletion(ByteBuffer buffer, byte kind, int id) {
+        buffer = room(buffer, 1 + 4);
+        buffer.put(kind).putInt(id);
+        return buffer.flip();
+    }
+
+    /**
+     * @param buffer holds the record; only its absolute get methods are used
+     * @param at where the record starts
+     * @return the record
+     * @throws IllegalArgumentException if the record is of no known kind
+     */
+    static Mutation decode(ByteBuffer buffer, int at) {
+        byte kind = buffer.get(at);
+        int id = buffer.getInt(at + 1);
+        switch (kind) {
+            case ACCOUNT: {
+                int passwordAt = at + 5 + stringLength(buffer, at + 5);
+                Account account = new Account(id, getString(buffer, at + 5), getString(buffer, passwordAt));
+                return new Mutation(kind, id, account, null);
+            }
+            case MESSAGE: {
+                Message message = new Message(id, buffer.getInt(at + 5), getString(buffer, at + 17),
+                    buffer.getLong(at + 9));
+                return new Mutation(kind, id, null, message);
+            }
+            case ACCOUNT_DELETED:
+            case MESSAGE_DELETED:
+                return new Mutation(kind, id, null, null);
+            default:
+                throw new IllegalArgumentException("Unknown record kind " + kind + " at " + at);
+        }
+    }
+
+    private static ByteBuffer room(ByteBuffer buffer, int length) {
+        if (buffer.remaining() >= length) return buffer;
+        ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + length))
+            .order(buffer.order());
+        return grown.put(buffer.flip());
+    }
+
+    private static byte[] bytes(String string) {
+        return string == null ? null : string.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int stringLength(byte[] bytes) {
+        return 4 + (bytes == null ? 0 : bytes.length);
+    }
+
+    private static int stringLength(ByteBuffer buffer, int at) {
+        return 4 + Math.max(0, buffer.getInt(at));
+    }
+
+    private static void putString(ByteBuffer buffer, byte[] bytes) {
+        if (bytes == null) {
+            buffer.putInt(NULL_STRING);
+        } else {
+            buffer.putInt(bytes.length).put(bytes);
+        }
+    }
+
+    private static String getString(ByteBuffer buffer, int at) {
+        int length = buffer.getInt(at);
+        if (length == NULL_STRING) return null;
+        byte[] bytes = new byte[length];
+        ByteBuffer view = buffer.duplicate();
+        view.position(at + 4);
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,193 @@
+package DAO;
+
+import Model.Message;
+import Util.IntLongIndex;
+import Util.OffHeapArena;
+import Util.RecordBuffers;
+
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Messages kept outside the Java heap, so their number adds neither heap nor garbage collection work.
+ *
+ * The records, laid out as described in RecordMessageRepository, are kept in an OffHeapArena. When the records left
+ * behind by updates and deletes take more room than the live ones, the write that finds so hands a compaction to a
+ * background thread and returns. The compaction copies the live records into a new arena without holding the lock,
+ * their addresses looked up COMPACTION_BATCH ids per read lock, while the writes go on and note the ids they change.
+ * Then, under the write lock, it copies the current records of those ids once more and switches to the new arena.
+ *
+ * The old arena's direct memory is not freed explicitly, since a reader may still be decoding from it after the
+ * switch: it goes when the garbage collector finds the arena unreachable. Until then the repository holds up to
+ * twice its live records in direct memory, which -XX:MaxDirectMemorySize must allow for; when the limit is reached,
+ * allocateDirect() itself runs the collector and waits for such buffers to be freed before it fails.
+ */
+public class OffHeapMessageRepository extends RecordMessageRepository {
+
+    // ids whose addresses are looked up per read lock while compacting
+    private static final int COMPACTION_BATCH = 1024;
+    // shared by all instances, daemon so it never keeps the JVM running
+    private static final ExecutorService COMPACTION = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "offheap-compaction");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final int chunkBytes;
+    // the fields below are guarded by lock
+    private OffHeapArena arena;
+    private long liveBytes;
+    private long deadBytes;
+    // set while a compaction runs, with the ids written to since it started
+    private BitSet changedDuringCompaction;
+
+    /**
+     * @param accountRepository accounts that posted_by must refer to
+     * @param chunkBytes size of each direct buffer of the arena; no message may take more than that
+     */
+    public OffHeapMessageRepository(AccountRepository accountRepository, int chunkBytes){
+        super(accountRepository);
+        this.chunkBytes = chunkBytes;
+        this.arena = new OffHeapArena(chunkBytes);
+    }
+
+    /**
+     * @return bytes of direct memory held for the records, including those left behind by updates and deletes, not
+     *         including an arena being compacted into or one compacted from that is not yet garbage collected
+     */
+    public long getOffHeapBytes(){
+        long stamp = lock.readLock();
+        try{
+            return arena.getCapacityBytes();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    RecordBuffers records(){
+        return arena;
+    }
+
+    @Override
+    long store(Message message, byte[] text){
+        int length = recordLength(text);
+        long address = arena.allocate(length);
+        writeRecord(arena.buffer(address), RecordBuffers.offset(address), message, text);
+        liveBytes += length;
+        if(changedDuringCompaction != null) changedDuringCompaction.set(message.getMessage_id());
+        return address;
+    }
+
+    @Override
+    void storeDeletion(int message_id){
+        // nothing to keep: the record goes once it is no longer indexed
+        if(changedDuringCompaction != null) changedDuringCompaction.set(message_id);
+    }
+
+    @Override
+    void discard(long address){
+        int length = recordLength(arena.buffer(address), RecordBuffers.offset(address));
+        liveBytes -= length;
+        deadBytes += length;
+    }
+
+    @Override
+    void afterWrite(){
+        if(changedDuringCompaction != null || deadBytes < chunkBytes || deadBytes < liveBytes) return;
+        changedDuringCompaction = new BitSet();
+        COMPACTION.execute(this::copyLiveRecords);
+    }
+
+    /**
+     * Compact now, on the calling thread, however little there is to gain, unless a compaction is running already.
+     * @return false if one was running
+     */
+    boolean compact(){
+        long stamp = lock.writeLock();
+        try{
+            if(changedDuringCompaction != null) return false;
+            changedDuringCompaction = new BitSet();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        copyLiveRecords();
+        return true;
+    }
+
+    // runs once changedDuringCompaction is set, and clears it
+    private void copyLiveRecords(){
+        OffHeapArena old;
+        int copyUpTo;
+        long stamp = lock.readLock();
+        try{
+            old = arena;
+            copyUpTo = lastId;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+
+        OffHeapArena compacted = new OffHeapArena(chunkBytes);
+        IntLongIndex moved = new IntLongIndex();
+        long[] addresses = new long[COMPACTION_BATCH];
+        try{
+            for(int from = 1; from <= copyUpTo; from += COMPACTION_BATCH){
+                int to = Math.min(copyUpTo, from + COMPACTION_BATCH - 1);
+                stamp = lock.readLock();
+                try{
+                    for(int id = from; id <= to; id++){
+                        addresses[id - from] = index.get(id);
+                    }
+                } finally {
+                    lock.unlockRead(stamp);
+                }
+                // records are never changed once written, so they are copied without the lock
+                for(int id = from; id <= to; id++){
+                    if(addresses[id - from] != NONE) moved.set(id, copy(old, addresses[id - from], compacted));
+                }
+            }
+        } catch (RuntimeException | OutOfMemoryError e) {
+            // out of direct memory, most likely; the old arena stays in use
+            System.err.println("Compacting the off-heap messages failed: " + e);
+            stamp = lock.writeLock();
+            changedDuringCompaction = null;
+            lock.unlockWrite(stamp);
+            return;
+        }
+
+        stamp = lock.writeLock();
+        try{
+            long compactedDeadBytes = 0;
+            BitSet changed = changedDuringCompaction;
+            for(int id = changed.nextSetBit(0); id >= 0; id = changed.nextSetBit(id + 1)){
+                long previous = moved.get(id);
+                if(previous != NONE){
+                    compactedDeadBytes += recordLength(compacted.buffer(previous), RecordBuffers.offset(previous));
+                }
+                long address = index.get(id);
+                moved.set(id, address == NONE ? NONE : copy(arena, address, compacted));
+            }
+            // readers still decoding from the old arena keep it alive until they are done
+            arena = compacted;
+            index = moved;
+            deadBytes = compactedDeadBytes;
+        } finally {
+            changedDuringCompaction = null;
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private static long copy(OffHeapArena from, long address, OffHeapArena to){
+        int at = RecordBuffers.offset(address);
+        int length = recordLength(from.buffer(address), at);
+        long copy = to.allocate(length);
+        ByteBuffer source = from.buffer(address).duplicate();
+        source.position(at).limit(at + length);
+        ByteBuffer target = to.buffer(copy).duplicate();
+        target.position(RecordBuffers.offset(copy));
+        target.put(source);
+        return copy;
+    }
+}
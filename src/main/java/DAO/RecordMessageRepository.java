@@ -0,0 +1,436 @@
+package DAO;
+
+import Model.Message;
+import Util.ConcurrentIntMap;
+import Util.IntLongIndex;
+import Util.RecordBuffers;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * The part shared by the message repositories that keep every message as a binary record in RecordBuffers rather
+ * than as a Message object: OffHeapMessageRepository and LogMessageRepository.
+ *
+ * A record is message_id, posted_by, time_posted_epoch, the length of the text and the text as UTF-8. Records are
+ * never changed: an update stores a new record and a delete only drops the index entry, and the subclass decides
+ * what happens to the records left behind. The index from message_id to record address is an IntLongIndex, which
+ * works because ids are handed out in increasing order like an identity column. The posted_by index keeps a Timeline
+ * per account, in the order of the database's message_posted_by_time_idx. So the heap holds a few arrays per page of
+ * ids and per account, not per message; Message objects are only created for the messages a call returns.
+ *
+ * Writes are serialized by a StampedLock. Reads find the record addresses under its read lock, or an optimistic read
+ * for a single message, and decode the records after letting go of it, from the RecordBuffers that were current
+ * when the addresses were read. A subclass that moves records somewhere else must therefore leave the old buffers
+ * as they are, and replace index and the buffers under the write lock.
+ *
+ * The foreign key on posted_by is checked against the AccountRepository given to the constructor.
+ */
+abstract class RecordMessageRepository implements MessageRepository {
+
+    // record layout
+    static final int MESSAGE_ID = 0;
+    static final int POSTED_BY = 4;
+    static final int TIME_POSTED_EPOCH = 8;
+    static final int TEXT_LENGTH = 16;
+    static final int TEXT = 20;
+    // TEXT_LENGTH of a null message_text
+    static final int NULL_TEXT = -1;
+
+    // index entry of an id that does not exist
+    static final long NONE = IntLongIndex.NONE;
+    // ids whose records are looked up per read lock when scanning
+    private static final int SCAN_BATCH = 1000;
+
+    final AccountRepository accountRepository;
+    final StampedLock lock = new StampedLock();
+    final ConcurrentIntMap<Timeline> byPostedBy = new ConcurrentIntMap<>();
+    // the fields below are guarded by lock
+    // message_id to record address
+    IntLongIndex index = new IntLongIndex();
+    int lastId;
+
+    /**
+     * @param accountRepository accounts that posted_by must refer to
+     */
+    RecordMessageRepository(AccountRepository accountRepository){
+        this.accountRepository = accountRepository;
+    }
+
+    /**
+     * @return the buffers the addresses in index refer to. The caller holds the lock, in any mode.
+     */
+    abstract RecordBuffers records();
+
+    /**
+     * Store the record of a message, encoded by writeRecord(). The caller holds the write lock.
+     * @param message with its message_id
+     * @param text message_text encoded by encode()
+     * @return address of the record
+     * @throws IOException if it cannot be stored
+     */
+    abstract long store(Message message, byte[] text) throws IOException;
+
+    /**
+     * Note that message_id is deleted, before its index entry is dropped. The caller holds the write lock.
+     * @param message_id
+     * @throws IOException if that cannot be stored, in which case the message is not deleted
+     */
+    abstract void storeDeletion(int message_id) throws IOException;
+
+    /**
+     * The record at address is no longer referenced by the index. The caller holds the write lock.
+     * @param address
+     */
+    abstract void discard(long address);
+
+    /**
+     * Called at the end of every write, still under the write lock.
+     */
+    void afterWrite(){
+    }
+
+    public Message insertMessage(Message insertMessage){
+        if(accountRepository.getAccountById(insertMessage.getPosted_by()) == null) return null;
+
+        byte[] text = encode(insertMessage.getMessage_text());
+        long stamp = lock.writeLock();
+        try{
+            append(insertMessage, text);
+            return insertMessage;
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            return null;
+        } finally {
+            afterWrite();
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public List<Message> insertMessages(List<Message> insertMessages){
+        // one lookup for all the accounts and one lock for all the rows, like MessageDAO's single batch
+        Set<Integer> postedBy = new HashSet<>();
+        for(Message message : insertMessages){
+            postedBy.add(message.getPosted_by());
+        }
+        Set<Integer> existing = accountRepository.getExistingAccountIds(postedBy);
+        byte[][] texts = new byte[insertMessages.size()][];
+        for(int i = 0; i < texts.length; i++){
+            texts[i] = encode(insertMessages.get(i).getMessage_text());
+        }
+
+        List<Message> inserted = new ArrayList<>(insertMessages.size());
+        long stamp = lock.writeLock();
+        try{
+            for(int i = 0; i < texts.length; i++){
+                Message message = insertMessages.get(i);
+                if(!existing.contains(message.getPosted_by())){
+                    inserted.add(null);
+                    continue;
+                }
+                try{
+                    append(message, texts[i]);
+                    inserted.add(message);
+                } catch (IOException e) {
+                    System.err.println(e.getMessage());
+                    inserted.add(null);
+                }
+            }
+        } finally {
+            afterWrite();
+            lock.unlockWrite(stamp);
+        }
+        return inserted;
+    }
+
+    public List<Message> getAllMessages(){
+        return getMessagesAfterId(0, Integer.MAX_VALUE);
+    }
+
+    public void streamAllMessages(MessageSink sink) throws IOException {
+        Message message = new Message();
+        long[] addresses = new long[SCAN_BATCH];
+        int after = 0;
+        while(true){
+            RecordBuffers current;
+            int found = 0;
+            long stamp = lock.readLock();
+            try{
+                current = records();
+                for(int id = after + 1; id <= lastId && found < SCAN_BATCH; id++){
+                    long address = index.get(id);
+                    if(address != NONE) addresses[found++] = address;
+                    after = id;
+                }
+            } finally {
+                lock.unlockRead(stamp);
+            }
+            if(found == 0) return;
+            for(int i = 0; i < found; i++){
+                sink.accept(read(current, addresses[i], message));
+            }
+        }
+    }
+
+    public List<Message> getMessagesAfterId(int after_id, int limit){
+        List<Message> messages = new ArrayList<>();
+        // a batch at a time, so a large limit neither holds the lock long nor needs one big array of addresses
+        int after = Math.max(after_id, 0);
+        // after + 1 would overflow at Integer.MAX_VALUE, and no id is that high
+        if(after == Integer.MAX_VALUE) return messages;
+        long[] addresses = new long[Math.max(0, Math.min(limit, SCAN_BATCH))];
+        while(messages.size() < limit){
+            RecordBuffers current;
+            int found = 0;
+            int wanted = Math.min(limit - messages.size(), addresses.length);
+            long stamp = lock.readLock();
+            try{
+                current = records();
+                for(int id = after + 1; id <= lastId && found < wanted; id++){
+                    long address = index.get(id);
+                    if(address != NONE) addresses[found++] = address;
+                    after = id;
+                }
+            } finally {
+                lock.unlockRead(stamp);
+            }
+            if(found == 0) break;
+            for(int i = 0; i < found; i++){
+                messages.add(read(current, addresses[i], new Message()));
+            }
+        }
+        return messages;
+    }
+
+    public List<Message> getMessagesBeforeId(int before_id, int limit){
+        List<Message> messages = new ArrayList<>();
+        // no id is below 1, and before_id - 1 would overflow at Integer.MIN_VALUE
+        if(before_id <= 1) return messages;
+        int before = before_id;
+        long[] addresses = new long[Math.max(0, Math.min(limit, SCAN_BATCH))];
+        while(messages.size() < limit){
+            RecordBuffers current;
+            int found = 0;
+            int wanted = Math.min(limit - messages.size(), addresses.length);
+            long stamp = lock.readLock();
+            try{
+                current = records();
+                for(int id = Math.min(before - 1, lastId); id > 0 && found < wanted; id--){
+                    long address = index.get(id);
+                    if(address != NONE) addresses[found++] = address;
+                    before = id;
+                }
+            } finally {
+                lock.unlockRead(stamp);
+            }
+            if(found == 0) break;
+            for(int i = 0; i < found; i++){
+                messages.add(read(current, addresses[i], new Message()));
+            }
+        }
+        return messages;
+    }
+
+    public List<Message> getAllMessagesByUserId(int user_id){
+        return this.getMessagesByUserId(user_id, Long.MIN_VALUE, Long.MAX_VALUE, Integer.MAX_VALUE);
+    }
+
+    public List<Message> getMessagesByUserId(int user_id, long since_epoch, long until_epoch, int limit){
+        List<Message> messages = new ArrayList<>();
+        Timeline timeline = byPostedBy.get(user_id);
+        if(timeline == null || since_epoch > until_epoch || limit <= 0) return messages;
+
+        RecordBuffers current;
+        long[] addresses;
+        int found = 0;
+        long stamp = lock.readLock();
+        try{
+            current = records();
+            // newest first, so walk down from the last entry at or before until_epoch
+            int from = timeline.indexAfter(until_epoch, Integer.MAX_VALUE) - 1;
+            addresses = new long[Math.max(0, Math.min(limit, from + 1))];
+            for(int i = from; i >= 0 && found < addresses.length && timeline.time(i) >= since_epoch; i--){
+                addresses[found++] = index.get(timeline.id(i));
+            }
+        } finally {
+            lock.unlockRead(stamp);
+        }
+        for(int i = 0; i < found; i++){
+            messages.add(read(current, addresses[i], new Message()));
+        }
+        return messages;
+    }
+
+    public Map<Integer, Message> getMessagesByIds(Collection<Integer> message_ids){
+        Map<Integer, Message> messages = new HashMap<>();
+        RecordBuffers current;
+        int[] ids = new int[message_ids.size()];
+        long[] addresses = new long[ids.length];
+        int found = 0;
+        long stamp = lock.readLock();
+        try{
+            current = records();
+            for(Integer id : message_ids){
+                long address = id == null ? NONE : index.get(id);
+                if(address != NONE){
+                    ids[found] = id;
+                    addresses[found++] = address;
+                }
+            }
+        } finally {
+            lock.unlockRead(stamp);
+        }
+        for(int i = 0; i < found; i++){
+            messages.put(ids[i], read(current, addresses[i], new Message()));
+        }
+        return messages;
+    }
+
+    public Message getMessageById(int message_id){
+        long stamp = lock.tryOptimisticRead();
+        RecordBuffers current = records();
+        long address = index.get(message_id);
+        if(!lock.validate(stamp)){
+            stamp = lock.readLock();
+            try{
+                current = records();
+                address = index.get(message_id);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return address == NONE ? null : read(current, address, new Message());
+    }
+
+    public Message updateMessageTextReturning(int message_id, String message_text){
+        byte[] text = encode(message_text);
+        long stamp = lock.writeLock();
+        try{
+            long address = index.get(message_id);
+            if(address == NONE) return null;
+
+            ByteBuffer buffer = records().buffer(address);
+            int at = RecordBuffers.offset(address);
+            Message updated = new Message(message_id, buffer.getInt(at + POSTED_BY), message_text,
+                buffer.getLong(at + TIME_POSTED_EPOCH));
+            long stored = store(updated, text);
+            discard(address);
+            index.set(message_id, stored);
+            return updated;
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            return null;
+        } finally {
+            afterWrite();
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public Message deleteMessageById(int message_id){
+        long stamp = lock.writeLock();
+        try{
+            long address = index.get(message_id);
+            if(address == NONE) return null;
+
+            Message deleted = read(records(), address, new Message());
+            storeDeletion(message_id);
+            discard(address);
+            index.set(message_id, NONE);
+            Timeline timeline = byPostedBy.get(deleted.getPosted_by());
+            if(timeline != null) timeline.remove(deleted.getTime_posted_epoch(), message_id);
+            return deleted;
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            return null;
+        } finally {
+            afterWrite();
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    // the caller holds the write lock; sets message_id on message
+    private void append(Message message, byte[] text) throws IOException {
+        int message_id = lastId + 1;
+        message.setMessage_id(message_id);
+        long address = store(message, text);
+        lastId = message_id;
+        indexMessage(message_id, message.getPosted_by(), message.getTime_posted_epoch(), address);
+    }
+
+    /**
+     * Add a new message to index and its account's Timeline. The caller holds the write lock.
+     */
+    void indexMessage(int message_id, int posted_by, long time_posted_epoch, long address){
+        index.set(message_id, address);
+        byPostedBy.computeIfAbsent(posted_by, id -> new Timeline()).add(time_posted_epoch, message_id);
+    }
+
+    /**
+     * @param text message_text encoded by encode()
+     * @return bytes the record takes
+     */
+    static int recordLength(byte[] text){
+        return TEXT + (text == null ? 0 : text.length);
+    }
+
+    /**
+     * @param buffer holding the record
+     * @param at where the record starts
+     * @return bytes the record takes
+     */
+    static int recordLength(ByteBuffer buffer, int at){
+        return TEXT + Math.max(buffer.getInt(at + TEXT_LENGTH), 0);
+    }
+
+    /**
+     * Write the record of a message, recordLength(text) bytes.
+     * @param buffer to write to, with absolute puts
+     * @param at where the record starts
+     * @param message with its message_id
+     * @param text message_text encoded by encode()
+     */
+    static void writeRecord(ByteBuffer buffer, int at, Message message, byte[] text){
+        buffer.putInt(at + MESSAGE_ID, message.getMessage_id());
+        buffer.putInt(at + POSTED_BY, message.getPosted_by());
+        buffer.putLong(at + TIME_POSTED_EPOCH, message.getTime_posted_epoch());
+        buffer.putInt(at + TEXT_LENGTH, text == null ? NULL_TEXT : text.length);
+        if(text != null){
+            // whatever position and limit the caller's buffer has
+            ByteBuffer view = buffer.duplicate();
+            view.clear().position(at + TEXT);
+            view.put(text);
+        }
+    }
+
+    static Message read(RecordBuffers records, long address, Message into){
+        ByteBuffer buffer = records.buffer(address);
+        int at = RecordBuffers.offset(address);
+        into.setMessage_id(buffer.getInt(at + MESSAGE_ID));
+        into.setPosted_by(buffer.getInt(at + POSTED_BY));
+        into.setTime_posted_epoch(buffer.getLong(at + TIME_POSTED_EPOCH));
+        int length = buffer.getInt(at + TEXT_LENGTH);
+        if(length == NULL_TEXT){
+            into.setMessage_text(null);
+        } else {
+            byte[] text = new byte[length];
+            ByteBuffer view = buffer.duplicate();
+            view.position(at + TEXT);
+            view.get(text);
+            into.setMessage_text(new String(text, StandardCharsets.UTF_8));
+        }
+        return into;
+    }
+
+    static byte[] encode(String message_text){
+        return message_text == null ? null : message_text.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,110 @@
+package DAO;
+
+import java.nio.file.Paths;
+
+/**
+ * The storage engine, chosen once at startup with the socialmedia.storage system property:
+ * "jdbc" (the default) keeps accounts and messages in the H2 database through AccountDAO and MessageDAO,
+ * "memory" keeps them in the heap through InMemoryAccountRepository and InMemoryMessageRepository,
+ * "offheap" keeps accounts the same way and messages in direct memory through OffHeapMessageRepository, in chunks of
+ * socialmedia.offheap.chunkBytes (default 64 MiB),
+ * "log" keeps accounts in the database and persists messages in a LogMessageRepository, in the directory
+ * socialmedia.log.dir (default ./data/messages) with segment files of socialmedia.log.segmentBytes (default 64 MiB),
+ * forced to disk every socialmedia.log.flushMillis (default 1000, 0 for every write),
+ * "durable" keeps accounts and messages in the heap like "memory" and makes them survive a restart with a
+ * DurableMemoryStore in socialmedia.durable.dir (default ./data/memory), its log in segment files of
+ * socialmedia.durable.segmentBytes (default 64 MiB) and a snapshot taken every socialmedia.durable.snapshotMillis
+ * (default 60000, 0 for none).
+ *
+ * Every service gets the same two instances, so with the in-memory engines they all see the same data. Those engines
+ * start empty, but for "durable", and like the log they ignore ConnectionUtil.resetTestDatabase() and do not take part
+ * in a UnitOfWork: each write is visible as soon as it returns and is never rolled back. The "log" and "durable"
+ * engines are closed by a shutdown hook, so their background threads stop and their files are forced to disk when
+ * the JVM exits.
+ */
+public final class Repositories {
+
+    private static AccountRepository accounts;
+    private static MessageRepository messages;
+
+    private Repositories() {
+    }
+
+    /**
+     * @return the AccountRepository of the configured engine
+     * @throws IllegalArgumentException if socialmedia.storage names no known engine
+     */
+    public static synchronized AccountRepository accounts() {
+        if (accounts == null) create();
+        return accounts;
+    }
+
+    /**
+     * @return the MessageRepository of the configured engine
+     * @throws IllegalArgumentException if socialmedia.storage names no known engine
+     */
+    public static synchronized MessageRepository messages() {
+        if (messages == null) create();
+        return messages;
+    }
+
+    /**
+     * @return true if the configured engine keeps anything in the H2 database ("jdbc" and "log"), so requests need a
+     *      connection and a UnitOfWork; false if the connection pool is never needed
+     * @throws IllegalArgumentException if socialmedia.storage names no known engine
+     */
+    public static synchronized boolean usesDatabase() {
+        if (accounts == null) create();
+        return accounts instanceof AccountDAO;
+    }
+
+    private static void create() {
+        String storage = System.getProperty("socialmedia.storage", "jdbc");
+        switch (storage) {
+            case "jdbc":
+                accounts = new AccountDAO();
+                messages = new MessageDAO();
+                break;
+            case "memory":
+                accounts = new InMemoryAccountRepository();
+                messages = new InMemoryMessageRepository(accounts);
+                break;
+            case "offheap":
+                accounts = new InMemoryAccountRepository();
+                messages = new OffHeapMessageRepository(accounts,
+                    Integer.getInteger("socialmedia.offheap.chunkBytes", 64 << 20));
+                break;
+            case "log":
+                accounts = new AccountDAO();
+                LogMessageRepository log = new LogMessageRepository(accounts,
+                    Paths.get(System.getProperty("socialmedia.log.dir", "./data/messages")),
+                    Integer.getInteger("socialmedia.log.segmentBytes", 64 << 20),
+                    Long.getLong("socialmedia.log.flushMillis", 1000L));
+                closeOnShutdown(log, "message-log-shutdown");
+                messages = log;
+                break;
+            case "durable":
+                DurableMemoryStore store = new DurableMemoryStore(
+                    Paths.get(System.getProperty("socialmedia.durable.dir", "./data/memory")),
+                    Integer.getInteger("socialmedia.durable.segmentBytes", 64 << 20),
+                    Long.getLong("socialmedia.durable.snapshotMillis", 60_000L));
+                closeOnShutdown(store, "memory-store-shutdown");
+                accounts = store.accounts();
+                messages = store.messages();
+                break;
+            default:
+                throw new IllegalArgumentException(
+                    "socialmedia.storage must be jdbc, memory, offheap, log or durable, not " + storage);
+        }
+    }
+
+    private static void closeOnShutdown(AutoCloseable engine, String threadName) {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                engine.close();
+            } catch (Exception e) {
+                System.err.println("Closing the storage engine failed: " + e.getMessage());
+            }
+        }, threadName));
+    }
+}
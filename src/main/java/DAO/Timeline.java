@@ -0,0 +1,68 @@
+package DAO;
+
+import java.util.Arrays;
+
+/**
+ * The posted_by index of one account for the repositories that keep messages outside the heap: (time_posted_epoch,
+ * message_id) pairs in ascending order, in two parallel primitive arrays, so the index costs no object per message.
+ * Read from the end, it is in the order of the database's message_posted_by_time_idx. Messages normally arrive newest
+ * last, so adding one is usually an append.
+ *
+ * Not thread-safe: the repository guards it with its own lock.
+ */
+final class Timeline {
+
+    private long[] times = new long[4];
+    private int[] ids = new int[4];
+    private int size;
+
+    void add(long time, int id) {
+        int at = indexAfter(time, id);
+        if (size == ids.length) {
+            times = Arrays.copyOf(times, size * 2);
+            ids = Arrays.copyOf(ids, size * 2);
+        }
+        System.arraycopy(times, at, times, at + 1, size - at);
+        System.arraycopy(ids, at, ids, at + 1, size - at);
+        times[at] = time;
+        ids[at] = id;
+        size++;
+    }
+
+    void remove(long time, int id) {
+        int at = indexAfter(time, id) - 1;
+        if (at < 0 || times[at] != time || ids[at] != id) return;
+        System.arraycopy(times, at + 1, times, at, size - at - 1);
+        System.arraycopy(ids, at + 1, ids, at, size - at - 1);
+        size--;
+    }
+
+    long time(int index) {
+        return times[index];
+    }
+
+    int id(int index) {
+        return ids[index];
+    }
+
+    // index of the first pair greater than (time, id), size if there is none
+    int indexAfter(long time, int id) {
+        if (size == 0 || compare(times[size - 1], ids[size - 1], time, id) <= 0) return size;
+        int low = 0;
+        int high = size - 1;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (compare(times[middle], ids[middle], time, id) <= 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private static int compare(long time, int id, long otherTime, int otherId) {
+        int byTime = Long.compare(time, otherTime);
+        return byTime != 0 ? byTime : Integer.compare(id, otherId);
+    }
+}
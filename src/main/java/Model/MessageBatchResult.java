@@ -0,0 +1,61 @@
+package Model;
+
+/**
+ * This is a class that models the outcome of one message of a POST /messages/batch request.
+ */
+public class MessageBatchResult {
+    /**
+     * Position of the message in the request array.
+     */
+    public int index;
+    /**
+     * 200 if the message was created, 400 if it was rejected, like POST /messages would answer.
+     */
+    public int status;
+    /**
+     * The created message including its message_id, or null if it was rejected.
+     */
+    public Message message;
+
+    public MessageBatchResult(){
+    }
+
+    public MessageBatchResult(int index, int status, Message message) {
+        this.index = index;
+        this.status = status;
+        this.message = message;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public void setIndex(int index) {
+        this.index = index;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public void setStatus(int status) {
+        this.status = status;
+    }
+
+    public Message getMessage() {
+        return message;
+    }
+
+    public void setMessage(Message message) {
+        this.message = message;
+    }
+
+    @Override
+    public String toString() {
+        return "MessageBatchResult{" +
+                "index=" + index +
+                ", status=" + status +
+                ", message=" + message +
+                '}';
+    }
+}
@@ -0,0 +1,52 @@
+package Model;
+
+import java.util.List;
+
+/**
+ * This is a class that models one page of messages returned by a keyset-paginated query.
+ *
+ * next_cursor is the message_id to pass back as after_id (or before_id, when paging backwards) to fetch the next
+ * page. It is null when there are no more messages in that direction.
+ */
+public class MessagePage {
+    /**
+     * The messages on this page, in the order they were paged through.
+     */
+    public List<Message> messages;
+    /**
+     * The cursor of the next page, or null if this is the last page.
+     */
+    public Integer next_cursor;
+
+    public MessagePage(){
+    }
+
+    public MessagePage(List<Message> messages, Integer next_cursor) {
+        this.messages = messages;
+        this.next_cursor = next_cursor;
+    }
+
+    public List<Message> getMessages() {
+        return messages;
+    }
+
+    public void setMessages(List<Message> messages) {
+        this.messages = messages;
+    }
+
+    public Integer getNext_cursor() {
+        return next_cursor;
+    }
+
+    public void setNext_cursor(Integer next_cursor) {
+        this.next_cursor = next_cursor;
+    }
+
+    @Override
+    public String toString() {
+        return "MessagePage{" +
+                "messages=" + messages +
+                ", next_cursor=" + next_cursor +
+                '}';
+    }
+}
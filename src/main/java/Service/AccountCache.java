@@ -0,0 +1,82 @@
+package Service;
+
+import DAO.AccountRepository;
+import Model.Account;
+import Util.CacheStatistics;
+import Util.LruCache;
+
+/**
+ * Account lookups by username, cached in front of an AccountRepository.
+ *
+ * Unknown usernames are cached too (as a NOT_FOUND marker), so repeated logins or registration checks for a user
+ * that does not exist do not reach the database either. Every account created through AccountService is put into
+ * the cache once its insert commits, which replaces any such marker.
+ *
+ * AccountService creates one for its own lookups; the controller builds a single AccountService, so the application
+ * has one account cache.
+ */
+public class AccountCache {
+
+    // marker for "looked up, does not exist"; never handed out
+    private static final Account NOT_FOUND = new Account(-1, null, null);
+
+    private final AccountRepository accountRepository;
+    private final LruCache<String, Account> byUsername;
+
+    /**
+     * Create a cache sized from the socialmedia.accountCache.maxSize and socialmedia.accountCache.ttlMillis
+     * system properties.
+     * @param accountRepository repository used on cache misses
+     */
+    public AccountCache(AccountRepository accountRepository){
+        this(accountRepository,
+            Integer.getInteger("socialmedia.accountCache.maxSize", 10_000),
+            Long.getLong("socialmedia.accountCache.ttlMillis", 60_000L));
+    }
+
+    /**
+     * @param accountRepository repository used on cache misses
+     * @param maxSize maximum number of entries
+     * @param ttlMillis how long an entry, found or not, may be served
+     */
+    public AccountCache(AccountRepository accountRepository, int maxSize, long ttlMillis){
+        this.accountRepository = accountRepository;
+        this.byUsername = new LruCache<>(maxSize, ttlMillis);
+    }
+
+    /**
+     * @param username
+     * @return the account, or null if it does not exist
+     */
+    public Account getAccountByUsername(String username){
+        Account account = this.byUsername.getOrLoad(username, name -> orNotFound(this.accountRepository.getAccountByUserName(name)));
+        return account == NOT_FOUND ? null : account;
+    }
+
+    /**
+     * Record a newly inserted account, replacing any NOT_FOUND marker.
+     * @param account the account as inserted, including its account_id
+     */
+    public void accountCreated(Account account){
+        this.byUsername.put(account.getUsername(), account);
+    }
+
+    /**
+     * Forget everything cached about account, e.g. after its password changed.
+     * @param account the account, needs username
+     */
+    public void invalidate(Account account){
+        this.byUsername.invalidate(account.getUsername());
+    }
+
+    /**
+     * @return counters of the username cache
+     */
+    public CacheStatistics getUsernameCacheStatistics(){
+        return this.byUsername.statistics();
+    }
+
+    private static Account orNotFound(Account account){
+        return account == null ? NOT_FOUND : account;
+    }
+}
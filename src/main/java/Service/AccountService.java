@@ -1,17 +1,21 @@
 package Service;
 
-import DAO.AccountDAO;
+import DAO.AccountRepository;
+import DAO.Repositories;
 import Model.Account;
+import Util.UnitOfWork;
 
 import java.util.List;
 
 public class AccountService {
     
-    private AccountDAO accountDAO;
+    private AccountRepository accountRepository;
+    private AccountCache accountCache;
 
-    // constructor, create a DAO for this object
+    // constructor, use the configured repository and create an account cache for this object
     public AccountService(){
-        this.accountDAO = new AccountDAO();
+        this.accountRepository = Repositories.accounts();
+        this.accountCache = new AccountCache(this.accountRepository);
     }
 
     /** 
@@ -25,27 +29,30 @@ public class AccountService {
      */
     public Account createAccount(Account account){
 
-        String newUsername = account.getUsername();
-        String newPassword = account.getPassword();
+        String newUsername = account == null ? null : account.getUsername();
+        String newPassword = account == null ? null : account.getPassword();
 
         // if the account information is invalid or username already exist, return null;
-        if(account == null || 
-            newUsername == null || newUsername.length() < 1 || 
+        if(newUsername == null || newUsername.length() < 1 || 
             newPassword == null || newPassword.length() < 4 ||
-            this.accountDAO.getAccountByUserName(newUsername) != null) {
+            this.accountCache.getAccountByUsername(newUsername) != null) {
             System.err.println("Account creation failure: Account information invalid.");
             return null;
         }
 
         // execute account insert
-        Account newAccount = accountDAO.insertAccount(account);
+        Account newAccount = accountRepository.insertAccount(account);
 
         // check if account insert failed, return null if so.
         if(newAccount == null){
-            System.err.println("Account creation failure: Account insert failure: " + account.getUsername());
+            System.err.println("Account creation failure: Account insert failure: " + newUsername);
             return null;
         }
 
+        // replace the "does not exist" entry the check above cached, once the account is visible to other requests
+        Account createdAccount = newAccount;
+        UnitOfWork.afterCommit(() -> this.accountCache.accountCreated(createdAccount));
+
         return newAccount;
     }
 
@@ -55,7 +62,7 @@ public class AccountService {
      * @return account the account queried by username
      */
     public Account getAccountByUsername(String username){
-        return this.accountDAO.getAccountByUserName(username);
+        return this.accountCache.getAccountByUsername(username);
     }
     
     /**
@@ -74,7 +81,7 @@ public class AccountService {
             || account.getUsername().length() < 1 || account.getPassword().length() < 4) 
             return null;
         
-        Account accountQueried = accountDAO.getAccountByUserName(account.getUsername());
+        Account accountQueried = this.accountCache.getAccountByUsername(account.getUsername());
 
         // if the account does not exist or the account information does not match, return false.
         if(accountQueried == null || 
@@ -91,7 +98,7 @@ public class AccountService {
      * @return List<Account> which contains all accounts
      */
     public List<Account> getAllAccounts(){
-        return accountDAO.getAllAccounts();
+        return accountRepository.getAllAccounts();
     }
 
 }
@@ -1,28 +1,76 @@
 package Service;
 
-import DAO.MessageDAO;
-import DAO.AccountDAO;
+import DAO.AccountRepository;
+import DAO.MessageRepository;
+import DAO.MessageSink;
+import DAO.MessageWriteBatcher;
+import DAO.Repositories;
 import Model.Message;
+import Model.MessageBatchResult;
+import Model.MessagePage;
+import Util.CacheStatistics;
+import Util.ConnectionUnavailableException;
+import Util.LruCache;
+import Util.UnitOfWork;
 
+import java.io.IOException;
+import java.sql.SQLTransientException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 public class MessageService {
 
-    private MessageDAO messageDAO;
-    private AccountDAO accountDAO;
+    private MessageRepository messageRepository;
+    private AccountRepository accountRepository;
+    // group commit for inserts, null unless socialmedia.writeBatch.enabled is set
+    private MessageWriteBatcher writeBatcher;
+    // longest an insert waits for its batch, longer than the pool's borrow timeout so that one is reported first
+    private long writeBatchTimeoutMillis;
+    // read-through cache of getMessageByMessageId, invalidated by every update and delete
+    private LruCache<Integer, Message> messageCache;
 
     // constructor
     public MessageService(){
-        this.messageDAO = new MessageDAO();
-        this.accountDAO = new AccountDAO();
+        this.messageRepository = Repositories.messages();
+        this.accountRepository = Repositories.accounts();
+        this.messageCache = new LruCache<>(
+            Integer.getInteger("socialmedia.messageCache.maxSize", 10_000),
+            Long.getLong("socialmedia.messageCache.ttlMillis", 60_000L));
+
+        if(Boolean.getBoolean("socialmedia.writeBatch.enabled")){
+            this.writeBatcher = new MessageWriteBatcher(this.messageRepository,
+                Integer.getInteger("socialmedia.writeBatch.maxRows", 100),
+                Long.getLong("socialmedia.writeBatch.maxDelayMillis", 5L),
+                Integer.getInteger("socialmedia.writeBatch.queueCapacity", 10_000));
+            this.writeBatchTimeoutMillis = Long.getLong("socialmedia.writeBatch.timeoutMillis", 5_000L);
+        }
+    }
+
+    /**
+     * Write the messages still queued in the write batcher and stop its thread. Does nothing without one.
+     */
+    public void close(){
+        if(this.writeBatcher != null){
+            this.writeBatcher.close();
+        }
     }
 
 
     /**
-     * First check if all user inputs are valid: posted_by exist, message not empty and not over 255 char.
-     * Then insert message to database.
+     * First check if all user inputs are valid: message not empty and not over 255 char.
+     * Then insert message to database, through the write batcher if group commit is enabled.
+     * Whether posted_by exists is left to the foreign key on message.posted_by, so a post costs one statement
+     * and there is no window between checking the account and inserting.
      * @param message should contain all information except the message_id.
      * @return Message, whcih is the Message just inserted. Null if userinput invalid or isnert failed.
+     * @throws ConnectionUnavailableException if the batch could not get a connection, or was not written within
+     *      socialmedia.writeBatch.timeoutMillis (the message may still be inserted later in that case)
      */
     public Message insertMessage(Message message){
         
@@ -34,12 +82,78 @@ public class MessageService {
            return null; 
         }
 
-        // check if posted_by exist in Account table
-        if(this.accountDAO.getAccountById(message.getPosted_by()) == null){
-            return null;
+        // wait for the batch this message joined to be committed
+        if(this.writeBatcher != null){
+            return awaitBatch(message);
         }
         
-        return this.messageDAO.insertMessage(message);
+        return this.messageRepository.insertMessage(message);
+    }
+
+    /**
+     * Submit message to the write batcher and wait, at most writeBatchTimeoutMillis, for its batch to be written.
+     * A failure of the batch is rethrown as it was thrown on the batcher thread, so a ConnectionUnavailableException
+     * still reaches the controller as one.
+     * @param message valid message to insert
+     * @return the inserted message, or null if its row could not be inserted
+     */
+    private Message awaitBatch(Message message){
+        try{
+            return this.writeBatcher.submit(message).get(this.writeBatchTimeoutMillis, TimeUnit.MILLISECONDS);
+        }catch(ExecutionException e){
+            if(e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw new IllegalStateException(e.getCause());
+        }catch(TimeoutException e){
+            throw new ConnectionUnavailableException(new SQLTransientException(
+                "message was not written within " + this.writeBatchTimeoutMillis + " ms"));
+        }catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new ConnectionUnavailableException(new SQLTransientException("interrupted waiting for the write batch", e));
+        }
+    }
+
+    /**
+     * Validate and insert several messages at once.
+     * The text of every message is checked in one pass, the existence of all posted_by accounts is checked with a
+     * single query, and the valid messages are then inserted as one JDBC batch in one transaction.
+     * @param messages messages to create, in request order
+     * @return one MessageBatchResult per message, in the same order: 200 with the created message, or 400
+     */
+    public List<MessageBatchResult> insertMessages(List<Message> messages){
+
+        List<MessageBatchResult> results = new ArrayList<>(messages.size());
+        Set<Integer> postedBy = new HashSet<>();
+        for(Message message : messages){
+            if(message != null) postedBy.add(message.getPosted_by());
+        }
+        Set<Integer> existingAccounts = postedBy.isEmpty() ? postedBy : this.accountRepository.getExistingAccountIds(postedBy);
+
+        // same rules as insertMessage, posted_by checked against the ids found above
+        List<Message> valid = new ArrayList<>();
+        List<Integer> validIndexes = new ArrayList<>();
+        for(int i = 0; i < messages.size(); i++){
+            Message message = messages.get(i);
+            if(message == null || 
+                message.getMessage_text() == null || 
+                message.getMessage_text().length() < 1 ||
+                message.getMessage_text().length() > 255 ||
+                !existingAccounts.contains(message.getPosted_by())){
+                results.add(new MessageBatchResult(i, 400, null));
+                continue;
+            }
+            results.add(null);
+            valid.add(message);
+            validIndexes.add(i);
+        }
+
+        List<Message> inserted = valid.isEmpty() ? valid : this.messageRepository.insertMessages(valid);
+        for(int i = 0; i < validIndexes.size(); i++){
+            int index = validIndexes.get(i);
+            Message message = inserted.get(i);
+            results.set(index, new MessageBatchResult(index, message == null ? 400 : 200, message));
+        }
+
+        return results;
     }
 
     /**
@@ -47,75 +161,138 @@ public class MessageService {
      * @return List<Message>
      */
     public List<Message> getAllMessages(){
-        return this.messageDAO.getAllMessages();
+        return this.messageRepository.getAllMessages();
     }
 
     /**
-     * get message by message id
+     * stream all messages to sink, one at a time, without building a list of them.
+     * @param sink receives each message
+     * @throws IOException if the sink fails
+     */
+    public void streamAllMessages(MessageSink sink) throws IOException {
+        this.messageRepository.streamAllMessages(sink);
+    }
+
+    /**
+     * get one page of messages using keyset pagination on message_id.
+     * Pages forward (ascending) from after_id, or backward (descending) from before_id when it is given.
+     * One extra row is fetched to tell whether another page exists.
+     * @param after_id return messages with a greater message_id. Ignored if before_id is not null.
+     * @param before_id return messages with a smaller message_id, newest first. May be null.
+     * @param limit page size, should have been checked as positive in controller layer
+     * @return MessagePage with the messages and the cursor of the next page (null if this is the last page)
+     */
+    public MessagePage getMessagesPage(int after_id, Integer before_id, int limit){
+
+        List<Message> messages = before_id == null
+            ? this.messageRepository.getMessagesAfterId(after_id, limit + 1)
+            : this.messageRepository.getMessagesBeforeId(before_id, limit + 1);
+
+        // no extra row means there is nothing after this page
+        if(messages.size() <= limit){
+            return new MessagePage(messages, null);
+        }
+
+        messages.remove(limit);
+        return new MessagePage(messages, messages.get(limit - 1).getMessage_id());
+    }
+
+    /**
+     * get message by message id, from the message cache when possible.
+     * Missing messages are not cached, since a later insert may create them.
      * @param message_id
      * @return quired message, which could be null if message_id not exist or SQL failed.
      */
     public Message getMessageByMessageId(int message_id){
-        return this.messageDAO.getMessageById(message_id);
+        return this.messageCache.getOrLoad(message_id, this.messageRepository::getMessageById);
     }
 
     /**
-     * get all messages by user id
+     * get several messages by id. Cached messages are served from the message cache, and all the others are
+     * fetched with one query.
+     * @param message_ids ids to look up, duplicates are ignored
+     * @return List<Message> in the order of message_ids, without the ids that do not exist
+     */
+    public List<Message> getMessagesByIds(List<Integer> message_ids){
+        return new ArrayList<>(this.messageCache.getAllOrLoad(new LinkedHashSet<>(message_ids),
+            this.messageRepository::getMessagesByIds).values());
+    }
+
+    /**
+     * @return hit, miss and eviction counts of the message cache
+     */
+    public CacheStatistics getMessageCacheStatistics(){
+        return this.messageCache.statistics();
+    }
+
+    /**
+     * get all messages by user id, newest first
      * @param account_id
      * @return List<Message>
      */
     public List<Message> getAllMessagesByUserId(int account_id){
-        return this.messageDAO.getAllMessagesByUserId(account_id);
+        return this.messageRepository.getAllMessagesByUserId(account_id);
+    }
+
+    /**
+     * get the messages of a user posted between since_epoch and until_epoch (both inclusive), newest first
+     * @param account_id
+     * @param since_epoch earliest time_posted_epoch to include
+     * @param until_epoch latest time_posted_epoch to include
+     * @param limit maximum number of messages to return
+     * @return List<Message>
+     */
+    public List<Message> getMessagesByUserId(int account_id, long since_epoch, long until_epoch, int limit){
+        return this.messageRepository.getMessagesByUserId(account_id, since_epoch, until_epoch, limit);
     }
 
-    // update the message text by given message id
-    // return Message updated. return null if update failed
     /**
      * update the message by given message id.
      * then return the message just been updated.
-     * since the user input only include message id and message text, 
-     * I have to use get... method to query the updated message for return.
+     * The update and reading the updated row back happen in a single statement, so there is one round trip
+     * and no separate existence check.
      * @param message_id message id
      * @param message_text new message text
-     * @return Message just been updated
+     * @return Message just been updated. Null if message_text invalid or message does not exist.
      */
     public Message updateMessageTextByMessageId(int message_id, String message_text){
 
-        // if message does not exist in database, or if message_text invalid, return null directly
-        if(this.getMessageByMessageId(message_id) == null || 
+        // if message_text invalid, return null directly
+        if(message_text == null ||
             message_text.length() < 1 || 
             message_text.length() > 255) {
             return null;
         }
 
-        // if update failure
-        if(!this.messageDAO.updateMessageTextByMessageId(message_id, message_text)){
-            return null;
-        }
+        // null if the message does not exist
+        Message updatedMessage = this.messageRepository.updateMessageTextReturning(message_id, message_text);
+        invalidateMessage(message_id);
 
-        // update success
-        return this.getMessageByMessageId(message_id);
+        return updatedMessage;
     }
 
     /**
-     * Check if message exist.
-     * If exist, delete it, and retuen the Message been deleted.
-     * Otherwise, retun null
+     * Delete the message and return it, in one statement.
+     * If the message did not exist, or a concurrent delete removed it first, return null.
      * @param message_id 
      * @return Message that been deleted. Null if not exist or SQL failed.
      */
     public Message deleteMessageById(int message_id){
         
-        // query the message to check if it exist
-        Message deletedMessage = this.messageDAO.getMessageById(message_id);
-        
-        // directly return if not exist.
-        if(deletedMessage == null) return null;
-        
-        // delete the message
-        this.messageDAO.deleteMessageById(message_id);
+        Message deletedMessage = this.messageRepository.deleteMessageById(message_id);
+        invalidateMessage(message_id);
 
         return deletedMessage;
     }
 
+    /**
+     * Drop message_id from the message cache now, and again once the change is committed, so a concurrent read of
+     * the old row cannot stay cached.
+     * @param message_id
+     */
+    private void invalidateMessage(int message_id){
+        this.messageCache.invalidate(message_id);
+        UnitOfWork.afterCommit(() -> this.messageCache.invalidate(message_id));
+    }
+
 }
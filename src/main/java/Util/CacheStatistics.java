@@ -0,0 +1,92 @@
+package Util;
+
+/**
+ * An immutable snapshot of the counters of an LruCache.
+ */
+public class CacheStatistics {
+
+    private final int size;
+    private final long hitCount;
+    private final long missCount;
+    private final long evictionCount;
+    private final long expirationCount;
+
+    public CacheStatistics(int size, long hitCount, long missCount, long evictionCount, long expirationCount) {
+        this.size = size;
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.evictionCount = evictionCount;
+        this.expirationCount = expirationCount;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    public long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * @return fraction of lookups served from the cache, 0 if there were none
+     */
+    public double getHitRate() {
+        long lookups = hitCount + missCount;
+        return lookups == 0 ? 0 : (double) hitCount / lookups;
+    }
+
+    /**
+     * @return entries dropped because the cache was full
+     */
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * @return entries dropped because they outlived the time to live
+     */
+    public long getExpirationCount() {
+        return expirationCount;
+    }
+
+    /**
+     * @param cache name of the cache, exported as the cache label, e.g. message
+     * @return the counters in the Prometheus text format
+     */
+    public String toPrometheusText(String cache) {
+        String labels = "{cache=\"" + PrometheusText.escape(cache) + "\"} ";
+        StringBuilder sb = new StringBuilder();
+        sb.append("# HELP cache_size Entries cached, including expired ones not yet removed.\n");
+        sb.append("# TYPE cache_size gauge\n");
+        sb.append("cache_size").append(labels).append(size).append('\n');
+        sb.append("# HELP cache_hits_total Lookups served from the cache.\n");
+        sb.append("# TYPE cache_hits_total counter\n");
+        sb.append("cache_hits_total").append(labels).append(hitCount).append('\n');
+        sb.append("# HELP cache_misses_total Lookups that were not cached or had expired.\n");
+        sb.append("# TYPE cache_misses_total counter\n");
+        sb.append("cache_misses_total").append(labels).append(missCount).append('\n');
+        sb.append("# HELP cache_evictions_total Entries dropped because the cache was full.\n");
+        sb.append("# TYPE cache_evictions_total counter\n");
+        sb.append("cache_evictions_total").append(labels).append(evictionCount).append('\n');
+        sb.append("# HELP cache_expirations_total Entries dropped because they outlived the time to live.\n");
+        sb.append("# TYPE cache_expirations_total counter\n");
+        sb.append("cache_expirations_total").append(labels).append(expirationCount).append('\n');
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return "CacheStatistics{" +
+                "size=" + size +
+                ", hits=" + hitCount +
+                ", misses=" + missCount +
+                ", hitRate=" + String.format("%.3f", getHitRate()) +
+                ", evictions=" + evictionCount +
+                ", expirations=" + expirationCount +
+                '}';
+    }
+}
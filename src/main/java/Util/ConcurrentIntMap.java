@@ -0,0 +1,317 @@
+package Util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.IntFunction;
+import java.util.function.UnaryOperator;
+
+/**
+ * A concurrent map from int keys to objects, without boxing the keys.
+ *
+ * The keys are spread over SEGMENTS segments, each an open-addressing hash table (linear probing, deletion by
+ * shifting the following entries back) guarded by its own StampedLock. Reads first try an optimistic read of the
+ * segment and only take its read lock if a write happened meanwhile, so a lookup is normally a few array reads and no
+ * write to shared memory. Writes take the segment's write lock. Null values are not allowed: a slot is empty exactly
+ * when its value is null.
+ */
+public class ConcurrentIntMap<V> {
+
+    private static final int SEGMENT_BITS = 4;
+    private static final int SEGMENTS = 1 << SEGMENT_BITS;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    public ConcurrentIntMap() {
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    /**
+     * @param key
+     * @return the value for key, or null if there is none
+     */
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        int hash = hash(key);
+        Segment segment = segmentFor(hash);
+        long stamp = segment.tryOptimisticRead();
+        if (stamp != 0) {
+            Object value = segment.table.get(key, hash);
+            if (segment.validate(stamp)) return (V) value;
+        }
+        stamp = segment.readLock();
+        try {
+            return (V) segment.table.get(key, hash);
+        } finally {
+            segment.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * @param key
+     * @param value not null
+     * @return the previous value for key, or null if there was none
+     */
+    @SuppressWarnings("unchecked")
+    public V put(int key, V value) {
+        if (value == null) throw new NullPointerException("value");
+        int hash = hash(key);
+        Segment segment = segmentFor(hash);
+        long stamp = segment.writeLock();
+        try {
+            return (V) segment.put(key, hash, value, false);
+        } finally {
+            segment.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * @param key
+     * @param value not null
+     * @return the current value for key if there is one, in which case nothing changed, otherwise null
+     */
+    @SuppressWarnings("unchecked")
+    public V putIfAbsent(int key, V value) {
+        if (value == null) throw new NullPointerException("value");
+        int hash = hash(key);
+        Segment segment = segmentFor(hash);
+        long stamp = segment.writeLock();
+        try {
+            return (V) segment.put(key, hash, value, true);
+        } finally {
+            segment.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * @param key
+     * @return the value removed, or null if there was none
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(int key) {
+        int hash = hash(key);
+        Segment segment = segmentFor(hash);
+        long stamp = segment.writeLock();
+        try {
+            return (V) segment.remove(key, hash);
+        } finally {
+            segment.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Replace the value for key with a new one computed from it, atomically. The function runs under the segment's
+     * write lock, so it must be short and must not use this map.
+     * @param key
+     * @param remapping gets the current value; returns the new value, or null to remove the entry
+     * @return the new value, or null if there was no value for key or it was removed
+     */
+    @SuppressWarnings("unchecked")
+    public V computeIfPresent(int key, UnaryOperator<V> remapping) {
+        int hash = hash(key);
+        Segment segment = segmentFor(hash);
+        long stamp = segment.writeLock();
+        try {
+            V current = (V) segment.table.get(key, hash);
+            if (current == null) return null;
+            V updated = remapping.apply(current);
+            if (updated == null) {
+                segment.remove(key, hash);
+            } else {
+                segment.put(key, hash, updated, false);
+            }
+            return updated;
+        } finally {
+            segment.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Return the value for key, creating it first if there is none. The function runs under the segment's write
+     * lock, so it must be short and must not use this map.
+     * @param key
+     * @param mapping creates the value from key, not null
+     * @return the current or newly created value
+     */
+    public V computeIfAbsent(int key, IntFunction<? extends V> mapping) {
+        V current = get(key);
+        if (current != null) return current;
+        int hash = hash(key);
+        Segment segment = segmentFor(hash);
+        long stamp = segment.writeLock();
+        try {
+            @SuppressWarnings("unchecked")
+            V value = (V) segment.table.get(key, hash);
+            if (value == null) {
+                value = mapping.apply(key);
+                segment.put(key, hash, value, false);
+            }
+            return value;
+        } finally {
+            segment.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * @return every value, in no particular order. Each segment is copied consistently, the map as a whole is not.
+     */
+    @SuppressWarnings("unchecked")
+    public List<V> values() {
+        List<V> values = new ArrayList<>();
+        for (Segment segment : segments) {
+            long stamp = segment.readLock();
+            try {
+                for (Object value : segment.table.values) {
+                    if (value != null) values.add((V) value);
+                }
+            } finally {
+                segment.unlockRead(stamp);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * @return number of entries
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            long stamp = segment.readLock();
+            try {
+                size += segment.size;
+            } finally {
+                segment.unlockRead(stamp);
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Remove every entry.
+     */
+    public void clear() {
+        for (Segment segment : segments) {
+            long stamp = segment.writeLock();
+            try {
+                segment.table = new Table(INITIAL_CAPACITY);
+                segment.size = 0;
+            } finally {
+                segment.unlockWrite(stamp);
+            }
+        }
+    }
+
+    private static int hash(int key) {
+        // Fibonacci hashing, then fold the high bits down so both the segment and the slot depend on all of them
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private Segment segmentFor(int hash) {
+        return segments[hash >>> (32 - SEGMENT_BITS)];
+    }
+
+    private static final class Segment extends StampedLock {
+
+        // replaced, never resized in place, so an optimistic reader always sees arrays of matching length
+        volatile Table table = new Table(INITIAL_CAPACITY);
+        int size;
+
+        // the caller holds the write lock
+        Object put(int key, int hash, Object value, boolean onlyIfAbsent) {
+            Table t = table;
+            int slot = t.slotOf(key, hash);
+            Object previous = t.values[slot];
+            if (previous != null) {
+                if (!onlyIfAbsent) t.values[slot] = value;
+                return previous;
+            }
+            if (size + 1 > t.values.length * 3 / 4) {
+                t = resize(t);
+                slot = t.slotOf(key, hash);
+            }
+            t.keys[slot] = key;
+            t.values[slot] = value;
+            size++;
+            return null;
+        }
+
+        // the caller holds the write lock
+        Object remove(int key, int hash) {
+            Table t = table;
+            int slot = t.slotOf(key, hash);
+            Object previous = t.values[slot];
+            if (previous == null) return null;
+            t.deleteAt(slot);
+            size--;
+            return previous;
+        }
+
+        private Table resize(Table old) {
+            Table t = new Table(old.values.length * 2);
+            for (int i = 0; i < old.values.length; i++) {
+                if (old.values[i] != null) {
+                    int slot = t.slotOf(old.keys[i], hash(old.keys[i]));
+                    t.keys[slot] = old.keys[i];
+                    t.values[slot] = old.values[i];
+                }
+            }
+            table = t;
+            return t;
+        }
+    }
+
+    private static final class Table {
+        final int[] keys;
+        final Object[] values;
+        final int mask;
+
+        Table(int capacity) {
+            keys = new int[capacity];
+            values = new Object[capacity];
+            mask = capacity - 1;
+        }
+
+        // may run concurrently with a writer when read optimistically, so it never probes more than the whole table
+        Object get(int key, int hash) {
+            int slot = hash & mask;
+            for (int probes = 0; probes <= mask; probes++) {
+                Object value = values[slot];
+                if (value == null) return null;
+                if (keys[slot] == key) return value;
+                slot = (slot + 1) & mask;
+            }
+            return null;
+        }
+
+        // the slot holding key, or the empty slot where it would go
+        int slotOf(int key, int hash) {
+            int slot = hash & mask;
+            while (values[slot] != null && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        // empty the slot, moving back the entries after it that would no longer be found past the gap
+        void deleteAt(int gap) {
+            int slot = gap;
+            while (true) {
+                slot = (slot + 1) & mask;
+                if (values[slot] == null) break;
+                int home = hash(keys[slot]) & mask;
+                // the entry stays if its home slot lies cyclically in (gap, slot]
+                boolean reachable = gap <= slot ? gap < home && home <= slot : gap < home || home <= slot;
+                if (reachable) continue;
+                keys[gap] = keys[slot];
+                values[gap] = values[slot];
+                gap = slot;
+            }
+            values[gap] = null;
+        }
+    }
+}
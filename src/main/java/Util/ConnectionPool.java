@@ -0,0 +1,568 @@
+package Util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.sql.DataSource;
+
+/**
+ * A small bounded pool of physical connections.
+ *
+ * Connections handed out by borrow() are proxies: calling close() on them returns the physical connection to the
+ * pool instead of closing it, so the DAO classes can keep using try-with-resources as before.
+ *
+ * A background housekeeper evicts connections idle longer than idleTimeoutMillis (never going below minSize),
+ * tops the pool back up to minSize, and reports connections held longer than leakThresholdMillis.
+ *
+ * Each physical connection also keeps up to statementCacheSize prepared statements, least recently used evicted
+ * first. prepareStatement(sql) and prepareStatement(sql, autoGeneratedKeys) on a borrowed connection reuse the
+ * cached statement for the same SQL, and closing the returned statement clears its parameters and puts it back
+ * instead of closing it, so the same SQL is parsed and planned once per connection rather than once per call.
+ *
+ * Every execute call on a statement from a borrowed connection, prepared or not, cached or not, is timed into the
+ * QueryMetrics given to the constructor, which also keeps the slow-query log. Statements from createStatement() are
+ * keyed by the SQL passed to each execute call. Statements the borrower did not close are closed, or put back in the
+ * cache, when the connection is given back.
+ */
+public class ConnectionPool implements AutoCloseable {
+
+    /**
+     * A connection returned to the pool less than this long ago is assumed alive and only checked with isClosed().
+     */
+    private static final long VALIDATION_BYPASS_MILLIS = 500;
+    private static final int VALIDATION_TIMEOUT_SECONDS = 5;
+
+    private final DataSource dataSource;
+    private final int minSize;
+    private final int maxSize;
+    private final long idleTimeoutMillis;
+    private final long borrowTimeoutMillis;
+    private final long leakThresholdMillis;
+    private final int statementCacheSize;
+    private final QueryMetrics queryMetrics;
+
+    // idle connections, most recently returned first
+    private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+    // handles currently borrowed, used for leak detection
+    private final Set<ConnectionHandle> borrowed = ConcurrentHashMap.newKeySet();
+    // one permit per connection that may exist
+    private final Semaphore permits;
+    private final AtomicInteger totalConnections = new AtomicInteger();
+    private final ScheduledExecutorService housekeeper;
+    private volatile boolean closed;
+
+    private final LongAdder borrowCount = new LongAdder();
+    private final LongAdder borrowWaitNanos = new LongAdder();
+    private final LongAdder createdCount = new LongAdder();
+    private final LongAdder destroyedCount = new LongAdder();
+    private final LongAdder timeoutCount = new LongAdder();
+    private final LongAdder validationFailureCount = new LongAdder();
+    private final LongAdder leakCount = new LongAdder();
+    private final LongAdder statementHitCount = new LongAdder();
+    private final LongAdder statementMissCount = new LongAdder();
+    private final LongAdder statementEvictionCount = new LongAdder();
+
+    /**
+     * @param dataSource where physical connections come from
+     * @param minSize number of connections kept open even when idle
+     * @param maxSize maximum number of connections open at once
+     * @param idleTimeoutMillis how long a connection above minSize may stay idle before it is closed
+     * @param borrowTimeoutMillis how long borrow() waits for a free connection before failing
+     * @param leakThresholdMillis how long a connection may be borrowed before it is reported as leaked, 0 to disable
+     * @param statementCacheSize prepared statements cached per connection, 0 to disable the cache
+     * @param queryMetrics where statement executions are timed
+     */
+    public ConnectionPool(DataSource dataSource, int minSize, int maxSize,
+                          long idleTimeoutMillis, long borrowTimeoutMillis, long leakThresholdMillis,
+                          int statementCacheSize, QueryMetrics queryMetrics) {
+        if (minSize < 0 || maxSize < 1 || minSize > maxSize) {
+            throw new IllegalArgumentException("invalid pool size: min=" + minSize + ", max=" + maxSize);
+        }
+        this.dataSource = dataSource;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.leakThresholdMillis = leakThresholdMillis;
+        this.statementCacheSize = statementCacheSize;
+        this.queryMetrics = queryMetrics;
+        this.permits = new Semaphore(maxSize, true);
+
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "connection-pool-housekeeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1000, Math.min(idleTimeoutMillis, leakThresholdMillis > 0 ? leakThresholdMillis : Long.MAX_VALUE) / 2);
+        this.housekeeper.scheduleWithFixedDelay(this::houseKeep, 0, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Borrow a connection, waiting up to borrowTimeoutMillis for one to become free.
+     * @return a connection whose close() gives it back to the pool
+     * @throws SQLException if the pool is exhausted for too long, closed, or a new connection cannot be opened
+     */
+    public Connection borrow() throws SQLException {
+        if (closed) throw new SQLException("Connection pool is closed");
+
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                timeoutCount.increment();
+                throw new SQLException("Timed out after " + borrowTimeoutMillis + "ms waiting for a connection " + statistics());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection", e);
+        }
+
+        try {
+            PooledConnection pooled;
+            while ((pooled = idle.pollFirst()) != null) {
+                if (isUsable(pooled)) break;
+                validationFailureCount.increment();
+                destroy(pooled);
+            }
+            if (pooled == null) pooled = create();
+
+            ConnectionHandle handle = new ConnectionHandle(pooled);
+            borrowed.add(handle);
+            borrowCount.increment();
+            borrowWaitNanos.add(System.nanoTime() - start);
+            return handle.proxy;
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * @return a snapshot of the pool counters
+     */
+    public PoolStatistics statistics() {
+        int total = totalConnections.get();
+        int idleNow = idle.size();
+        return new PoolStatistics(minSize, maxSize, total, total - idleNow, idleNow, permits.getQueueLength(),
+            borrowCount.sum(), borrowWaitNanos.sum(), createdCount.sum(), destroyedCount.sum(),
+            timeoutCount.sum(), validationFailureCount.sum(), leakCount.sum(),
+            statementHitCount.sum(), statementMissCount.sum(), statementEvictionCount.sum());
+    }
+
+    /**
+     * Close every idle connection and stop the housekeeper. Borrowed connections are closed when they are returned.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        housekeeper.shutdownNow();
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            destroy(pooled);
+        }
+    }
+
+    private boolean isUsable(PooledConnection pooled) {
+        try {
+            if (System.currentTimeMillis() - pooled.lastReturnedMillis < VALIDATION_BYPASS_MILLIS) {
+                return !pooled.physical.isClosed();
+            }
+            return pooled.physical.isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private PooledConnection create() throws SQLException {
+        Connection physical = dataSource.getConnection();
+        totalConnections.incrementAndGet();
+        createdCount.increment();
+        return new PooledConnection(physical, statementCacheSize);
+    }
+
+    private void destroy(PooledConnection pooled) {
+        totalConnections.decrementAndGet();
+        destroyedCount.increment();
+        try {
+            pooled.physical.close();
+        } catch (SQLException e) {
+            System.err.println(e.getMessage());
+        }
+    }
+
+    // called once per borrow, when the borrower closes its handle
+    private void giveBack(ConnectionHandle handle) {
+        borrowed.remove(handle);
+        PooledConnection pooled = handle.pooled;
+        try {
+            // a cached statement left open would stay in use, and never be handed out again
+            handle.closeOpenStatements();
+            // leave the connection the way the next borrower expects it
+            if (!pooled.physical.getAutoCommit()) {
+                pooled.physical.rollback();
+                pooled.physical.setAutoCommit(true);
+            }
+            if (closed || pooled.physical.isClosed()) {
+                destroy(pooled);
+            } else {
+                pooled.lastReturnedMillis = System.currentTimeMillis();
+                idle.offerFirst(pooled);
+            }
+        } catch (SQLException e) {
+            destroy(pooled);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void houseKeep() {
+        try {
+            long now = System.currentTimeMillis();
+
+            // evict from the tail, where the longest idle connections are
+            Iterator<PooledConnection> it = idle.descendingIterator();
+            while (it.hasNext() && totalConnections.get() > minSize) {
+                PooledConnection pooled = it.next();
+                if (now - pooled.lastReturnedMillis > idleTimeoutMillis && idle.remove(pooled)) {
+                    destroy(pooled);
+                }
+            }
+
+            while (!closed && totalConnections.get() < minSize && permits.tryAcquire()) {
+                try {
+                    PooledConnection pooled = create();
+                    pooled.lastReturnedMillis = now;
+                    idle.offerLast(pooled);
+                } finally {
+                    permits.release();
+                }
+            }
+
+            if (leakThresholdMillis > 0) {
+                for (ConnectionHandle handle : borrowed) {
+                    if (!handle.leakReported && now - handle.borrowedAtMillis > leakThresholdMillis) {
+                        handle.leakReported = true;
+                        leakCount.increment();
+                        reportLeak(handle, now);
+                    }
+                }
+            }
+        } catch (SQLException | RuntimeException e) {
+            System.err.println("Connection pool housekeeping failed: " + e.getMessage());
+        }
+    }
+
+    private void reportLeak(ConnectionHandle handle, long now) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Possible connection leak: connection borrowed by thread '")
+            .append(handle.borrower.getName()).append("' ")
+            .append(now - handle.borrowedAtMillis).append("ms ago has not been closed. Thread is currently at:");
+        for (StackTraceElement frame : handle.borrower.getStackTrace()) {
+            sb.append(System.lineSeparator()).append("\tat ").append(frame);
+        }
+        System.err.println(sb);
+    }
+
+    /**
+     * A physical connection owned by the pool, with its prepared statement cache. Only the current borrower touches
+     * the cache, so it needs no locking of its own.
+     */
+    private final class PooledConnection {
+        final Connection physical;
+        final LinkedHashMap<String, CachedStatement> statements;
+        volatile long lastReturnedMillis;
+
+        PooledConnection(Connection physical, int statementCacheSize) {
+            this.physical = physical;
+            this.lastReturnedMillis = System.currentTimeMillis();
+            this.statements = new LinkedHashMap<String, CachedStatement>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CachedStatement> eldest) {
+                    if (size() <= statementCacheSize) return false;
+                    statementEvictionCount.increment();
+                    CachedStatement evicted = eldest.getValue();
+                    // a statement still open by the borrower is closed when it is given back
+                    evicted.evicted = true;
+                    if (!evicted.inUse) evicted.closePhysical();
+                    return true;
+                }
+            };
+        }
+    }
+
+    /**
+     * A physical prepared statement kept open in a connection's cache.
+     */
+    private static final class CachedStatement {
+        final String key;
+        final PreparedStatement physical;
+        final int defaultFetchSize;
+        boolean inUse;
+        boolean evicted;
+
+        CachedStatement(String key, PreparedStatement physical) throws SQLException {
+            this.key = key;
+            this.physical = physical;
+            this.defaultFetchSize = physical.getFetchSize();
+        }
+
+        void closePhysical() {
+            try {
+                physical.close();
+            } catch (SQLException e) {
+                System.err.println(e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * One borrow of a pooled connection. Once closed, the proxy refuses further use so a stale reference can never
+     * touch a connection that has been handed to someone else.
+     */
+    private final class ConnectionHandle implements InvocationHandler {
+        final PooledConnection pooled;
+        final Connection proxy;
+        final Thread borrower = Thread.currentThread();
+        final long borrowedAtMillis = System.currentTimeMillis();
+        volatile boolean leakReported;
+        private boolean returned;
+        // statements handed out on this borrow and not closed yet
+        private final List<StatementHandle> openStatements = new ArrayList<>();
+
+        ConnectionHandle(PooledConnection pooled) {
+            this.pooled = pooled;
+            this.proxy = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[] { Connection.class }, this);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!returned) {
+                        returned = true;
+                        giveBack(this);
+                    }
+                    return null;
+                case "isClosed":
+                    return returned || pooled.physical.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled[" + pooled.physical + "]";
+                default:
+                    if (returned) throw new SQLException("Connection has already been returned to the pool");
+                    if (method.getName().equals("prepareStatement")) {
+                        return prepare(method, args);
+                    }
+                    if (method.getName().equals("createStatement")) {
+                        return create(method, args);
+                    }
+            }
+            try {
+                return method.invoke(pooled.physical, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+        // close what the borrower left open; called by giveBack
+        void closeOpenStatements() throws SQLException {
+            for (StatementHandle statement : new ArrayList<>(openStatements)) {
+                statement.close();
+            }
+        }
+
+        // prepareStatement(String) and prepareStatement(String, int autoGeneratedKeys)
+        private boolean isCacheable(Method method) {
+            Class<?>[] types = method.getParameterTypes();
+            return types.length == 1 || (types.length == 2 && types[1] == int.class);
+        }
+
+        private PreparedStatement prepare(Method method, Object[] args) throws Throwable {
+            String sql = (String) args[0];
+            if (statementCacheSize > 0 && isCacheable(method)) {
+                int autoGeneratedKeys = args.length == 1 ? Statement.NO_GENERATED_KEYS : (Integer) args[1];
+                return prepareCached(sql, autoGeneratedKeys);
+            }
+            try {
+                PreparedStatement physical = (PreparedStatement) method.invoke(pooled.physical, args);
+                return (PreparedStatement) new StatementHandle(sql, physical, null).proxy;
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+        // createStatement() and its overloads; never cached, timed per execute call
+        private Statement create(Method method, Object[] args) throws Throwable {
+            try {
+                return new StatementHandle(null, (Statement) method.invoke(pooled.physical, args), null).proxy;
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+        private PreparedStatement prepareCached(String sql, int autoGeneratedKeys) throws SQLException {
+            String key = autoGeneratedKeys + ":" + sql;
+            CachedStatement cached = pooled.statements.get(key);
+            if (cached != null && cached.inUse) {
+                // the same SQL is already open on this connection; hand out a plain statement the caller closes
+                statementMissCount.increment();
+                PreparedStatement physical = pooled.physical.prepareStatement(sql, autoGeneratedKeys);
+                return (PreparedStatement) new StatementHandle(sql, physical, null).proxy;
+            }
+            if (cached != null) {
+                statementHitCount.increment();
+            } else {
+                statementMissCount.increment();
+                cached = new CachedStatement(key, pooled.physical.prepareStatement(sql, autoGeneratedKeys));
+                pooled.statements.put(key, cached);
+            }
+            cached.inUse = true;
+            return (PreparedStatement) new StatementHandle(sql, cached.physical, cached).proxy;
+        }
+
+        /**
+         * One use of a statement, prepared or not, cached or not. Times every execute call, and like the connection
+         * proxy, refuses further use once closed.
+         */
+        private final class StatementHandle implements InvocationHandler {
+            // null for a statement from createStatement(), whose SQL comes with each execute call
+            final String sql;
+            final Statement physical;
+            // null if the statement is not cached and is closed for real with the handle
+            final CachedStatement cached;
+            // a PreparedStatement if physical is one
+            final Statement proxy;
+            private boolean closed;
+            private int batchRows;
+
+            StatementHandle(String sql, Statement physical, CachedStatement cached) {
+                this.sql = sql;
+                this.physical = physical;
+                this.cached = cached;
+                Class<?> type = physical instanceof PreparedStatement ? PreparedStatement.class : Statement.class;
+                this.proxy = (Statement) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, this);
+                openStatements.add(this);
+            }
+
+            void close() throws SQLException {
+                if (closed) return;
+                closed = true;
+                openStatements.remove(this);
+                if (cached != null) {
+                    release();
+                } else {
+                    physical.close();
+                }
+            }
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                switch (method.getName()) {
+                    case "close":
+                        close();
+                        return null;
+                    case "isClosed":
+                        return closed || physical.isClosed();
+                    case "getConnection":
+                        return ConnectionHandle.this.proxy;
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "toString":
+                        return (cached != null ? "Cached[" : "Statement[") + physical + "]";
+                    default:
+                        if (closed) throw new SQLException("Statement is closed");
+                        if (method.getName().startsWith("execute")) {
+                            return timedExecute(method, args);
+                        }
+                        if (method.getName().equals("addBatch")) {
+                            batchRows++;
+                        } else if (method.getName().equals("clearBatch")) {
+                            batchRows = 0;
+                        }
+                }
+                try {
+                    return method.invoke(physical, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            }
+
+            private Object timedExecute(Method method, Object[] args) throws Throwable {
+                String sql = this.sql != null ? this.sql
+                    : args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : "batch";
+                long start = System.nanoTime();
+                boolean failed = true;
+                try {
+                    Object result = method.invoke(physical, args);
+                    failed = false;
+                    return result;
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                } finally {
+                    long nanos = System.nanoTime() - start;
+                    queryMetrics.record(sql, nanos, failed);
+                    if (queryMetrics.isSlow(nanos)) {
+                        queryMetrics.logSlow(sql, nanos, parameterCount(), batchRows);
+                    }
+                    // executeBatch and executeLargeBatch empty the batch
+                    if (method.getName().endsWith("Batch")) {
+                        batchRows = 0;
+                    }
+                }
+            }
+
+            // only asked for slow executions
+            private int parameterCount() {
+                if (!(physical instanceof PreparedStatement)) return 0;
+                try {
+                    return ((PreparedStatement) physical).getParameterMetaData().getParameterCount();
+                } catch (SQLException e) {
+                    return -1;
+                }
+            }
+
+            // reset what a DAO method may have changed, so the next user gets a statement as if freshly prepared
+            private void release() {
+                cached.inUse = false;
+                if (cached.evicted) {
+                    cached.closePhysical();
+                    return;
+                }
+                try {
+                    cached.physical.clearParameters();
+                    cached.physical.clearBatch();
+                    cached.physical.clearWarnings();
+                    cached.physical.setFetchSize(cached.defaultFetchSize);
+                } catch (SQLException e) {
+                    pooled.statements.remove(cached.key);
+                    cached.closePhysical();
+                }
+            }
+        }
+    }
+}
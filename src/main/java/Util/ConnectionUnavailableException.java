@@ -0,0 +1,18 @@
+package Util;
+
+import java.sql.SQLException;
+
+/**
+ * Thrown by ConnectionUtil.getConnection() when no connection can be had, most often because the pool stayed
+ * exhausted for the whole borrow timeout. It is unchecked so it passes through the DAO methods, which handle
+ * SQLException themselves, up to the controller, which answers 503.
+ */
+public class ConnectionUnavailableException extends RuntimeException {
+
+    /**
+     * @param cause why the pool could not hand out a connection
+     */
+    public ConnectionUnavailableException(SQLException cause) {
+        super(cause.getMessage(), cause);
+    }
+}
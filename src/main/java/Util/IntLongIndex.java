@@ -0,0 +1,55 @@
+package Util;
+
+import java.util.Arrays;
+
+/**
+ * A map from positive int keys to longs, for keys handed out in increasing order such as identity column ids.
+ *
+ * The values are kept in pages of PAGE_SIZE longs, indexed directly by the key, so a lookup is two array reads and
+ * the index grows a page at a time without copying what is already there. Keys that were never set, or set to NONE,
+ * have no value. set() is not thread-safe; callers serialize it, e.g. under a write lock. get() never throws whatever
+ * it races with, so it can be used in an optimistic read that is validated afterwards.
+ */
+public class IntLongIndex {
+
+    /**
+     * The value of a key that has none.
+     */
+    public static final long NONE = -1L;
+
+    private static final int PAGE_BITS = 16;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    private long[][] pages = new long[0][];
+
+    /**
+     * @param key
+     * @return the value of key, or NONE
+     */
+    public long get(int key) {
+        long[][] current = pages;
+        int page = key >>> PAGE_BITS;
+        if (key <= 0 || page >= current.length || current[page] == null) return NONE;
+        return current[page][key & PAGE_MASK];
+    }
+
+    /**
+     * @param key positive
+     * @param value the new value, NONE to remove it
+     */
+    public void set(int key, long value) {
+        if (key <= 0) throw new IllegalArgumentException("key must be positive, not " + key);
+        int page = key >>> PAGE_BITS;
+        if (page >= pages.length) {
+            pages = Arrays.copyOf(pages, Math.max(page + 1, pages.length * 2));
+        }
+        if (pages[page] == null) {
+            if (value == NONE) return;
+            long[] entries = new long[PAGE_SIZE];
+            Arrays.fill(entries, NONE);
+            pages[page] = entries;
+        }
+        pages[page][key & PAGE_MASK] = value;
+    }
+}
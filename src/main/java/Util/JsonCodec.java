@@ -0,0 +1,115 @@
+package Util;
+
+import Model.Account;
+import Model.Message;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import io.javalin.json.JsonMapper;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Type;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The single JSON subsystem of the application.
+ *
+ * ObjectMapper is thread safe once configured, and ObjectReader/ObjectWriter are immutable, so one mapper and one
+ * reader/writer per type are built once and shared by every request. The same instance is registered as Javalin's
+ * JsonMapper, so context.json() goes through the same pre-built writers.
+ */
+public class JsonCodec implements JsonMapper {
+
+    /**
+     * The shared mapper. Account and Message use the hand-written codecs of ModelCodecModule.
+     */
+    public static final ObjectMapper MAPPER = new ObjectMapper().registerModule(new ModelCodecModule());
+
+    public static final ObjectReader ACCOUNT_READER = MAPPER.readerFor(Account.class);
+    public static final ObjectReader MESSAGE_READER = MAPPER.readerFor(Message.class);
+    public static final ObjectReader MESSAGE_LIST_READER = MAPPER.readerForListOf(Message.class);
+
+    public static final JsonCodec INSTANCE = new JsonCodec();
+
+    private final ConcurrentHashMap<Type, ObjectReader> readers = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Type, ObjectWriter> writers = new ConcurrentHashMap<>();
+
+    private JsonCodec() {
+        readers.put(Account.class, ACCOUNT_READER);
+        readers.put(Message.class, MESSAGE_READER);
+    }
+
+    /**
+     * @param type the type to read
+     * @return the shared reader for type, built on first use
+     */
+    public ObjectReader readerFor(Type type) {
+        return readers.computeIfAbsent(type, t -> MAPPER.readerFor(MAPPER.constructType(t)));
+    }
+
+    /**
+     * @param type the type to write
+     * @return the shared writer for type, built on first use
+     */
+    public ObjectWriter writerFor(Type type) {
+        return writers.computeIfAbsent(type, t -> MAPPER.writerFor(MAPPER.constructType(t)));
+    }
+
+    /**
+     * Create a generator writing straight to out, for responses written incrementally.
+     * Closing the generator flushes it but leaves out open, and does not close unfinished arrays or objects, so a
+     * response cut short by an error stays visibly incomplete.
+     * @param out the stream to write to
+     * @return a new generator
+     * @throws IOException if the generator cannot be created
+     */
+    public static JsonGenerator createGenerator(OutputStream out) throws IOException {
+        JsonGenerator generator = MAPPER.getFactory().createGenerator(out);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT);
+        return generator;
+    }
+
+    @Override
+    public String toJsonString(Object obj, Type type) {
+        try {
+            return writerFor(type).writeValueAsString(obj);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public InputStream toJsonStream(Object obj, Type type) {
+        try {
+            return new ByteArrayInputStream(writerFor(type).writeValueAsBytes(obj));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public <T> T fromJsonString(String json, Type targetType) {
+        try {
+            return readerFor(targetType).readValue(json);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public <T> T fromJsonStream(InputStream json, Type targetType) {
+        try {
+            return readerFor(targetType).readValue(json);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
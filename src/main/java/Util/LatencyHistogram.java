@@ -0,0 +1,104 @@
+package Util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of durations in nanoseconds, for latency percentiles.
+ *
+ * Values are counted in log-linear buckets: every power of two is split into SUB_BUCKETS equal buckets, so a
+ * recorded value is known to within about 3% whatever its magnitude, in a fixed array of under two thousand
+ * counters. record() is a single atomic increment and may be called from any number of threads; the percentiles
+ * read while values are being recorded are approximate in the same way as any concurrent snapshot.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // values below this get a bucket each
+    private static final long LINEAR_LIMIT = 2L * SUB_BUCKETS;
+    private static final int BUCKET_COUNT = indexOf(Long.MAX_VALUE) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Long::max, 0);
+
+    /**
+     * @param nanos the duration to record, negative values count as 0
+     */
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        counts.incrementAndGet(indexOf(nanos));
+        count.increment();
+        sum.add(nanos);
+        max.accumulate(nanos);
+    }
+
+    /**
+     * @return number of values recorded
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @return sum of all values recorded, in nanoseconds
+     */
+    public long getSum() {
+        return sum.sum();
+    }
+
+    /**
+     * @return largest value recorded, exactly, in nanoseconds
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @param percentile between 0 and 1, e.g. 0.99
+     * @return the smallest bucket bound that at least that fraction of the values fall at or below, in nanoseconds.
+     * 0 if nothing was recorded.
+     */
+    public long valueAtPercentile(double percentile) {
+        long total = getCount();
+        if (total == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(percentile * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) return Math.min(highestValueOf(i), getMax());
+        }
+        return getMax();
+    }
+
+    /**
+     * @param nanos upper bound
+     * @return number of values recorded at or below nanos, give or take the width of the bucket nanos falls in
+     */
+    public long countAtOrBelow(long nanos) {
+        if (nanos < 0) return 0;
+        int last = indexOf(nanos);
+        long seen = 0;
+        for (int i = 0; i <= last; i++) {
+            seen += counts.get(i);
+        }
+        return seen;
+    }
+
+    private static int indexOf(long value) {
+        if (value < LINEAR_LIMIT) return (int) value;
+        int shift = (63 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+        // value >>> shift keeps the top SUB_BUCKET_BITS + 1 bits, between SUB_BUCKETS and 2 * SUB_BUCKETS - 1
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    private static long highestValueOf(int index) {
+        if (index < LINEAR_LIMIT) return index;
+        int shift = index / SUB_BUCKETS - 1;
+        long top = index - shift * SUB_BUCKETS;
+        return ((top + 1) << shift) - 1;
+    }
+}
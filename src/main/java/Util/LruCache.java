@@ -0,0 +1,232 @@
+package Util;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * A bounded in-process cache with least-recently-used eviction and a time to live.
+ *
+ * Keys are spread over a fixed number of segments, each an access-ordered LinkedHashMap behind its own lock, so
+ * concurrent readers of different keys rarely wait for each other. Every segment holds at most maxSize / SEGMENTS
+ * entries and evicts its least recently used entry when full.
+ *
+ * getOrLoad() never caches a value that was loaded while the same segment was written to by put() or invalidated,
+ * so a read racing with an update cannot put the old value back after the update invalidated it.
+ */
+public class LruCache<K, V> {
+
+    private static final int SEGMENTS = 16;
+
+    private final Segment<K, V>[] segments;
+    private final long ttlNanos;
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+    private final LongAdder expirationCount = new LongAdder();
+
+    /**
+     * @param maxSize maximum number of entries, over all segments
+     * @param ttlMillis how long an entry may be served after it was cached
+     */
+    @SuppressWarnings("unchecked")
+    public LruCache(int maxSize, long ttlMillis) {
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.segments = new Segment[SEGMENTS];
+        int segmentSize = Math.max(1, maxSize / SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment<>(segmentSize, evictionCount);
+        }
+    }
+
+    /**
+     * @param key the key to look up
+     * @return the cached value, or null if key is not cached or its entry expired
+     */
+    public V get(K key) {
+        Segment<K, V> segment = segmentFor(key);
+        long now = System.nanoTime();
+        synchronized (segment) {
+            Entry<V> entry = segment.map.get(key);
+            if (entry != null) {
+                if (now - entry.cachedAtNanos < ttlNanos) {
+                    hitCount.increment();
+                    return entry.value;
+                }
+                segment.map.remove(key);
+                expirationCount.increment();
+            }
+        }
+        missCount.increment();
+        return null;
+    }
+
+    /**
+     * Return the cached value for key, or load it with loader and cache the result.
+     * A null result from loader is returned but not cached.
+     * @param key the key to look up
+     * @param loader called outside any lock on a miss
+     * @return the cached or loaded value
+     */
+    public V getOrLoad(K key, Function<? super K, ? extends V> loader) {
+        V value = get(key);
+        if (value != null) return value;
+
+        Segment<K, V> segment = segmentFor(key);
+        long version;
+        synchronized (segment) {
+            version = segment.version;
+        }
+        value = loader.apply(key);
+        if (value != null) {
+            synchronized (segment) {
+                // skip caching if anything in this segment was written or invalidated while loading
+                if (segment.version == version) {
+                    segment.map.put(key, new Entry<>(value, System.nanoTime()));
+                }
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Bulk version of getOrLoad: return the cached values of keys, and load all missing ones with a single call
+     * to loader. Keys the loader has no value for are left out of the result and not cached.
+     * @param keys the keys to look up
+     * @param loader called once, outside any lock, with the keys that were not cached
+     * @return Map of the keys that have a value, in the iteration order of keys
+     */
+    public Map<K, V> getAllOrLoad(Collection<K> keys, Function<? super Set<K>, ? extends Map<K, V>> loader) {
+        Map<K, V> result = new LinkedHashMap<>();
+        Map<K, Long> missVersions = new HashMap<>();
+        for (K key : keys) {
+            V value = get(key);
+            if (value != null) {
+                result.put(key, value);
+            } else {
+                Segment<K, V> segment = segmentFor(key);
+                synchronized (segment) {
+                    missVersions.put(key, segment.version);
+                }
+                // placeholder keeps the order of keys in the result
+                result.put(key, null);
+            }
+        }
+        if (missVersions.isEmpty()) return result;
+
+        Map<K, V> loaded = loader.apply(missVersions.keySet());
+        for (Map.Entry<K, Long> miss : missVersions.entrySet()) {
+            K key = miss.getKey();
+            V value = loaded.get(key);
+            if (value == null) {
+                result.remove(key);
+                continue;
+            }
+            result.put(key, value);
+            Segment<K, V> segment = segmentFor(key);
+            synchronized (segment) {
+                if (segment.version == miss.getValue()) {
+                    segment.map.put(key, new Entry<>(value, System.nanoTime()));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param key the key to cache value under
+     * @param value the value, must not be null
+     */
+    public void put(K key, V value) {
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            segment.version++;
+            segment.map.put(key, new Entry<>(value, System.nanoTime()));
+        }
+    }
+
+    /**
+     * Remove key from the cache. Call this whenever the value behind key changes.
+     * @param key the key to forget
+     */
+    public void invalidate(K key) {
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            segment.version++;
+            segment.map.remove(key);
+        }
+    }
+
+    /**
+     * Remove every entry.
+     */
+    public void invalidateAll() {
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                segment.version++;
+                segment.map.clear();
+            }
+        }
+    }
+
+    /**
+     * @return number of entries currently cached, including expired ones not yet removed
+     */
+    public int size() {
+        int size = 0;
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                size += segment.map.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return a snapshot of the cache counters
+     */
+    public CacheStatistics statistics() {
+        return new CacheStatistics(size(), hitCount.sum(), missCount.sum(), evictionCount.sum(), expirationCount.sum());
+    }
+
+    private Segment<K, V> segmentFor(K key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return segments[h & (SEGMENTS - 1)];
+    }
+
+    private static final class Entry<V> {
+        final V value;
+        final long cachedAtNanos;
+
+        Entry(V value, long cachedAtNanos) {
+            this.value = value;
+            this.cachedAtNanos = cachedAtNanos;
+        }
+    }
+
+    private static final class Segment<K, V> {
+        final LinkedHashMap<K, Entry<V>> map;
+        // bumped by every put and invalidation, see getOrLoad
+        long version;
+
+        Segment(int maxSize, LongAdder evictionCount) {
+            this.map = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                    if (size() > maxSize) {
+                        evictionCount.increment();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+    }
+}
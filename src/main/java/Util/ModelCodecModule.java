@@ -0,0 +1,138 @@
+package Util;
+
+import Model.Account;
+import Model.Message;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+import java.io.IOException;
+
+/**
+ * Hand-written Jackson codecs for Account and Message.
+ *
+ * They read and write the fields directly with the streaming API, so Jackson never has to introspect the model
+ * classes or go through reflective getters and setters. The JSON produced is the same as the bean serializers'.
+ */
+public class ModelCodecModule extends SimpleModule {
+
+    public ModelCodecModule() {
+        super("ModelCodecModule");
+        addSerializer(Account.class, new AccountSerializer());
+        addDeserializer(Account.class, new AccountDeserializer());
+        addSerializer(Message.class, new MessageSerializer());
+        addDeserializer(Message.class, new MessageDeserializer());
+    }
+
+    /**
+     * Write a single message as a JSON object. Also used when messages are streamed straight to a response.
+     * @param message the message to write
+     * @param gen generator positioned where a value is expected
+     * @throws IOException if writing fails
+     */
+    public static void writeMessage(Message message, JsonGenerator gen) throws IOException {
+        gen.writeStartObject();
+        gen.writeNumberField("message_id", message.getMessage_id());
+        gen.writeNumberField("posted_by", message.getPosted_by());
+        gen.writeStringField("message_text", message.getMessage_text());
+        gen.writeNumberField("time_posted_epoch", message.getTime_posted_epoch());
+        gen.writeEndObject();
+    }
+
+    static class AccountSerializer extends StdSerializer<Account> {
+        AccountSerializer() {
+            super(Account.class);
+        }
+
+        @Override
+        public void serialize(Account account, JsonGenerator gen, SerializerProvider provider) throws IOException {
+            gen.writeStartObject();
+            gen.writeNumberField("account_id", account.getAccount_id());
+            gen.writeStringField("username", account.getUsername());
+            gen.writeStringField("password", account.getPassword());
+            gen.writeEndObject();
+        }
+    }
+
+    static class MessageSerializer extends StdSerializer<Message> {
+        MessageSerializer() {
+            super(Message.class);
+        }
+
+        @Override
+        public void serialize(Message message, JsonGenerator gen, SerializerProvider provider) throws IOException {
+            writeMessage(message, gen);
+        }
+    }
+
+    static class AccountDeserializer extends StdDeserializer<Account> {
+        AccountDeserializer() {
+            super(Account.class);
+        }
+
+        @Override
+        public Account deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+            if (!p.isExpectedStartObjectToken()) {
+                return (Account) ctxt.handleUnexpectedToken(Account.class, p);
+            }
+            Account account = new Account();
+            for (String field = p.nextFieldName(); field != null; field = p.nextFieldName()) {
+                JsonToken token = p.nextToken();
+                switch (field) {
+                    case "account_id":
+                        account.setAccount_id(_parseIntPrimitive(p, ctxt));
+                        break;
+                    case "username":
+                        account.setUsername(token == JsonToken.VALUE_NULL ? null : _parseString(p, ctxt));
+                        break;
+                    case "password":
+                        account.setPassword(token == JsonToken.VALUE_NULL ? null : _parseString(p, ctxt));
+                        break;
+                    default:
+                        handleUnknownProperty(p, ctxt, account, field);
+                }
+            }
+            return account;
+        }
+    }
+
+    static class MessageDeserializer extends StdDeserializer<Message> {
+        MessageDeserializer() {
+            super(Message.class);
+        }
+
+        @Override
+        public Message deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+            if (!p.isExpectedStartObjectToken()) {
+                return (Message) ctxt.handleUnexpectedToken(Message.class, p);
+            }
+            Message message = new Message();
+            for (String field = p.nextFieldName(); field != null; field = p.nextFieldName()) {
+                JsonToken token = p.nextToken();
+                switch (field) {
+                    case "message_id":
+                        message.setMessage_id(_parseIntPrimitive(p, ctxt));
+                        break;
+                    case "posted_by":
+                        message.setPosted_by(_parseIntPrimitive(p, ctxt));
+                        break;
+                    case "message_text":
+                        message.setMessage_text(token == JsonToken.VALUE_NULL ? null : _parseString(p, ctxt));
+                        break;
+                    case "time_posted_epoch":
+                        message.setTime_posted_epoch(_parseLongPrimitive(p, ctxt));
+                        break;
+                    default:
+                        handleUnknownProperty(p, ctxt, message, field);
+                }
+            }
+            return message;
+        }
+    }
+}
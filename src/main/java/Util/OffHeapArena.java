@@ -0,0 +1,75 @@
+package Util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Append-only storage outside the Java heap, in direct ByteBuffer chunks of a fixed size.
+ *
+ * allocate() hands out the address of a range of bytes, which the caller then fills through buffer() and
+ * RecordBuffers.offset(). A range never spans two chunks and is never handed out again, so once written it can be
+ * read by any thread that learnt its address in a way that happens after the write. Allocation itself is not
+ * thread-safe: callers serialize it, e.g. under a write lock. Memory is only given back by dropping the whole arena, which frees its chunks when
+ * they are garbage collected; direct memory is capped by -XX:MaxDirectMemorySize.
+ */
+public class OffHeapArena implements RecordBuffers {
+
+    private final int chunkBytes;
+    // replaced, never changed in place, so readers without a lock see fully set up chunks
+    private volatile ByteBuffer[] chunks = new ByteBuffer[0];
+    private int position;
+    private long usedBytes;
+
+    /**
+     * @param chunkBytes size of each direct buffer, and so the largest range that can be allocated
+     */
+    public OffHeapArena(int chunkBytes) {
+        if (chunkBytes <= 0) throw new IllegalArgumentException("chunkBytes must be positive");
+        this.chunkBytes = chunkBytes;
+    }
+
+    /**
+     * Reserve size bytes, starting a new chunk if the current one has no room left.
+     * @param size number of bytes, at most chunkBytes
+     * @return the address of the range
+     */
+    public long allocate(int size) {
+        if (size > chunkBytes) throw new IllegalArgumentException(size + " bytes do not fit in a chunk of " + chunkBytes);
+        ByteBuffer[] current = chunks;
+        if (current.length == 0 || position + size > chunkBytes) {
+            ByteBuffer[] grown = Arrays.copyOf(current, current.length + 1);
+            grown[current.length] = ByteBuffer.allocateDirect(chunkBytes).order(ByteOrder.nativeOrder());
+            chunks = grown;
+            current = grown;
+            position = 0;
+        }
+        long address = ((long) (current.length - 1) << 32) | position;
+        position += size;
+        usedBytes += size;
+        return address;
+    }
+
+    /**
+     * @param address as returned by allocate()
+     * @return the chunk the range is in. Use its absolute get and put methods, so it can be shared between threads.
+     */
+    @Override
+    public ByteBuffer buffer(long address) {
+        return chunks[(int) (address >>> 32)];
+    }
+
+    /**
+     * @return bytes handed out by allocate() so far
+     */
+    public long getUsedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * @return bytes of direct memory held by the chunks
+     */
+    public long getCapacityBytes() {
+        return (long) chunks.length * chunkBytes;
+    }
+}
@@ -0,0 +1,196 @@
+package Util;
+
+/**
+ * An immutable snapshot of the counters of a ConnectionPool.
+ */
+public class PoolStatistics {
+
+    private final int minSize;
+    private final int maxSize;
+    private final int totalConnections;
+    private final int activeConnections;
+    private final int idleConnections;
+    private final int waitingThreads;
+    private final long borrowCount;
+    private final long borrowWaitNanos;
+    private final long createdCount;
+    private final long destroyedCount;
+    private final long timeoutCount;
+    private final long validationFailureCount;
+    private final long leakCount;
+    private final long statementHitCount;
+    private final long statementMissCount;
+    private final long statementEvictionCount;
+
+    public PoolStatistics(int minSize, int maxSize, int totalConnections, int activeConnections,
+                          int idleConnections, int waitingThreads, long borrowCount, long borrowWaitNanos,
+                          long createdCount, long destroyedCount, long timeoutCount,
+                          long validationFailureCount, long leakCount,
+                          long statementHitCount, long statementMissCount, long statementEvictionCount) {
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.totalConnections = totalConnections;
+        this.activeConnections = activeConnections;
+        this.idleConnections = idleConnections;
+        this.waitingThreads = waitingThreads;
+        this.borrowCount = borrowCount;
+        this.borrowWaitNanos = borrowWaitNanos;
+        this.createdCount = createdCount;
+        this.destroyedCount = destroyedCount;
+        this.timeoutCount = timeoutCount;
+        this.validationFailureCount = validationFailureCount;
+        this.leakCount = leakCount;
+        this.statementHitCount = statementHitCount;
+        this.statementMissCount = statementMissCount;
+        this.statementEvictionCount = statementEvictionCount;
+    }
+
+    public int getMinSize() {
+        return minSize;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return physical connections currently open, borrowed or idle
+     */
+    public int getTotalConnections() {
+        return totalConnections;
+    }
+
+    public int getActiveConnections() {
+        return activeConnections;
+    }
+
+    public int getIdleConnections() {
+        return idleConnections;
+    }
+
+    /**
+     * @return threads currently blocked waiting for a connection
+     */
+    public int getWaitingThreads() {
+        return waitingThreads;
+    }
+
+    public long getBorrowCount() {
+        return borrowCount;
+    }
+
+    /**
+     * @return average time spent in borrow(), including any wait for a free connection
+     */
+    public double getAverageBorrowMicros() {
+        return borrowCount == 0 ? 0 : borrowWaitNanos / 1000.0 / borrowCount;
+    }
+
+    public long getCreatedCount() {
+        return createdCount;
+    }
+
+    public long getDestroyedCount() {
+        return destroyedCount;
+    }
+
+    public long getTimeoutCount() {
+        return timeoutCount;
+    }
+
+    public long getValidationFailureCount() {
+        return validationFailureCount;
+    }
+
+    public long getLeakCount() {
+        return leakCount;
+    }
+
+    /**
+     * @return prepareStatement calls served by a statement already cached on the connection
+     */
+    public long getStatementHitCount() {
+        return statementHitCount;
+    }
+
+    /**
+     * @return prepareStatement calls that had to prepare a new statement
+     */
+    public long getStatementMissCount() {
+        return statementMissCount;
+    }
+
+    /**
+     * @return fraction of prepareStatement calls served from the statement cache, 0 if there were none
+     */
+    public double getStatementHitRate() {
+        long lookups = statementHitCount + statementMissCount;
+        return lookups == 0 ? 0 : (double) statementHitCount / lookups;
+    }
+
+    /**
+     * @return statements closed because their connection's cache was full
+     */
+    public long getStatementEvictionCount() {
+        return statementEvictionCount;
+    }
+
+    /**
+     * @return the counters in the Prometheus text format, as db_pool_* metrics
+     */
+    public String toPrometheusText() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("# HELP db_pool_connections Physical connections open, by state.\n");
+        sb.append("# TYPE db_pool_connections gauge\n");
+        sb.append("db_pool_connections{state=\"active\"} ").append(activeConnections).append('\n');
+        sb.append("db_pool_connections{state=\"idle\"} ").append(idleConnections).append('\n');
+        PrometheusText.appendSample(sb, "db_pool_max_connections", "gauge",
+            "Most physical connections the pool opens at once.", maxSize);
+        PrometheusText.appendSample(sb, "db_pool_waiting_threads", "gauge",
+            "Threads waiting for a connection.", waitingThreads);
+        PrometheusText.appendSample(sb, "db_pool_borrows_total", "counter",
+            "Connections handed out.", borrowCount);
+        PrometheusText.appendSample(sb, "db_pool_borrow_wait_seconds_total", "counter",
+            "Time spent getting connections, including waits for a free one.", borrowWaitNanos / 1e9);
+        PrometheusText.appendSample(sb, "db_pool_borrow_timeouts_total", "counter",
+            "Borrows that gave up waiting for a free connection.", timeoutCount);
+        PrometheusText.appendSample(sb, "db_pool_connections_created_total", "counter",
+            "Physical connections opened.", createdCount);
+        PrometheusText.appendSample(sb, "db_pool_connections_destroyed_total", "counter",
+            "Physical connections closed.", destroyedCount);
+        PrometheusText.appendSample(sb, "db_pool_validation_failures_total", "counter",
+            "Idle connections found broken when about to be handed out.", validationFailureCount);
+        PrometheusText.appendSample(sb, "db_pool_leaks_total", "counter",
+            "Connections held longer than the leak threshold.", leakCount);
+        PrometheusText.appendSample(sb, "db_pool_statement_cache_hits_total", "counter",
+            "prepareStatement calls served by a statement already cached on the connection.", statementHitCount);
+        PrometheusText.appendSample(sb, "db_pool_statement_cache_misses_total", "counter",
+            "prepareStatement calls that had to prepare a new statement.", statementMissCount);
+        PrometheusText.appendSample(sb, "db_pool_statement_cache_evictions_total", "counter",
+            "Statements closed because their connection's cache was full.", statementEvictionCount);
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return "PoolStatistics{" +
+                "min=" + minSize +
+                ", max=" + maxSize +
+                ", total=" + totalConnections +
+                ", active=" + activeConnections +
+                ", idle=" + idleConnections +
+                ", waiting=" + waitingThreads +
+                ", borrows=" + borrowCount +
+                ", avgBorrowMicros=" + String.format("%.2f", getAverageBorrowMicros()) +
+                ", created=" + createdCount +
+                ", destroyed=" + destroyedCount +
+                ", timeouts=" + timeoutCount +
+                ", validationFailures=" + validationFailureCount +
+                ", leaks=" + leakCount +
+                ", statementHits=" + statementHitCount +
+                ", statementMisses=" + statementMissCount +
+                ", statementHitRate=" + String.format("%.3f", getStatementHitRate()) +
+                ", statementEvictions=" + statementEvictionCount +
+                '}';
+    }
+}
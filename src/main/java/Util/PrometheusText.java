@@ -0,0 +1,58 @@
+package Util;
+
+/**
+ * Helpers for writing metrics in the Prometheus text exposition format, version 0.0.4.
+ */
+final class PrometheusText {
+
+    // upper bounds of the exported latency buckets, in seconds
+    private static final double[] BUCKET_BOUNDS = {
+        0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10
+    };
+
+    private PrometheusText() {
+    }
+
+    /**
+     * @param labelValue raw label value
+     * @return labelValue with backslashes, quotes and newlines escaped
+     */
+    static String escape(String labelValue) {
+        return labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /**
+     * Append the HELP and TYPE lines and the one sample of a metric without labels.
+     * @param sb where to write
+     * @param name metric name, e.g. db_pool_borrows_total
+     * @param type counter or gauge
+     * @param help what the metric counts
+     * @param value the sample
+     */
+    static void appendSample(StringBuilder sb, String name, String type, String help, Number value) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        sb.append(name).append(' ').append(value).append('\n');
+    }
+
+    /**
+     * Append the _bucket, _sum and _count samples of one histogram, in seconds.
+     * @param sb where to write
+     * @param name metric name, e.g. http_request_duration_seconds
+     * @param labels labels of the series, already escaped, e.g. route="GET /messages"
+     * @param latency the recorded durations
+     */
+    static void appendHistogram(StringBuilder sb, String name, String labels, LatencyHistogram latency) {
+        // read the count first, so no bucket can exceed +Inf while values are being recorded
+        long count = latency.getCount();
+        long sum = latency.getSum();
+        for (double bound : BUCKET_BOUNDS) {
+            long inBucket = Math.min(count, latency.countAtOrBelow((long) (bound * 1e9)));
+            sb.append(name).append("_bucket{").append(labels)
+                .append(",le=\"").append(bound).append("\"} ").append(inBucket).append('\n');
+        }
+        sb.append(name).append("_bucket{").append(labels).append(",le=\"+Inf\"} ").append(count).append('\n');
+        sb.append(name).append("_sum{").append(labels).append("} ").append(sum / 1e9).append('\n');
+        sb.append(name).append("_count{").append(labels).append("} ").append(count).append('\n');
+    }
+}
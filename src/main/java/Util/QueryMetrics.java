@@ -0,0 +1,177 @@
+package Util;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Timing of every prepared statement executed through a ConnectionPool, per SQL text, and a slow-query log.
+ *
+ * Each distinct SQL string gets its own LatencyHistogram and error counter; the DAO classes only use constant SQL,
+ * so there are a few dozen of them. Past MAX_STATEMENTS distinct strings, further ones are counted together under
+ * "other" so the map cannot grow without bound.
+ *
+ * Executions slower than slowQueryMillis are queued and printed to System.err by a background thread, so a burst of
+ * slow queries never makes the request threads wait on the console. If that queue is full the entry is dropped and
+ * only counted.
+ */
+public class QueryMetrics implements AutoCloseable {
+
+    private static final int MAX_STATEMENTS = 500;
+    private static final String OTHER = "other";
+    private static final int SLOW_LOG_CAPACITY = 1000;
+
+    private final long slowQueryNanos;
+    private final ConcurrentHashMap<String, Query> queries = new ConcurrentHashMap<>();
+    private final BlockingQueue<SlowQuery> slowLog = new ArrayBlockingQueue<>(SLOW_LOG_CAPACITY);
+    private final LongAdder slowQueryCount = new LongAdder();
+    private final LongAdder droppedSlowQueryCount = new LongAdder();
+    private final Thread slowLogWriter;
+
+    /**
+     * @param slowQueryMillis executions taking at least this long are logged, negative to log none
+     */
+    public QueryMetrics(long slowQueryMillis) {
+        this.slowQueryNanos = slowQueryMillis < 0 ? Long.MAX_VALUE : TimeUnit.MILLISECONDS.toNanos(slowQueryMillis);
+        this.slowLogWriter = new Thread(this::writeSlowLog, "slow-query-log");
+        this.slowLogWriter.setDaemon(true);
+        this.slowLogWriter.start();
+    }
+
+    /**
+     * Record one execution.
+     * @param sql the statement's SQL text
+     * @param nanos how long the execute call took
+     * @param failed whether it threw
+     */
+    public void record(String sql, long nanos, boolean failed) {
+        Query query = queryFor(sql);
+        query.latency.record(nanos);
+        if (failed) query.errors.increment();
+    }
+
+    /**
+     * @param nanos duration of an execution
+     * @return whether it should be passed to logSlow()
+     */
+    public boolean isSlow(long nanos) {
+        return nanos >= slowQueryNanos;
+    }
+
+    /**
+     * Queue a slow execution for the slow-query log.
+     * @param sql the statement's SQL text
+     * @param nanos how long the execute call took
+     * @param parameterCount number of bind parameters of the statement
+     * @param batchRows rows in the batch for executeBatch, 0 otherwise
+     */
+    public void logSlow(String sql, long nanos, int parameterCount, int batchRows) {
+        slowQueryCount.increment();
+        if (!slowLog.offer(new SlowQuery(sql, nanos, parameterCount, batchRows))) {
+            droppedSlowQueryCount.increment();
+        }
+    }
+
+    /**
+     * @return number of executions at or over the slow query threshold, logged or dropped
+     */
+    public long getSlowQueryCount() {
+        return slowQueryCount.sum();
+    }
+
+    /**
+     * @return number of slow executions not logged because the log queue was full
+     */
+    public long getDroppedSlowQueryCount() {
+        return droppedSlowQueryCount.sum();
+    }
+
+    /**
+     * @return per-statement timings and the slow query counters in the Prometheus text format, version 0.0.4
+     */
+    public String toPrometheusText() {
+        // sorted so the output is stable between scrapes
+        Map<String, Query> sorted = new TreeMap<>(queries);
+        StringBuilder sb = new StringBuilder();
+
+        sb.append("# HELP db_query_duration_seconds Time spent in execute calls of prepared statements, by SQL.\n");
+        sb.append("# TYPE db_query_duration_seconds histogram\n");
+        for (Map.Entry<String, Query> entry : sorted.entrySet()) {
+            PrometheusText.appendHistogram(sb, "db_query_duration_seconds", sqlLabel(entry.getKey()),
+                entry.getValue().latency);
+        }
+
+        sb.append("# HELP db_query_errors_total Execute calls that threw, by SQL.\n");
+        sb.append("# TYPE db_query_errors_total counter\n");
+        for (Map.Entry<String, Query> entry : sorted.entrySet()) {
+            sb.append("db_query_errors_total{").append(sqlLabel(entry.getKey())).append("} ")
+                .append(entry.getValue().errors.sum()).append('\n');
+        }
+
+        sb.append("# HELP db_slow_queries_total Executions at or over the slow query threshold.\n");
+        sb.append("# TYPE db_slow_queries_total counter\n");
+        sb.append("db_slow_queries_total ").append(getSlowQueryCount()).append('\n');
+        sb.append("# HELP db_slow_queries_dropped_total Slow executions left out of the slow query log.\n");
+        sb.append("# TYPE db_slow_queries_dropped_total counter\n");
+        sb.append("db_slow_queries_dropped_total ").append(getDroppedSlowQueryCount()).append('\n');
+        return sb.toString();
+    }
+
+    /**
+     * Stop the slow-query log writer. Queued entries that were not printed yet are lost.
+     */
+    @Override
+    public void close() {
+        slowLogWriter.interrupt();
+    }
+
+    private Query queryFor(String sql) {
+        Query query = queries.get(sql);
+        if (query != null) return query;
+        if (queries.size() >= MAX_STATEMENTS) {
+            return queries.computeIfAbsent(OTHER, s -> new Query());
+        }
+        return queries.computeIfAbsent(sql, s -> new Query());
+    }
+
+    private static String sqlLabel(String sql) {
+        // one line per series, whatever the SQL's own line breaks
+        return "sql=\"" + PrometheusText.escape(sql.replaceAll("\\s+", " ").trim()) + "\"";
+    }
+
+    private void writeSlowLog() {
+        try {
+            while (true) {
+                SlowQuery slow = slowLog.take();
+                System.err.println(String.format("Slow query: %.1f ms, %d bind parameters%s: %s",
+                    slow.nanos / 1e6, slow.parameterCount,
+                    slow.batchRows > 0 ? ", batch of " + slow.batchRows : "", slow.sql));
+            }
+        } catch (InterruptedException e) {
+            // closed
+        }
+    }
+
+    private static final class Query {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LongAdder errors = new LongAdder();
+    }
+
+    private static final class SlowQuery {
+        final String sql;
+        final long nanos;
+        final int parameterCount;
+        final int batchRows;
+
+        SlowQuery(String sql, long nanos, int parameterCount, int batchRows) {
+            this.sql = sql;
+            this.nanos = nanos;
+            this.parameterCount = parameterCount;
+            this.batchRows = batchRows;
+        }
+    }
+}
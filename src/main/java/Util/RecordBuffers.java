@@ -0,0 +1,24 @@
+package Util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Storage that holds records in a list of ByteBuffers and identifies each record by a long address: the high 32
+ * bits number the buffer, the low 32 bits are the offset of the record in it.
+ */
+public interface RecordBuffers {
+
+    /**
+     * @param address of a record
+     * @return the buffer the record is in. Use its absolute get methods, so it can be shared between threads.
+     */
+    ByteBuffer buffer(long address);
+
+    /**
+     * @param address of a record
+     * @return where the record starts in its buffer
+     */
+    static int offset(long address) {
+        return (int) address;
+    }
+}
@@ -0,0 +1,87 @@
+package Util;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Request counters per route, rendered in the Prometheus text exposition format.
+ *
+ * For every route (e.g. "GET /messages/{message_id}") it keeps a LatencyHistogram, one LongAdder per response status
+ * and a gauge of requests in flight. Recording a request never takes a lock: the maps are only written the first
+ * time a route or status is seen.
+ */
+public class RouteMetrics {
+
+    private final ConcurrentHashMap<String, Route> routes = new ConcurrentHashMap<>();
+
+    /**
+     * Count a request to route as started.
+     * @param route route label, e.g. "GET /messages"
+     * @return start time to hand to finished()
+     */
+    public long started(String route) {
+        routeFor(route).inFlight.increment();
+        return System.nanoTime();
+    }
+
+    /**
+     * Count a request started with started() as finished.
+     * @param route the same route label as given to started()
+     * @param status response status
+     * @param startNanos the value started() returned
+     */
+    public void finished(String route, int status, long startNanos) {
+        Route metrics = routeFor(route);
+        metrics.latency.record(System.nanoTime() - startNanos);
+        metrics.statusCounts.computeIfAbsent(status, s -> new LongAdder()).increment();
+        metrics.inFlight.decrement();
+    }
+
+    /**
+     * @return every route's counters in the Prometheus text format, version 0.0.4
+     */
+    public String toPrometheusText() {
+        // sorted so the output is stable between scrapes
+        Map<String, Route> sorted = new TreeMap<>(routes);
+        StringBuilder sb = new StringBuilder();
+
+        sb.append("# HELP http_requests_total Requests handled, by route and response status.\n");
+        sb.append("# TYPE http_requests_total counter\n");
+        for (Map.Entry<String, Route> entry : sorted.entrySet()) {
+            Map<Integer, LongAdder> statuses = new TreeMap<>(entry.getValue().statusCounts);
+            for (Map.Entry<Integer, LongAdder> status : statuses.entrySet()) {
+                sb.append("http_requests_total{route=\"").append(PrometheusText.escape(entry.getKey()))
+                    .append("\",status=\"").append(status.getKey()).append("\"} ")
+                    .append(status.getValue().sum()).append('\n');
+            }
+        }
+
+        sb.append("# HELP http_requests_in_flight Requests currently being handled, by route.\n");
+        sb.append("# TYPE http_requests_in_flight gauge\n");
+        for (Map.Entry<String, Route> entry : sorted.entrySet()) {
+            sb.append("http_requests_in_flight{route=\"").append(PrometheusText.escape(entry.getKey())).append("\"} ")
+                .append(entry.getValue().inFlight.sum()).append('\n');
+        }
+
+        sb.append("# HELP http_request_duration_seconds Time from the start of a handler to its response, by route.\n");
+        sb.append("# TYPE http_request_duration_seconds histogram\n");
+        for (Map.Entry<String, Route> entry : sorted.entrySet()) {
+            PrometheusText.appendHistogram(sb, "http_request_duration_seconds",
+                "route=\"" + PrometheusText.escape(entry.getKey()) + "\"", entry.getValue().latency);
+        }
+        return sb.toString();
+    }
+
+    private Route routeFor(String route) {
+        Route metrics = routes.get(route);
+        return metrics != null ? metrics : routes.computeIfAbsent(route, r -> new Route());
+    }
+
+    private static final class Route {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final ConcurrentHashMap<Integer, LongAdder> statusCounts = new ConcurrentHashMap<>();
+        final LongAdder inFlight = new LongAdder();
+    }
+}
@@ -0,0 +1,326 @@
+package Util;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only log of byte records, in segment files of a fixed size that are written and read through
+ * memory-mapped buffers.
+ *
+ * Each record is its payload length, a CRC32 of the payload and the payload. append() copies the record into the
+ * mapping of the last segment, starting a new segment when it has no room left, so a write is a memory copy and the
+ * operating system writes the pages out in the background; force() waits until they are on disk. open() reads every
+ * record back in order and stops at the first one that is incomplete or does not match its checksum, which is where
+ * the log was cut short if the machine went down in the middle of a write. Appending continues from there, and
+ * every record is followed by a zero length, so the rest of a cut short run is never read back after the new records.
+ *
+ * The log of a directory is a generation of segments. Compaction writes the records to keep into the next
+ * generation, from nextGeneration(), and switches to it with replace(): the GENERATION file names the current one
+ * and is replaced atomically, so after a crash the directory holds either the old or the new log, never a mix.
+ *
+ * Record addresses are RecordBuffers addresses of the payload. Like OffHeapArena, appending is not thread-safe and
+ * records, once appended, are never changed, so they can be read by any thread that learnt their address after the
+ * append. Numbers are stored little-endian whatever the platform, so the files can be moved between machines.
+ */
+public class SegmentedLog implements RecordBuffers, AutoCloseable {
+
+    /**
+     * Receives the records of a log as open() reads them back.
+     */
+    @FunctionalInterface
+    public interface RecordVisitor {
+        /**
+         * @param log the log being opened; its buffer() already works for this and every earlier record
+         * @param address of the record's payload, as append() returned it
+         * @param length payload length
+         */
+        void accept(SegmentedLog log, long address, int length);
+    }
+
+    private static final String GENERATION_FILE = "GENERATION";
+    private static final String SUFFIX = ".log";
+    // payload length and CRC32
+    private static final int HEADER = 8;
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final long generation;
+    private final CRC32 crc = new CRC32();
+    // replaced, never changed in place, so readers without a lock see fully set up segments
+    private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+    private int position;
+    // segments before this one have been forced since they were last appended to
+    private int unforced;
+
+    private SegmentedLog(Path directory, int segmentBytes, long generation) {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.generation = generation;
+    }
+
+    /**
+     * Open the current generation of the log in directory, creating the directory if needed, and read its records.
+     * Segment files of any other generation are left over from an interrupted compaction and are deleted.
+     * @param directory where the segment files are
+     * @param segmentBytes size of new segment files, and so the largest record that fits
+     * @param visitor gets every record, in the order they were appended
+     * @return the log, ready to append after its last complete record
+     * @throws IOException if the files cannot be read or mapped
+     */
+    public static SegmentedLog open(Path directory, int segmentBytes, RecordVisitor visitor) throws IOException {
+        Files.createDirectories(directory);
+        Path generationFile = directory.resolve(GENERATION_FILE);
+        long generation = Files.exists(generationFile)
+            ? Long.parseLong(new String(Files.readAllBytes(generationFile), StandardCharsets.US_ASCII).trim()) : 0;
+
+        SegmentedLog log = new SegmentedLog(directory, segmentBytes, generation);
+        for (Path file : segmentFiles(directory)) {
+            if (!generationOf(file).equals(generationName(generation))) Files.delete(file);
+        }
+        for (Path file : segmentFiles(directory)) {
+            log.segments = append(log.segments, map(file, Files.size(file)));
+        }
+        log.replay(visitor);
+        return log;
+    }
+
+    /**
+     * Start the next generation of the log, empty, for compaction. It only becomes the log of the directory once
+     * passed to replace(); until then a restart still opens this one.
+     * @return the new generation
+     * @throws IOException if leftover files of that generation cannot be deleted
+     */
+    public SegmentedLog nextGeneration() throws IOException {
+        SegmentedLog next = new SegmentedLog(directory, segmentBytes, generation + 1);
+        for (Path file : segmentFiles(directory)) {
+            if (generationOf(file).equals(generationName(next.generation))) Files.delete(file);
+        }
+        return next;
+    }
+
+    /**
+     * Make next, from nextGeneration(), the log of the directory and delete this one's files. This log must not be
+     * appended to afterwards; records already read from it stay readable until its buffers are garbage collected.
+     * @param next the compacted log
+     * @throws IOException if next cannot be forced to disk or the switch cannot be recorded
+     */
+    public void replace(SegmentedLog next) throws IOException {
+        next.force();
+        Path temporary = directory.resolve(GENERATION_FILE + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(Long.toString(next.generation).getBytes(StandardCharsets.US_ASCII)));
+            channel.force(true);
+        }
+        Files.move(temporary, directory.resolve(GENERATION_FILE), StandardCopyOption.ATOMIC_MOVE);
+        for (Path file : segmentFiles(directory)) {
+            if (generationOf(file).equals(generationName(generation))) Files.delete(file);
+        }
+    }
+
+    /**
+     * Append one record.
+     * @param payload bytes from its position to its limit; its position is moved to the limit
+     * @return the address of the record's payload
+     * @throws IOException if a new segment file cannot be created
+     * @throws IllegalArgumentException if the record does not fit in a segment
+     */
+    public long append(ByteBuffer payload) throws IOException {
+        int length = payload.remaining();
+        if (HEADER + length > segmentBytes) {
+            throw new IllegalArgumentException(length + " bytes do not fit in a segment of " + segmentBytes);
+        }
+        MappedByteBuffer[] current = segments;
+        // segments left by an earlier run may have another size
+        if (current.length == 0 || position + HEADER + length > current[current.length - 1].capacity()) {
+            Path file = directory.resolve(String.format("%s-%06d%s", generationName(generation), current.length, SUFFIX));
+            current = append(current, map(file, segmentBytes));
+            segments = current;
+            position = 0;
+        }
+        MappedByteBuffer segment = current[current.length - 1];
+        int start = position;
+
+        crc.reset();
+        crc.update(payload.duplicate());
+        ByteBuffer view = segment.duplicate();
+        view.position(start + HEADER);
+        view.put(payload);
+        int end = start + HEADER + length;
+        // a zero length after the record, so records of an earlier run cut short here are not read as following it
+        if (end + 4 <= segment.capacity()) segment.putInt(end, 0);
+        // the header last, so a record is only complete once all of it is in place
+        segment.putInt(start + 4, (int) crc.getValue());
+        segment.putInt(start, length);
+
+        position = end;
+        return ((long) (current.length - 1) << 32) | (start + HEADER);
+    }
+
+    /**
+     * @return the place the next record goes, for forEachAfter()
+     */
+    public long end() {
+        return ((long) Math.max(0, segments.length - 1) << 32) | position;
+    }
+
+    /**
+     * Hand the records appended since end() returned mark to visitor, in order. Must not run concurrently with
+     * append().
+     * @param mark as returned by end()
+     * @param visitor gets every record appended after mark
+     */
+    public void forEachAfter(long mark, RecordVisitor visitor) {
+        MappedByteBuffer[] current = segments;
+        for (int i = (int) (mark >>> 32); i < current.length; i++) {
+            int from = i == (int) (mark >>> 32) ? (int) mark : 0;
+            readSegment(i, from, i == current.length - 1 ? position : current[i].capacity(), visitor);
+        }
+    }
+
+    /**
+     * @param address as returned by append() or given to a RecordVisitor
+     * @return the segment the record is in. Use its absolute get methods, so it can be shared between threads.
+     */
+    @Override
+    public ByteBuffer buffer(long address) {
+        return segments[(int) (address >>> 32)];
+    }
+
+    /**
+     * @param address as returned by append() or given to a RecordVisitor
+     * @return the length of the record's payload
+     */
+    public int length(long address) {
+        return buffer(address).getInt(RecordBuffers.offset(address) - HEADER);
+    }
+
+    /**
+     * @param length payload length
+     * @return bytes the record takes in the log
+     */
+    public static int recordBytes(int length) {
+        return HEADER + length;
+    }
+
+    /**
+     * Wait until every record appended so far is on disk. May run concurrently with append().
+     */
+    public synchronized void force() {
+        MappedByteBuffer[] current = segments;
+        int from = Math.max(0, Math.min(unforced, current.length - 1));
+        for (int i = from; i < current.length; i++) {
+            current[i].force();
+        }
+        unforced = current.length - 1;
+    }
+
+    /**
+     * @return bytes of disk taken by the segment files
+     */
+    public long getSizeBytes() {
+        long size = 0;
+        for (MappedByteBuffer segment : segments) {
+            size += segment.capacity();
+        }
+        return size;
+    }
+
+    /**
+     * Force what was appended to disk. The mappings themselves are released when they are garbage collected.
+     */
+    @Override
+    public void close() {
+        force();
+    }
+
+    private void replay(RecordVisitor visitor) {
+        MappedByteBuffer[] current = segments;
+        for (int i = 0; i < current.length; i++) {
+            MappedByteBuffer segment = current[i];
+            int at = readSegment(i, 0, segment.capacity(), visitor);
+            if (i == current.length - 1) {
+                // clear the torn record, if any, so nothing after the new records can look like one
+                for (int zero = at; zero < Math.min(segment.capacity(), at + HEADER); zero++) {
+                    segment.put(zero, (byte) 0);
+                }
+                position = at;
+            }
+        }
+        unforced = Math.max(0, current.length - 1);
+    }
+
+    // hands the records of segment i between from and to to visitor, up to the first one that is incomplete or
+    // does not match its checksum, and returns where they end
+    private int readSegment(int i, int from, int to, RecordVisitor visitor) {
+        MappedByteBuffer segment = segments[i];
+        int at = from;
+        while (at + HEADER <= to) {
+            int length = segment.getInt(at);
+            if (length <= 0 || at + HEADER + length > to) break;
+            ByteBuffer payload = segment.duplicate();
+            payload.position(at + HEADER).limit(at + HEADER + length);
+            crc.reset();
+            crc.update(payload);
+            if ((int) crc.getValue() != segment.getInt(at + 4)) {
+                System.err.println("Log segment " + i + " of generation " + generation
+                    + " ends in an incomplete record at " + at);
+                break;
+            }
+            visitor.accept(this, ((long) i << 32) | (at + HEADER), length);
+            at += HEADER + length;
+        }
+        return at;
+    }
+
+    private static MappedByteBuffer map(Path file, long size) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            if (raf.length() < size) raf.setLength(size);
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            // the mapping stays valid after the channel is closed
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            return buffer;
+        }
+    }
+
+    private static MappedByteBuffer[] append(MappedByteBuffer[] segments, MappedByteBuffer segment) {
+        MappedByteBuffer[] grown = Arrays.copyOf(segments, segments.length + 1);
+        grown[segments.length] = segment;
+        return grown;
+    }
+
+    // segment files of every generation, in order
+    private static List<Path> segmentFiles(Path directory) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        }
+        files.sort(null);
+        return files;
+    }
+
+    private static String generationOf(Path file) {
+        String name = file.getFileName().toString();
+        return name.substring(0, Math.max(0, name.indexOf('-')));
+    }
+
+    private static String generationName(long generation) {
+        return String.format("%06d", generation);
+    }
+}
@@ -0,0 +1,206 @@
+package Util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One connection and one transaction shared by every DAO call made on the current thread, e.g. for one HTTP request.
+ *
+ * While a unit of work is active, ConnectionUtil.getConnection() hands out the same connection each time instead of
+ * borrowing a new one from the pool. The connection is only borrowed when the first DAO call needs it, so a request
+ * that never reaches the database never takes one. The DAO classes keep their try-with-resources blocks: closing the
+ * shared connection does nothing, and the work is committed once by commit(), or rolled back by close() if commit()
+ * was never reached.
+ *
+ * Caches that must not see uncommitted work register their updates with afterCommit().
+ *
+ * A DAO method that runs its own transaction (setAutoCommit(false), commit(), rollback()) gets a nested one instead,
+ * backed by a savepoint, so its rollback only undoes its own work.
+ *
+ * Typical use:
+ * <pre>
+ * try (UnitOfWork unitOfWork = UnitOfWork.begin()) {
+ *     ... service and DAO calls ...
+ *     unitOfWork.commit();
+ * }
+ * </pre>
+ */
+public final class UnitOfWork implements AutoCloseable {
+
+    private static final ThreadLocal<UnitOfWork> CURRENT = new ThreadLocal<>();
+
+    // the pooled connection, null until the first DAO call
+    private Connection connection;
+    private Connection shared;
+    // start of the nested transaction of a DAO method that turned auto-commit off, null otherwise
+    private Savepoint savepoint;
+    private boolean finished;
+    private final List<Runnable> afterCommit = new ArrayList<>();
+
+    private UnitOfWork() {
+    }
+
+    /**
+     * Start a unit of work on the current thread.
+     * @return the unit of work, to be closed on the same thread
+     * @throws IllegalStateException if one is already active on this thread
+     */
+    public static UnitOfWork begin() {
+        if (CURRENT.get() != null) {
+            throw new IllegalStateException("A unit of work is already active on this thread");
+        }
+        UnitOfWork unitOfWork = new UnitOfWork();
+        CURRENT.set(unitOfWork);
+        return unitOfWork;
+    }
+
+    /**
+     * @return the unit of work active on the current thread, or null
+     */
+    public static UnitOfWork current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Run action once the current unit of work has committed, or right away if there is none. Nothing runs if the
+     * unit of work rolls back.
+     * @param action e.g. a cache update that must only happen once the data it reflects is visible to others
+     */
+    public static void afterCommit(Runnable action) {
+        UnitOfWork unitOfWork = CURRENT.get();
+        if (unitOfWork == null) {
+            action.run();
+        } else {
+            unitOfWork.afterCommit.add(action);
+        }
+    }
+
+    /**
+     * Commit everything done so far. The unit of work is finished afterwards; later DAO calls on this thread use
+     * their own pooled connections again.
+     * @throws SQLException if the commit fails, in which case close() rolls back
+     */
+    public void commit() throws SQLException {
+        if (connection != null) {
+            connection.commit();
+        }
+        finish();
+        for (Runnable action : afterCommit) {
+            try {
+                action.run();
+            } catch (RuntimeException e) {
+                System.err.println("After commit action failed: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Roll back if commit() was not called, give the connection back to the pool and detach from the thread.
+     */
+    @Override
+    public void close() {
+        if (connection != null) {
+            try {
+                connection.rollback();
+            } catch (SQLException e) {
+                System.err.println(e.getMessage());
+            }
+        }
+        finish();
+    }
+
+    /**
+     * @return the connection shared by this unit of work, borrowing it on first use
+     */
+    Connection getConnection() throws SQLException {
+        if (finished) throw new SQLException("Unit of work is already finished");
+        if (connection == null) {
+            connection = ConnectionUtil.borrow();
+            connection.setAutoCommit(false);
+            shared = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[] { Connection.class }, new SharedConnection());
+        }
+        return shared;
+    }
+
+    private void finish() {
+        if (finished) return;
+        finished = true;
+        CURRENT.remove();
+        if (connection != null) {
+            try {
+                // the pool resets auto-commit when the connection comes back
+                connection.close();
+            } catch (SQLException e) {
+                System.err.println(e.getMessage());
+            }
+            connection = null;
+        }
+    }
+
+    /**
+     * The connection as the DAO classes see it: close() leaves it open, and their own transactions become nested
+     * ones so they cannot commit or roll back the unit of work.
+     */
+    private final class SharedConnection implements InvocationHandler {
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (finished) throw new SQLException("Unit of work is already finished");
+            switch (method.getName()) {
+                case "close":
+                    // like the pool does when a connection comes back in the middle of a transaction
+                    if (savepoint != null) {
+                        connection.rollback(savepoint);
+                        savepoint = null;
+                    }
+                    return null;
+                case "isClosed":
+                    return false;
+                case "getAutoCommit":
+                    return savepoint == null;
+                case "setAutoCommit":
+                    boolean autoCommit = (Boolean) args[0];
+                    if (!autoCommit && savepoint == null) {
+                        savepoint = connection.setSavepoint();
+                    } else if (autoCommit) {
+                        savepoint = null;
+                    }
+                    return null;
+                case "commit":
+                    // keep the work, and start the next nested transaction from here
+                    if (savepoint != null) {
+                        savepoint = connection.setSavepoint();
+                    }
+                    return null;
+                case "rollback":
+                    if (args == null || args.length == 0) {
+                        if (savepoint != null) {
+                            connection.rollback(savepoint);
+                        }
+                        return null;
+                    }
+                    break;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "UnitOfWork[" + connection + "]";
+                default:
+            }
+            try {
+                return method.invoke(connection, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package Util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * A write-ahead log: records appended in order, made durable with group commit.
+ *
+ * The log is a series of epochs, each a SegmentedLog in its own directory named wal-NNNNNN. rotate() starts the next
+ * epoch, so a snapshot can be taken of everything appended before it, after which the earlier epochs are deleted with
+ * deleteBefore(). open() reads the records of the given epoch and the later ones back in order and starts a new epoch
+ * for what is appended from then on, so nothing is ever appended after a record that was cut short.
+ *
+ * append() is a memory copy and returns the record's sequence number; sync() waits until that record is on disk.
+ * Only one thread forces the log at a time, and it forces everything appended so far, so the threads that wait for it
+ * meanwhile are all served by the next force: under load, one disk flush commits many records.
+ */
+public class WriteAheadLog implements AutoCloseable {
+
+    private static final String PREFIX = "wal-";
+
+    private final Path directory;
+    private final int segmentBytes;
+    // the fields below are guarded by this
+    private SegmentedLog current;
+    private long epoch;
+    // epochs rotated out whose records may not all be forced yet
+    private final List<SegmentedLog> retired = new ArrayList<>();
+    private long appended;
+    // the fields below are guarded by syncMonitor
+    private final Object syncMonitor = new Object();
+    private long durable;
+    private boolean syncing;
+
+    private WriteAheadLog(Path directory, int segmentBytes) {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+    }
+
+    /**
+     * Read back the epochs from fromEpoch on and start a new one. Epochs before fromEpoch are deleted.
+     * @param directory where the epoch directories are, created if needed
+     * @param segmentBytes size of the segment files, and so the largest record that fits
+     * @param fromEpoch first epoch to read
+     * @param visitor gets every record of those epochs, in the order they were appended
+     * @return the log, appending to a new epoch
+     * @throws IOException if the files cannot be read, mapped or deleted
+     */
+    public static WriteAheadLog open(Path directory, int segmentBytes, long fromEpoch,
+                                     SegmentedLog.RecordVisitor visitor) throws IOException {
+        Files.createDirectories(directory);
+        WriteAheadLog log = new WriteAheadLog(directory, segmentBytes);
+        long last = fromEpoch - 1;
+        for (Path epochDirectory : epochDirectories(directory)) {
+            long epoch = epochOf(epochDirectory);
+            if (epoch < fromEpoch) {
+                delete(epochDirectory);
+            } else {
+                SegmentedLog.open(epochDirectory, segmentBytes, visitor).close();
+                last = epoch;
+            }
+        }
+        log.epoch = last + 1;
+        log.current = SegmentedLog.open(log.epochDirectory(log.epoch), segmentBytes, (segments, address, length) -> { });
+        return log;
+    }
+
+    /**
+     * Append one record.
+     * @param payload bytes from its position to its limit; its position is moved to the limit
+     * @return the record's sequence number, for sync()
+     * @throws IOException if a new segment file cannot be created
+     * @throws IllegalArgumentException if the record does not fit in a segment
+     */
+    public synchronized long append(ByteBuffer payload) throws IOException {
+        current.append(payload);
+        return ++appended;
+    }
+
+    /**
+     * @return the sequence number of the last record appended, 0 if none was
+     */
+    public synchronized long getAppended() {
+        return appended;
+    }
+
+    /**
+     * Start the next epoch. Records appended from now on go there.
+     * @return the new epoch
+     * @throws IOException if its directory cannot be created
+     */
+    public synchronized long rotate() throws IOException {
+        SegmentedLog next = SegmentedLog.open(epochDirectory(epoch + 1), segmentBytes, (segments, address, length) -> { });
+        retired.add(current);
+        current = next;
+        return ++epoch;
+    }
+
+    /**
+     * Delete the epochs before the given one, once a snapshot holds what they recorded.
+     * @param epoch the first epoch to keep
+     * @throws IOException if their files cannot be deleted
+     */
+    public void deleteBefore(long epoch) throws IOException {
+        for (Path epochDirectory : epochDirectories(directory)) {
+            if (epochOf(epochDirectory) < epoch) delete(epochDirectory);
+        }
+    }
+
+    /**
+     * Wait until the record with this sequence number, and every one before it, is on disk.
+     * @param sequence as returned by append()
+     */
+    public void sync(long sequence) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                synchronized (syncMonitor) {
+                    while (syncing && durable < sequence) {
+                        try {
+                            syncMonitor.wait();
+                        } catch (InterruptedException e) {
+                            interrupted = true;
+                        }
+                    }
+                    if (durable >= sequence) return;
+                    syncing = true;
+                }
+                forceAppended();
+            }
+        } finally {
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return bytes of disk taken by the epochs still on disk that this log has appended to
+     */
+    public synchronized long getSizeBytes() {
+        long size = current.getSizeBytes();
+        for (SegmentedLog log : retired) {
+            size += log.getSizeBytes();
+        }
+        return size;
+    }
+
+    /**
+     * Force everything appended to disk.
+     */
+    @Override
+    public void close() {
+        sync(getAppended());
+    }
+
+    // called by the one thread that set syncing
+    private void forceAppended() {
+        long target;
+        List<SegmentedLog> logs;
+        synchronized (this) {
+            target = appended;
+            logs = new ArrayList<>(retired);
+            logs.add(current);
+            retired.clear();
+        }
+        boolean forced = false;
+        try {
+            for (SegmentedLog log : logs) {
+                log.force();
+            }
+            forced = true;
+        } finally {
+            if (!forced) {
+                synchronized (this) {
+                    logs.remove(logs.size() - 1);
+                    retired.addAll(0, logs);
+                }
+            }
+            synchronized (syncMonitor) {
+                if (forced) durable = Math.max(durable, target);
+                syncing = false;
+                syncMonitor.notifyAll();
+            }
+        }
+    }
+
+    private Path epochDirectory(long epoch) {
+        return directory.resolve(String.format("%s%06d", PREFIX, epoch));
+    }
+
+    // epoch directories, in order
+    private static List<Path> epochDirectories(Path directory) throws IOException {
+        List<Path> directories = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, PREFIX + "*")) {
+            for (Path path : stream) {
+                if (Files.isDirectory(path)) directories.add(path);
+            }
+        }
+        directories.sort(Comparator.comparingLong(WriteAheadLog::epochOf));
+        return directories;
+    }
+
+    private static long epochOf(Path epochDirectory) {
+        return Long.parseLong(epochDirectory.getFileName().toString().substring(PREFIX.length()));
+    }
+
+    private static void delete(Path epochDirectory) throws IOException {
+        try (Stream<Path> files = Files.walk(epochDirectory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+}
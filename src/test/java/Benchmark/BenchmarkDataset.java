@@ -0,0 +1,66 @@
+package Benchmark;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import Util.ConnectionUtil;
+
+/**
+ * Seeds the database the JMH benchmarks run against.
+ *
+ * The benchmarks fork with -Dsocialmedia.db.url pointing at ./h2/jmh, so seeding never touches the application's
+ * database. Account ids run from 1 to accounts and message ids from 1 to messages; message i is posted by account
+ * (i % accounts) + 1 at epoch FIRST_EPOCH + i, so every account has a timeline of about messages / accounts rows.
+ */
+final class BenchmarkDataset {
+
+    static final String DB_URL_ARG = "-Dsocialmedia.db.url=jdbc:h2:./h2/jmh;";
+    static final long FIRST_EPOCH = 1_600_000_000L;
+
+    private static final int CHUNK = 1000;
+
+    private BenchmarkDataset() {
+    }
+
+    /**
+     * Recreate the tables from SocialMedia.sql and fill them.
+     * @param accounts number of accounts, at least 1
+     * @param messages number of messages, at least 1
+     */
+    static void seed(int accounts, int messages) throws SQLException {
+        ConnectionUtil.resetTestDatabase();
+        try (Connection connection = ConnectionUtil.getConnection()) {
+            connection.setAutoCommit(false);
+            // SocialMedia.sql already created account 1 and message 1
+            try (PreparedStatement ps = connection.prepareStatement(
+                    "INSERT INTO account (username, password) VALUES (?, 'password');")) {
+                for (int i = 2; i <= accounts; i++) {
+                    ps.setString(1, "user" + i);
+                    ps.addBatch();
+                    if (i % CHUNK == 0) ps.executeBatch();
+                }
+                ps.executeBatch();
+            }
+            try (PreparedStatement ps = connection.prepareStatement(
+                    "INSERT INTO message (posted_by, message_text, time_posted_epoch) VALUES (?, ?, ?);")) {
+                for (int i = 2; i <= messages; i++) {
+                    ps.setInt(1, (i % accounts) + 1);
+                    ps.setString(2, "benchmark message " + i);
+                    ps.setLong(3, FIRST_EPOCH + i);
+                    ps.addBatch();
+                    if (i % CHUNK == 0) ps.executeBatch();
+                }
+                ps.executeBatch();
+            }
+            connection.commit();
+        }
+    }
+
+    /**
+     * @return the username of an account seeded by seed()
+     */
+    static String username(int account_id) {
+        return account_id == 1 ? "testuser1" : "user" + account_id;
+    }
+}
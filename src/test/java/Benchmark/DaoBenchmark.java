@@ -0,0 +1,199 @@
+package Benchmark;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import DAO.AccountDAO;
+import DAO.MessageDAO;
+import Model.Account;
+import Model.Message;
+
+/**
+ * JMH benchmarks of every AccountDAO and MessageDAO method, against a database seeded by BenchmarkDataset.
+ *
+ * Throughput and sample time (with percentiles) are both reported. The dataset size is set with
+ * -p accounts=... -p messages=...; reads pick a random seeded row, so they never miss.
+ * Deletes are measured together with the insert that creates the row they delete. Inserts are not undone, so the
+ * message and account tables grow during a run by however many inserts were measured.
+ *
+ * Run with: mvn -P jmh test-compile exec:exec -Djmh.args="DaoBenchmark"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = BenchmarkDataset.DB_URL_ARG)
+public class DaoBenchmark {
+
+    @Param({"1000"})
+    int accounts;
+
+    @Param({"100000"})
+    int messages;
+
+    AccountDAO accountDAO;
+    MessageDAO messageDAO;
+    // usernames of accounts inserted by the benchmarks, never seeded ones
+    final AtomicInteger nextUsername = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void seed() throws SQLException {
+        BenchmarkDataset.seed(accounts, messages);
+        accountDAO = new AccountDAO();
+        messageDAO = new MessageDAO();
+    }
+
+    private int randomAccountId() {
+        return ThreadLocalRandom.current().nextInt(1, accounts + 1);
+    }
+
+    private int randomMessageId() {
+        return ThreadLocalRandom.current().nextInt(1, messages + 1);
+    }
+
+    private Message newMessage() {
+        return new Message(randomAccountId(), "jmh message", System.currentTimeMillis() / 1000);
+    }
+
+    // ---- AccountDAO ----
+
+    @Benchmark
+    public Account getAccountById() {
+        return accountDAO.getAccountById(randomAccountId());
+    }
+
+    @Benchmark
+    public Account getAccountByUserName() {
+        return accountDAO.getAccountByUserName(BenchmarkDataset.username(randomAccountId()));
+    }
+
+    @Benchmark
+    public Set<Integer> getExistingAccountIds() {
+        List<Integer> ids = new ArrayList<>(10);
+        for (int i = 0; i < 10; i++) ids.add(randomAccountId());
+        return accountDAO.getExistingAccountIds(ids);
+    }
+
+    @Benchmark
+    public List<Account> getAllAccounts() {
+        return accountDAO.getAllAccounts();
+    }
+
+    @Benchmark
+    public Account insertAccount() {
+        return accountDAO.insertAccount(new Account("jmh" + nextUsername.incrementAndGet(), "password"));
+    }
+
+    @Benchmark
+    public boolean updateAccountPasswordById() {
+        return accountDAO.updateAccountPasswordById(new Account(randomAccountId(), null, "password"));
+    }
+
+    @Benchmark
+    public boolean updateAccountPasswordByUsername() {
+        return accountDAO.updateAccountPasswordByUsername(
+            new Account(0, BenchmarkDataset.username(randomAccountId()), "password"));
+    }
+
+    @Benchmark
+    public boolean insertAndDeleteAccountById() {
+        Account account = accountDAO.insertAccount(new Account("jmh" + nextUsername.incrementAndGet(), "password"));
+        return accountDAO.deleteAccountById(account.getAccount_id());
+    }
+
+    @Benchmark
+    public boolean insertAndDeleteAccountByUsername() {
+        String username = "jmh" + nextUsername.incrementAndGet();
+        accountDAO.insertAccount(new Account(username, "password"));
+        return accountDAO.deleteAccountByUsername(username);
+    }
+
+    // ---- MessageDAO ----
+
+    @Benchmark
+    public Message insertMessage() {
+        return messageDAO.insertMessage(newMessage());
+    }
+
+    @Benchmark
+    public List<Message> insertMessages100() {
+        List<Message> batch = new ArrayList<>(100);
+        for (int i = 0; i < 100; i++) batch.add(newMessage());
+        return messageDAO.insertMessages(batch);
+    }
+
+    @Benchmark
+    public List<Message> getAllMessages() {
+        return messageDAO.getAllMessages();
+    }
+
+    @Benchmark
+    public void streamAllMessages(Blackhole blackhole) throws IOException {
+        messageDAO.streamAllMessages(blackhole::consume);
+    }
+
+    @Benchmark
+    public List<Message> getMessagesAfterId() {
+        return messageDAO.getMessagesAfterId(randomMessageId(), 100);
+    }
+
+    @Benchmark
+    public List<Message> getMessagesBeforeId() {
+        return messageDAO.getMessagesBeforeId(randomMessageId(), 100);
+    }
+
+    @Benchmark
+    public List<Message> getAllMessagesByUserId() {
+        return messageDAO.getAllMessagesByUserId(randomAccountId());
+    }
+
+    @Benchmark
+    public List<Message> getMessagesByUserId() {
+        return messageDAO.getMessagesByUserId(randomAccountId(), 0, Long.MAX_VALUE, 50);
+    }
+
+    @Benchmark
+    public Map<Integer, Message> getMessagesByIds() {
+        List<Integer> ids = new ArrayList<>(20);
+        for (int i = 0; i < 20; i++) ids.add(randomMessageId());
+        return messageDAO.getMessagesByIds(ids);
+    }
+
+    @Benchmark
+    public Message getMessageById() {
+        return messageDAO.getMessageById(randomMessageId());
+    }
+
+    @Benchmark
+    public Message updateMessageTextReturning() {
+        return messageDAO.updateMessageTextReturning(randomMessageId(), "updated by jmh");
+    }
+
+    @Benchmark
+    public Message insertAndDeleteMessageById() {
+        Message message = messageDAO.insertMessage(newMessage());
+        return messageDAO.deleteMessageById(message.getMessage_id());
+    }
+}
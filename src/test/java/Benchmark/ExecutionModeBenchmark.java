@@ -0,0 +1,173 @@
+package Benchmark;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+
+import Controller.SocialMediaController;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+import io.javalin.util.LoomUtil;
+
+/**
+ * Compares the two execution modes of SocialMediaController (socialmedia.server.threads=platform or virtual)
+ * under a growing number of concurrent clients.
+ *
+ * Each client sends a request, waits for the response and sends the next one, so the number of clients is the
+ * number of requests in flight. The default route reads an account's timeline, which blocks the handler on JDBC.
+ * It uses the application's database and resets it first, like the tests do.
+ *
+ * Run with: mvn test-compile exec:java -Dexec.mainClass=Benchmark.ExecutionModeBenchmark -Dexec.classpathScope=test
+ * The virtual runs need a JDK with virtual threads (21, or 19 and 20 with --enable-preview). On any other JDK the
+ * controller would fall back to platform threads and the comparison would measure one configuration twice, so the
+ * virtual runs are skipped and only the platform numbers are printed.
+ * Tunables (system properties): modes (default platform,virtual), clients (1000,5000,10000), seconds per run (10),
+ * path (/accounts/1/messages?limit=20), messages seeded for account 1 (1000), and socialmedia.server.maxThreads for
+ * the platform pool.
+ */
+public class ExecutionModeBenchmark {
+
+    private static final int PORT = 8080;
+
+    public static void main(String[] args) throws Exception {
+        List<String> modes = new ArrayList<>(Arrays.asList(System.getProperty("modes", "platform,virtual").split(",")));
+        if (modes.contains("virtual") && !LoomUtil.INSTANCE.getLoomAvailable()) {
+            System.out.println("Virtual threads are not available on Java " + Runtime.version().feature()
+                + ", skipping the virtual runs: there is nothing to compare the platform runs with");
+            modes.remove("virtual");
+        }
+        int[] clientCounts = Arrays.stream(System.getProperty("clients", "1000,5000,10000").split(","))
+            .mapToInt(Integer::parseInt).toArray();
+        int seconds = Integer.getInteger("seconds", 10);
+        String path = System.getProperty("path", "/accounts/1/messages?limit=20");
+        int messages = Integer.getInteger("messages", 1000);
+
+        ConnectionUtil.resetTestDatabase();
+        seed(messages);
+
+        HttpClient client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(30))
+            .build();
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + PORT + path))
+            .timeout(Duration.ofSeconds(60))
+            .build();
+
+        System.out.printf("GET %s, %d s per run%n", path, seconds);
+        System.out.printf("%-9s %8s %12s %10s %10s %10s %8s%n",
+            "mode", "clients", "req/s", "p50 ms", "p99 ms", "max ms", "errors");
+        for (String mode : modes) {
+            System.setProperty("socialmedia.server.threads", mode);
+            Javalin app = new SocialMediaController().startAPI();
+            app.start(PORT);
+            try {
+                // warm up the JIT and the connection pool
+                run(client, request, 100, 2);
+                for (int clients : clientCounts) {
+                    Result result = run(client, request, clients, seconds);
+                    System.out.printf("%-9s %8d %12.0f %10.2f %10.2f %10.2f %8d%n", mode, clients,
+                        result.count / (double) seconds, result.percentileMillis(0.50), result.percentileMillis(0.99),
+                        result.percentileMillis(1.0), result.errors);
+                }
+            } finally {
+                app.stop();
+            }
+        }
+        System.exit(0);
+    }
+
+    private static void seed(int messages) throws Exception {
+        try (Connection connection = ConnectionUtil.getConnection();
+             PreparedStatement ps = connection.prepareStatement(
+                 "INSERT INTO message (posted_by, message_text, time_posted_epoch) VALUES (1, ?, ?);")) {
+            for (int i = 0; i < messages; i++) {
+                ps.setString(1, "benchmark message " + i);
+                ps.setLong(2, 1669947792L + i);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+    }
+
+    private static Result run(HttpClient client, HttpRequest request, int clients, int seconds) {
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        LongAdder errors = new LongAdder();
+        Recorder[] recorders = new Recorder[clients];
+        CompletableFuture<?>[] done = new CompletableFuture<?>[clients];
+        for (int i = 0; i < clients; i++) {
+            recorders[i] = new Recorder();
+            done[i] = new CompletableFuture<>();
+            loop(client, request, deadline, recorders[i], errors, done[i]);
+        }
+        CompletableFuture.allOf(done).join();
+
+        int total = 0;
+        for (Recorder recorder : recorders) total += recorder.size;
+        long[] latencies = new long[total];
+        int offset = 0;
+        for (Recorder recorder : recorders) {
+            System.arraycopy(recorder.latencies, 0, latencies, offset, recorder.size);
+            offset += recorder.size;
+        }
+        Arrays.sort(latencies);
+        return new Result(latencies, errors.sum());
+    }
+
+    // one client: send, record, repeat until the deadline
+    private static void loop(HttpClient client, HttpRequest request, long deadline, Recorder recorder,
+                             LongAdder errors, CompletableFuture<?> done) {
+        if (System.nanoTime() >= deadline) {
+            done.complete(null);
+            return;
+        }
+        long start = System.nanoTime();
+        client.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, failure) -> {
+            if (failure != null || response.statusCode() != 200) {
+                errors.increment();
+            } else {
+                recorder.add(System.nanoTime() - start);
+            }
+            loop(client, request, deadline, recorder, errors, done);
+        });
+    }
+
+    /**
+     * Latencies of one client. Only one of its requests is in flight at a time, so it needs no locking.
+     */
+    private static final class Recorder {
+        long[] latencies = new long[256];
+        int size;
+
+        void add(long nanos) {
+            if (size == latencies.length) latencies = Arrays.copyOf(latencies, size * 2);
+            latencies[size++] = nanos;
+        }
+    }
+
+    private static final class Result {
+        final long[] sortedNanos;
+        final long count;
+        final long errors;
+
+        Result(long[] sortedNanos, long errors) {
+            this.sortedNanos = sortedNanos;
+            this.count = sortedNanos.length;
+            this.errors = errors;
+        }
+
+        double percentileMillis(double p) {
+            if (sortedNanos.length == 0) return 0;
+            int index = (int) Math.min(sortedNanos.length - 1, Math.ceil(p * sortedNanos.length) - 1);
+            return sortedNanos[Math.max(0, index)] / 1_000_000.0;
+        }
+    }
+}
@@ -0,0 +1,321 @@
+package Benchmark;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Account;
+import Model.Message;
+import Util.ConnectionUtil;
+import Util.LatencyHistogram;
+import io.javalin.Javalin;
+
+/**
+ * Open-loop HTTP load generator for the API, started the same way the tests start it.
+ *
+ * Requests are sent at a fixed rate whatever the server does: request i is due at start + i / rate, and its latency
+ * is measured from that due time, not from when it was actually sent. A server that stalls therefore shows the
+ * whole stall in the latencies of every request that should have been sent meanwhile, instead of silently slowing
+ * the generator down (coordinated omission).
+ *
+ * The traffic is a weighted mix of routes, e.g. -Dmix=register:1,login:2,post:3,read:10,readOne:5,patch:2,delete:1.
+ * Before the run, accounts users are registered and messages messages posted, so reads and logins hit real rows.
+ * Deletes only remove messages posted during the run.
+ *
+ * Run with: mvn test-compile exec:java -Dexec.mainClass=Benchmark.LoadHarness -Dexec.classpathScope=test
+ * Tunables (system properties): rate (requests per second, default 500), seconds (30), warmupSeconds (5), mix,
+ * accounts (100), messages (1000), baseUrl (default: start the API in this JVM on port 8080 against a reset database).
+ * Add -Dsocialmedia.storage=memory to measure the HTTP layer alone, without the database behind it.
+ */
+public class LoadHarness {
+
+    /**
+     * The routes the harness can drive.
+     */
+    enum Route {
+        REGISTER("register", "POST /register"),
+        LOGIN("login", "POST /login"),
+        POST("post", "POST /messages"),
+        READ("read", "GET /messages?limit=100"),
+        READ_ONE("readOne", "GET /messages/{id}"),
+        PATCH("patch", "PATCH /messages/{id}"),
+        DELETE("delete", "DELETE /messages/{id}");
+
+        final String key;
+        final String label;
+
+        Route(String key, String label) {
+            this.key = key;
+            this.label = label;
+        }
+
+        static Route of(String key) {
+            for (Route route : values()) {
+                if (route.key.equals(key)) return route;
+            }
+            throw new IllegalArgumentException("unknown route in mix: " + key);
+        }
+    }
+
+    /**
+     * Latencies and failures of one route in one phase.
+     */
+    static final class RouteStats {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LongAdder errors = new LongAdder();
+    }
+
+    private static final int PORT = 8080;
+
+    private final String baseUrl;
+    private final HttpClient client;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Route[] routes;
+    private final int[] cumulativeWeights;
+
+    // accounts whose registration has been answered with 200; a username is only sent for a login once it is here
+    private final List<Account> registered = new CopyOnWriteArrayList<>();
+    private final AtomicInteger nextUsername = new AtomicInteger();
+    // highest message id known to exist; ids below it may have been deleted, reading those is fine
+    private final AtomicInteger maxMessageId = new AtomicInteger();
+    private final ConcurrentLinkedQueue<Integer> deletable = new ConcurrentLinkedQueue<>();
+    private int seededMessages;
+
+    LoadHarness(String baseUrl, Map<Route, Integer> mix) {
+        this.baseUrl = baseUrl;
+        this.client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(10))
+            .build();
+        this.routes = mix.keySet().toArray(new Route[0]);
+        this.cumulativeWeights = new int[routes.length];
+        int total = 0;
+        for (int i = 0; i < routes.length; i++) {
+            total += mix.get(routes[i]);
+            cumulativeWeights[i] = total;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rate = Integer.getInteger("rate", 500);
+        int seconds = Integer.getInteger("seconds", 30);
+        int warmupSeconds = Integer.getInteger("warmupSeconds", 5);
+        int accounts = Integer.getInteger("accounts", 100);
+        int messages = Integer.getInteger("messages", 1000);
+        Map<Route, Integer> mix = parseMix(System.getProperty("mix",
+            "register:1,login:2,post:3,read:10,readOne:5,patch:2,delete:1"));
+        String baseUrl = System.getProperty("baseUrl");
+
+        Javalin app = null;
+        if (baseUrl == null) {
+            ConnectionUtil.resetTestDatabase();
+            app = new SocialMediaController().startAPI();
+            app.start(PORT);
+            baseUrl = "http://localhost:" + PORT;
+        }
+
+        try {
+            LoadHarness harness = new LoadHarness(baseUrl, mix);
+            harness.seed(accounts, messages);
+            if (warmupSeconds > 0) {
+                harness.run(rate, warmupSeconds);
+            }
+            Map<Route, RouteStats> stats = harness.run(rate, seconds);
+            print(stats, rate, seconds);
+        } finally {
+            if (app != null) app.stop();
+        }
+        System.exit(0);
+    }
+
+    static Map<Route, Integer> parseMix(String mix) {
+        Map<Route, Integer> weights = new EnumMap<>(Route.class);
+        for (String part : mix.split(",")) {
+            String[] keyAndWeight = part.trim().split(":");
+            int weight = Integer.parseInt(keyAndWeight[1]);
+            if (weight > 0) weights.put(Route.of(keyAndWeight[0]), weight);
+        }
+        if (weights.isEmpty()) throw new IllegalArgumentException("mix has no routes: " + mix);
+        return weights;
+    }
+
+    /**
+     * Register accounts users and post messages messages, synchronously.
+     */
+    void seed(int accounts, int messages) throws Exception {
+        for (int i = 0; i < accounts; i++) {
+            HttpResponse<String> response = client.send(request(Route.REGISTER), HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() != 200) {
+                throw new IllegalStateException("seeding failed: " + response.statusCode());
+            }
+            onSuccess(Route.REGISTER, response.body());
+        }
+        List<Message> batch = new ArrayList<>();
+        for (int i = 0; i < messages; i++) {
+            batch.add(new Message(randomAccountId(), "seeded message " + i, System.currentTimeMillis() / 1000));
+            if (batch.size() == 1000 || i == messages - 1) {
+                HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + "/messages/batch"))
+                    .POST(HttpRequest.BodyPublishers.ofString(objectMapper.writeValueAsString(batch)))
+                    .header("Content-Type", "application/json")
+                    .build();
+                HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+                if (response.statusCode() != 200) {
+                    throw new IllegalStateException("seeding failed: " + response.statusCode());
+                }
+                batch.clear();
+            }
+        }
+        // ids 1 .. messages are never deleted, so patching them always succeeds
+        seededMessages = messages;
+        maxMessageId.set(Math.max(maxMessageId.get(), messages));
+    }
+
+    /**
+     * Send requests at rate per second for seconds, then wait for the outstanding ones.
+     * @return latencies and errors per route, for the requests due in this run
+     */
+    Map<Route, RouteStats> run(int rate, int seconds) {
+        Map<Route, RouteStats> stats = new EnumMap<>(Route.class);
+        for (Route route : routes) stats.put(route, new RouteStats());
+
+        long intervalNanos = 1_000_000_000L / rate;
+        long total = (long) rate * seconds;
+        LongAdder outstanding = new LongAdder();
+        long start = System.nanoTime();
+        for (long i = 0; i < total; i++) {
+            long due = start + i * intervalNanos;
+            long wait = due - System.nanoTime();
+            if (wait > 0) LockSupport.parkNanos(wait);
+
+            Route route = pickRoute();
+            RouteStats routeStats = stats.get(route);
+            HttpRequest request = request(route);
+            outstanding.increment();
+            client.sendAsync(request, HttpResponse.BodyHandlers.ofString()).whenComplete((response, failure) -> {
+                // measured from when the request was due, not when it went out
+                routeStats.latency.record(System.nanoTime() - due);
+                if (failure != null || response.statusCode() != 200) {
+                    routeStats.errors.increment();
+                } else {
+                    onSuccess(route, response.body());
+                }
+                outstanding.decrement();
+            });
+        }
+        while (outstanding.sum() > 0) {
+            LockSupport.parkNanos(1_000_000);
+        }
+        return stats;
+    }
+
+    private Route pickRoute() {
+        int pick = ThreadLocalRandom.current().nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        for (int i = 0; i < routes.length; i++) {
+            if (pick < cumulativeWeights[i]) return routes[i];
+        }
+        return routes[routes.length - 1];
+    }
+
+    private HttpRequest request(Route route) {
+        switch (route) {
+            case REGISTER:
+                return json("/register", "POST",
+                    "{\"username\":\"load" + nextUsername.incrementAndGet() + "\",\"password\":\"password\"}");
+            case LOGIN:
+                return json("/login", "POST",
+                    "{\"username\":\"" + randomAccount().getUsername() + "\",\"password\":\"password\"}");
+            case POST:
+                return json("/messages", "POST", "{\"posted_by\":" + randomAccountId()
+                    + ",\"message_text\":\"load message\",\"time_posted_epoch\":"
+                    + System.currentTimeMillis() / 1000 + "}");
+            case READ:
+                return HttpRequest.newBuilder(URI.create(baseUrl + "/messages?limit=100")).GET().build();
+            case READ_ONE:
+                return HttpRequest.newBuilder(URI.create(baseUrl + "/messages/" + randomMessageId())).GET().build();
+            case PATCH:
+                int patched = ThreadLocalRandom.current().nextInt(1, Math.max(2, seededMessages + 1));
+                return json("/messages/" + patched, "PATCH", "{\"message_text\":\"patched by load\"}");
+            case DELETE:
+                Integer message_id = deletable.poll();
+                // nothing posted during the run yet; deleting an unknown id still answers 200
+                String deleted = message_id == null ? "-1" : message_id.toString();
+                return HttpRequest.newBuilder(URI.create(baseUrl + "/messages/" + deleted)).DELETE().build();
+            default:
+                throw new IllegalStateException(route.toString());
+        }
+    }
+
+    private HttpRequest json(String path, String method, String body) {
+        return HttpRequest.newBuilder(URI.create(baseUrl + path))
+            .method(method, HttpRequest.BodyPublishers.ofString(body))
+            .header("Content-Type", "application/json")
+            .build();
+    }
+
+    private void onSuccess(Route route, String body) {
+        try {
+            if (route == Route.REGISTER) {
+                registered.add(objectMapper.readValue(body, Account.class));
+            } else if (route == Route.POST) {
+                int message_id = objectMapper.readTree(body).get("message_id").asInt();
+                maxMessageId.accumulateAndGet(message_id, Math::max);
+                deletable.add(message_id);
+            }
+        } catch (Exception e) {
+            System.err.println("Unexpected " + route.label + " response: " + body);
+        }
+    }
+
+    // an account whose registration was confirmed, so logins and posts hit a real row whatever the storage engine
+    // and whatever order concurrent registrations complete in; before the first one, a name no account has
+    private Account randomAccount() {
+        int size = registered.size();
+        if (size == 0) return new Account(1, "load0", "password");
+        return registered.get(ThreadLocalRandom.current().nextInt(size));
+    }
+
+    private int randomAccountId() {
+        return randomAccount().getAccount_id();
+    }
+
+    private int randomMessageId() {
+        return ThreadLocalRandom.current().nextInt(1, Math.max(2, maxMessageId.get() + 1));
+    }
+
+    private static void print(Map<Route, RouteStats> stats, int rate, int seconds) {
+        System.out.printf("%d requests/s for %d s, latency from the scheduled send time%n", rate, seconds);
+        System.out.printf("%-24s %9s %9s %7s %9s %9s %9s %9s%n",
+            "route", "count", "req/s", "errors", "p50 ms", "p99 ms", "p999 ms", "max ms");
+        long count = 0;
+        long errors = 0;
+        for (Map.Entry<Route, RouteStats> entry : stats.entrySet()) {
+            RouteStats routeStats = entry.getValue();
+            printRow(entry.getKey().label, routeStats.latency, routeStats.errors.sum(), seconds);
+            count += routeStats.latency.getCount();
+            errors += routeStats.errors.sum();
+        }
+        System.out.printf("%-24s %9d %9.1f %7d%n", "total", count, count / (double) seconds, errors);
+    }
+
+    private static void printRow(String label, LatencyHistogram latency, long errors, int seconds) {
+        System.out.printf("%-24s %9d %9.1f %7d %9.2f %9.2f %9.2f %9.2f%n", label, latency.getCount(),
+            latency.getCount() / (double) seconds, errors,
+            latency.valueAtPercentile(0.50) / 1e6, latency.valueAtPercentile(0.99) / 1e6,
+            latency.valueAtPercentile(0.999) / 1e6, latency.getMax() / 1e6);
+    }
+}
@@ -0,0 +1,82 @@
+package Benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import DAO.AccountRepository;
+import DAO.InMemoryAccountRepository;
+import DAO.LogMessageRepository;
+import DAO.MessageDAO;
+import DAO.MessageRepository;
+import Model.Account;
+import Model.Message;
+import Util.ConnectionUtil;
+
+/**
+ * Single-threaded insert throughput of MessageDAO against LogMessageRepository, and how long the log takes to be
+ * opened again, which is when its indexes are rebuilt.
+ *
+ * MessageDAO runs against the application's database, reset first like the tests do. The log is written to a
+ * temporary directory that is deleted afterwards; its accounts are kept in memory so only message writes are
+ * measured.
+ *
+ * Run with: mvn test-compile exec:java -Dexec.mainClass=Benchmark.MessageLogBenchmark -Dexec.classpathScope=test
+ * Tunables (system properties): jdbcMessages (default 20000), logMessages (1000000), flushMillis of the log (1000,
+ * 0 to force every write to disk).
+ */
+public class MessageLogBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int jdbcMessages = Integer.getInteger("jdbcMessages", 20_000);
+        int logMessages = Integer.getInteger("logMessages", 1_000_000);
+        long flushMillis = Long.getLong("flushMillis", 1000L);
+
+        ConnectionUtil.resetTestDatabase();
+        report("MessageDAO", jdbcMessages, insert(new MessageDAO(), jdbcMessages));
+
+        Path directory = Files.createTempDirectory("message-log");
+        try {
+            AccountRepository accounts = new InMemoryAccountRepository();
+            accounts.insertAccount(new Account("benchmark", "password"));
+
+            LogMessageRepository log = new LogMessageRepository(accounts, directory, 64 << 20, flushMillis);
+            report("LogMessageRepository, flushMillis " + flushMillis, logMessages, insert(log, logMessages));
+            long logBytes = log.getLogBytes();
+            log.close();
+
+            long start = System.nanoTime();
+            LogMessageRepository reopened = new LogMessageRepository(accounts, directory, 64 << 20, flushMillis);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("reopened %.1f MiB of log in %.2f s, %.2f s per million messages%n",
+                logBytes / 1048576.0, seconds, seconds * 1_000_000 / logMessages);
+            reopened.close();
+        } finally {
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+            }
+        }
+        System.exit(0);
+    }
+
+    private static long insert(MessageRepository repository, int messages) {
+        // a short warm-up, not counted
+        for (int i = 0; i < Math.min(1000, messages); i++) {
+            repository.insertMessage(new Message(1, "warm-up message " + i, 1669947792L));
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < messages; i++) {
+            if (repository.insertMessage(new Message(1, "benchmark message number " + i, 1669947792L + i)) == null) {
+                throw new IllegalStateException("insert " + i + " failed");
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static void report(String name, int messages, long nanos) {
+        System.out.printf("%-40s %10d inserts in %6.2f s: %10.0f inserts/s, %8.2f us each%n", name, messages,
+            nanos / 1e9, messages / (nanos / 1e9), nanos / 1e3 / messages);
+    }
+}
@@ -0,0 +1,115 @@
+package Benchmark;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import DAO.AccountRepository;
+import DAO.InMemoryAccountRepository;
+import DAO.InMemoryMessageRepository;
+import DAO.MessageRepository;
+import DAO.OffHeapMessageRepository;
+import Model.Account;
+import Model.Message;
+
+/**
+ * Loads the same messages into the heap-based and the off-heap message repositories and compares what that costs
+ * the garbage collector: heap in use afterwards, collections and collection time while loading, and how long a full
+ * collection takes with the data loaded.
+ *
+ * Run with: mvn test-compile exec:java -Dexec.mainClass=Benchmark.MessageStoreFootprint -Dexec.classpathScope=test
+ * (give the JVM room for both, e.g. MAVEN_OPTS="-Xmx4g -XX:MaxDirectMemorySize=4g").
+ * Tunables (system properties): engines (default memory,offheap), messages (2000000), accounts (1000).
+ */
+public class MessageStoreFootprint {
+
+    public static void main(String[] args) {
+        String[] engines = System.getProperty("engines", "memory,offheap").split(",");
+        int messages = Integer.getInteger("messages", 2_000_000);
+        int accounts = Integer.getInteger("accounts", 1000);
+
+        System.out.printf("%d messages by %d accounts%n", messages, accounts);
+        System.out.printf("%-8s %10s %12s %8s %10s %10s %12s%n",
+            "engine", "load s", "heap MiB", "GCs", "GC ms", "full GC ms", "off-heap MiB");
+        for (String engine : engines) {
+            fullGc();
+            long heapBefore = usedHeap();
+            long gcCountBefore = gcCount();
+            long gcMillisBefore = gcMillis();
+
+            long start = System.nanoTime();
+            AccountRepository accountRepository = new InMemoryAccountRepository();
+            MessageRepository messageRepository = create(engine, accountRepository);
+            load(accountRepository, messageRepository, accounts, messages);
+            double loadSeconds = (System.nanoTime() - start) / 1e9;
+
+            long gcCount = gcCount() - gcCountBefore;
+            long gcMillis = gcMillis() - gcMillisBefore;
+            long fullGcStart = System.nanoTime();
+            fullGc();
+            double fullGcMillis = (System.nanoTime() - fullGcStart) / 1e6;
+            long heap = usedHeap() - heapBefore;
+            long offHeap = messageRepository instanceof OffHeapMessageRepository
+                ? ((OffHeapMessageRepository) messageRepository).getOffHeapBytes() : 0;
+
+            System.out.printf("%-8s %10.1f %12.1f %8d %10d %10.1f %12.1f%n", engine, loadSeconds, heap / 1048576.0,
+                gcCount, gcMillis, fullGcMillis, offHeap / 1048576.0);
+            // keep the repository reachable until it has been measured
+            if (messageRepository.getMessageById(1) == null) System.out.println("message 1 is missing");
+        }
+    }
+
+    private static MessageRepository create(String engine, AccountRepository accountRepository) {
+        switch (engine) {
+            case "memory":
+                return new InMemoryMessageRepository(accountRepository);
+            case "offheap":
+                return new OffHeapMessageRepository(accountRepository, 64 << 20);
+            default:
+                throw new IllegalArgumentException("engine must be memory or offheap, not " + engine);
+        }
+    }
+
+    private static void load(AccountRepository accountRepository, MessageRepository messageRepository,
+                             int accounts, int messages) {
+        for (int i = 1; i <= accounts; i++) {
+            accountRepository.insertAccount(new Account("footprint" + i, "password"));
+        }
+        List<Message> batch = new ArrayList<>();
+        for (int i = 0; i < messages; i++) {
+            // texts of a typical length, all different so none are shared
+            batch.add(new Message(1 + i % accounts, "footprint message number " + i + " with some more text",
+                1669947792L + i));
+            if (batch.size() == 1000 || i == messages - 1) {
+                messageRepository.insertMessages(batch);
+                batch = new ArrayList<>();
+            }
+        }
+    }
+
+    private static void fullGc() {
+        System.gc();
+        System.gc();
+    }
+
+    private static long usedHeap() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, gc.getCollectionTime());
+        }
+        return millis;
+    }
+}
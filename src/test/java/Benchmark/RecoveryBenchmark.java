@@ -0,0 +1,93 @@
+package Benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import DAO.DurableMemoryStore;
+import Model.Account;
+import Model.Message;
+
+/**
+ * How long DurableMemoryStore takes to rebuild its accounts and messages on startup, from the write-ahead log alone
+ * and from a snapshot plus the log written after it.
+ *
+ * The messages are inserted in batches of 1000, so each batch waits for one flush of the log, then a hundredth of
+ * them are updated and another hundredth deleted, each waiting for its own flush. The store is written to a
+ * temporary directory that is deleted afterwards. Each restore starts after a full garbage collection, with the store
+ * it replaces closed and unreachable.
+ *
+ * Run with: mvn test-compile exec:java -Dexec.mainClass=Benchmark.RecoveryBenchmark -Dexec.classpathScope=test
+ * Tunables (system properties): messages (default 1000000), tailMessages written after the snapshot (100000).
+ */
+public class RecoveryBenchmark {
+
+    private static final int SEGMENT_BYTES = 64 << 20;
+
+    public static void main(String[] args) throws IOException {
+        int messages = Integer.getInteger("messages", 1_000_000);
+        int tailMessages = Integer.getInteger("tailMessages", 100_000);
+
+        Path directory = Files.createTempDirectory("memory-store");
+        try {
+            DurableMemoryStore store = new DurableMemoryStore(directory, SEGMENT_BYTES, 0);
+            int posted_by = store.accounts().insertAccount(new Account("benchmark", "password")).getAccount_id();
+            long start = System.nanoTime();
+            write(store, posted_by, 0, messages);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("wrote %d messages in %.2f s, %.0f writes/s%n", messages, seconds,
+                messages * 1.02 / seconds);
+            store.close();
+            store = null;
+
+            store = reopen(directory, "the log only", messages);
+            start = System.nanoTime();
+            store.snapshot();
+            System.out.printf("snapshot of %d messages in %.2f s%n", messages, (System.nanoTime() - start) / 1e9);
+            write(store, posted_by, messages, tailMessages);
+            store.close();
+            store = null;
+
+            reopen(directory, "a snapshot and " + tailMessages + " messages of log", messages + tailMessages).close();
+        } finally {
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+            }
+        }
+        System.exit(0);
+    }
+
+    // inserts count messages after the first, updates a hundredth of them and deletes another hundredth
+    private static void write(DurableMemoryStore store, int posted_by, int first, int count) {
+        List<Message> batch = new ArrayList<>(1000);
+        for (int i = 0; i < count; i++) {
+            batch.add(new Message(posted_by, "benchmark message number " + (first + i), 1669947792L + first + i));
+            if (batch.size() == 1000 || i == count - 1) {
+                store.messages().insertMessages(batch);
+                batch.clear();
+            }
+        }
+        for (int id = first + 1; id <= first + count; id += 100) {
+            store.messages().updateMessageTextReturning(id, "updated message number " + id);
+            store.messages().deleteMessageById(id + 50);
+        }
+    }
+
+    private static DurableMemoryStore reopen(Path directory, String from, int messages) throws IOException {
+        long bytes;
+        try (Stream<Path> files = Files.walk(directory)) {
+            bytes = files.filter(Files::isRegularFile).mapToLong(file -> file.toFile().length()).sum();
+        }
+        System.gc();
+        long start = System.nanoTime();
+        DurableMemoryStore store = new DurableMemoryStore(directory, SEGMENT_BYTES, 0);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("restored %d messages from %s (%.1f MiB on disk) in %.2f s, %.2f s per million messages%n",
+            store.messages().getAllMessages().size(), from, bytes / 1048576.0, seconds, seconds * 1_000_000 / messages);
+        return store;
+    }
+}
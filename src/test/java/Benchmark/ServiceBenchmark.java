@@ -0,0 +1,162 @@
+package Benchmark;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import Model.Account;
+import Model.Message;
+import Model.MessageBatchResult;
+import Model.MessagePage;
+import Service.AccountService;
+import Service.MessageService;
+
+/**
+ * JMH benchmarks of the AccountService and MessageService methods, including their caches and validation, against
+ * a database seeded by BenchmarkDataset. See DaoBenchmark for the same methods without the service layer.
+ *
+ * Lookups by id and by username pick random seeded rows, so how often they hit the caches depends on the dataset
+ * size (-p accounts=... -p messages=...) against socialmedia.accountCache.maxSize and socialmedia.messageCache.maxSize.
+ *
+ * Run with: mvn -P jmh test-compile exec:exec -Djmh.args="ServiceBenchmark"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = BenchmarkDataset.DB_URL_ARG)
+public class ServiceBenchmark {
+
+    @Param({"1000"})
+    int accounts;
+
+    @Param({"100000"})
+    int messages;
+
+    AccountService accountService;
+    MessageService messageService;
+    final AtomicInteger nextUsername = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void seed() throws SQLException {
+        BenchmarkDataset.seed(accounts, messages);
+        accountService = new AccountService();
+        messageService = new MessageService();
+    }
+
+    private int randomAccountId() {
+        return ThreadLocalRandom.current().nextInt(1, accounts + 1);
+    }
+
+    private int randomMessageId() {
+        return ThreadLocalRandom.current().nextInt(1, messages + 1);
+    }
+
+    private Message newMessage() {
+        return new Message(randomAccountId(), "jmh message", System.currentTimeMillis() / 1000);
+    }
+
+    // ---- AccountService ----
+
+    @Benchmark
+    public Account createAccount() {
+        return accountService.createAccount(new Account("jmh" + nextUsername.incrementAndGet(), "password"));
+    }
+
+    @Benchmark
+    public Account getAccountByUsername() {
+        return accountService.getAccountByUsername(BenchmarkDataset.username(randomAccountId()));
+    }
+
+    @Benchmark
+    public Account logInAccountMatches() {
+        return accountService.logInAccountMatches(
+            new Account(BenchmarkDataset.username(randomAccountId()), "password"));
+    }
+
+    @Benchmark
+    public List<Account> getAllAccounts() {
+        return accountService.getAllAccounts();
+    }
+
+    // ---- MessageService ----
+
+    @Benchmark
+    public Message insertMessage() {
+        return messageService.insertMessage(newMessage());
+    }
+
+    @Benchmark
+    public List<MessageBatchResult> insertMessages100() {
+        List<Message> batch = new ArrayList<>(100);
+        for (int i = 0; i < 100; i++) batch.add(newMessage());
+        return messageService.insertMessages(batch);
+    }
+
+    @Benchmark
+    public List<Message> getAllMessages() {
+        return messageService.getAllMessages();
+    }
+
+    @Benchmark
+    public void streamAllMessages(Blackhole blackhole) throws IOException {
+        messageService.streamAllMessages(blackhole::consume);
+    }
+
+    @Benchmark
+    public MessagePage getMessagesPage() {
+        return messageService.getMessagesPage(randomMessageId(), null, 100);
+    }
+
+    @Benchmark
+    public Message getMessageByMessageId() {
+        return messageService.getMessageByMessageId(randomMessageId());
+    }
+
+    @Benchmark
+    public List<Message> getMessagesByIds() {
+        List<Integer> ids = new ArrayList<>(20);
+        for (int i = 0; i < 20; i++) ids.add(randomMessageId());
+        return messageService.getMessagesByIds(ids);
+    }
+
+    @Benchmark
+    public List<Message> getAllMessagesByUserId() {
+        return messageService.getAllMessagesByUserId(randomAccountId());
+    }
+
+    @Benchmark
+    public List<Message> getMessagesByUserId() {
+        return messageService.getMessagesByUserId(randomAccountId(), 0, Long.MAX_VALUE, 50);
+    }
+
+    @Benchmark
+    public Message updateMessageTextByMessageId() {
+        return messageService.updateMessageTextByMessageId(randomMessageId(), "updated by jmh");
+    }
+
+    @Benchmark
+    public Message insertAndDeleteMessageById() {
+        Message message = messageService.insertMessage(newMessage());
+        return messageService.deleteMessageById(message.getMessage_id());
+    }
+}
@@ -0,0 +1,174 @@
+package Benchmark;
+
+import java.io.FileReader;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.h2.tools.RunScript;
+
+/**
+ * Measures the per-account timeline query of MessageDAO.getMessagesByUserId against a large message table,
+ * with and without the indexes shipped in SocialMedia.sql.
+ *
+ * It uses its own database file (./h2/timeline-bench), never the application's. The table is seeded once and
+ * reused by later runs with the same size. Three setups are timed:
+ *  - composite: the (posted_by, time_posted_epoch desc, message_id desc) index from SocialMedia.sql
+ *  - fk only:   just the index H2 creates for the posted_by foreign key, so every row of the user is sorted
+ *  - no index:  foreign key dropped too, so each query scans the whole table
+ *
+ * Run with: mvn test-compile exec:java -Dexec.mainClass=Benchmark.TimelineIndexBenchmark -Dexec.classpathScope=test
+ * Each query asks for the newest messages of a random account within the most recent window of the timeline.
+ * Tunables (system properties): rows (default 10000000), accounts (100000), iterations (2000), limit (50),
+ * window (fraction of the timeline queried, default 0.1).
+ */
+public class TimelineIndexBenchmark {
+
+    private static final long FIRST_EPOCH = 1_600_000_000L;
+
+    // the query MessageDAO.getMessagesByUserId runs
+    private static final String TIMELINE_SQL = "SELECT * FROM Message USE INDEX (message_posted_by_time_idx) "
+        + "WHERE posted_by = ? AND time_posted_epoch BETWEEN ? AND ? "
+        + "ORDER BY time_posted_epoch DESC, message_id DESC LIMIT ?;";
+    // the same query without the index hint, once the composite index is gone
+    private static final String UNHINTED_SQL = "SELECT * FROM Message "
+        + "WHERE posted_by = ? AND time_posted_epoch BETWEEN ? AND ? "
+        + "ORDER BY time_posted_epoch DESC, message_id DESC LIMIT ?;";
+
+    public static void main(String[] args) throws Exception {
+        int rows = Integer.getInteger("rows", 10_000_000);
+        int accounts = Integer.getInteger("accounts", 100_000);
+        int iterations = Integer.getInteger("iterations", 2_000);
+        int limit = Integer.getInteger("limit", 50);
+        double window = Double.parseDouble(System.getProperty("window", "0.1"));
+        long since = FIRST_EPOCH + (long) (rows * (1 - window));
+
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:./h2/timeline-bench");
+        dataSource.setUser("sa");
+        dataSource.setPassword("sa");
+
+        try (Connection connection = dataSource.getConnection()) {
+            seed(connection, rows, accounts);
+
+            System.out.printf("%,d messages from %,d accounts, newest %d per query from the last %.0f%% of the timeline%n",
+                rows, accounts, limit, window * 100);
+            run("composite", TIMELINE_SQL, connection, accounts, iterations, limit, since);
+
+            try (Statement st = connection.createStatement()) {
+                st.execute("DROP INDEX message_posted_by_time_idx");
+            }
+            run("fk only", UNHINTED_SQL, connection, accounts, iterations, limit, since);
+
+            dropForeignKeys(connection);
+            run("no index", UNHINTED_SQL, connection, accounts, Math.max(1, iterations / 100), limit, since);
+
+            // put the schema back the way SocialMedia.sql defines it for the next run
+            try (Statement st = connection.createStatement()) {
+                st.execute("ALTER TABLE message ADD FOREIGN KEY (posted_by) REFERENCES account(account_id)");
+                st.execute("CREATE INDEX message_posted_by_time_idx ON message (posted_by, time_posted_epoch DESC, message_id DESC)");
+            }
+        }
+    }
+
+    private static void run(String name, String sql, Connection connection, int accounts, int iterations, int limit, long since) throws SQLException {
+        Random random = new Random(42);
+        try (PreparedStatement ps = connection.prepareStatement(sql)) {
+            // warm up the plan and the page cache
+            for (int i = 0; i < Math.min(iterations, 200); i++) {
+                query(ps, 1 + random.nextInt(accounts), limit, since);
+            }
+
+            long[] micros = new long[iterations];
+            for (int i = 0; i < iterations; i++) {
+                long start = System.nanoTime();
+                query(ps, 1 + random.nextInt(accounts), limit, since);
+                micros[i] = (System.nanoTime() - start) / 1000;
+            }
+            Arrays.sort(micros);
+
+            long sum = 0;
+            for (long m : micros) sum += m;
+            System.out.printf("%-10s iterations=%-6d avg=%8dus p50=%8dus p99=%8dus max=%8dus%n", name, iterations,
+                sum / iterations, micros[iterations / 2], micros[(int) (iterations * 0.99)], micros[iterations - 1]);
+        }
+    }
+
+    private static int query(PreparedStatement ps, int accountId, int limit, long since) throws SQLException {
+        ps.setInt(1, accountId);
+        ps.setLong(2, since);
+        ps.setLong(3, Long.MAX_VALUE);
+        ps.setInt(4, limit);
+        int count = 0;
+        try (ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) count++;
+        }
+        return count;
+    }
+
+    private static void dropForeignKeys(Connection connection) throws SQLException {
+        try (Statement st = connection.createStatement();
+             ResultSet rs = st.executeQuery("SELECT constraint_name FROM information_schema.table_constraints "
+                 + "WHERE table_name = 'MESSAGE' AND constraint_type = 'FOREIGN KEY'")) {
+            while (rs.next()) {
+                try (Statement drop = connection.createStatement()) {
+                    drop.execute("ALTER TABLE message DROP CONSTRAINT " + rs.getString(1));
+                }
+            }
+        }
+    }
+
+    private static void seed(Connection connection, int rows, int accounts) throws Exception {
+        try (Statement st = connection.createStatement();
+             ResultSet rs = st.executeQuery("SELECT COUNT(*) FROM information_schema.tables WHERE table_name = 'MESSAGE'")) {
+            rs.next();
+            if (rs.getInt(1) == 1) {
+                try (ResultSet count = st.executeQuery("SELECT COUNT(*) FROM message")) {
+                    count.next();
+                    if (count.getLong(1) == rows) return;
+                }
+            }
+        }
+
+        System.out.printf("seeding %,d messages...%n", rows);
+        try (FileReader sql = new FileReader("src/main/resources/SocialMedia.sql")) {
+            RunScript.execute(connection, sql);
+        }
+        try (Statement st = connection.createStatement()) {
+            st.execute("DELETE FROM message");
+            st.execute("DELETE FROM account");
+        }
+
+        connection.setAutoCommit(false);
+        Random random = new Random(7);
+        try (PreparedStatement ps = connection.prepareStatement("INSERT INTO account (account_id, username, password) VALUES (?, ?, 'password')")) {
+            for (int i = 1; i <= accounts; i++) {
+                ps.setInt(1, i);
+                ps.setString(2, "user" + i);
+                ps.addBatch();
+                if (i % 10_000 == 0) ps.executeBatch();
+            }
+            ps.executeBatch();
+        }
+        try (PreparedStatement ps = connection.prepareStatement("INSERT INTO message (posted_by, message_text, time_posted_epoch) VALUES (?, ?, ?)")) {
+            for (int i = 1; i <= rows; i++) {
+                ps.setInt(1, 1 + random.nextInt(accounts));
+                ps.setString(2, "benchmark message " + i);
+                ps.setLong(3, FIRST_EPOCH + i);
+                ps.addBatch();
+                if (i % 10_000 == 0) {
+                    ps.executeBatch();
+                    connection.commit();
+                }
+            }
+            ps.executeBatch();
+            connection.commit();
+        }
+        connection.setAutoCommit(true);
+    }
+}
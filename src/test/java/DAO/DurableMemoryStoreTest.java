@@ -0,0 +1,193 @@
+package DAO;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import Model.Account;
+import Model.Message;
+
+public class DurableMemoryStoreTest {
+    private static final int SEGMENT_BYTES = 1 << 20;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    Path directory;
+    DurableMemoryStore store;
+
+    /**
+     * Before every test, open a store on an empty directory, taking snapshots only when asked.
+     */
+    @Before
+    public void setUp() throws IOException {
+        directory = folder.newFolder("memory").toPath();
+        store = new DurableMemoryStore(directory, SEGMENT_BYTES, 0);
+    }
+
+    @After
+    public void tearDown() {
+        if (store != null) store.close();
+    }
+
+    // a new store on the same directory, the old one left as it was, like after a crash: every write that returned
+    // is on disk already
+    private DurableMemoryStore crashAndRestore() {
+        store = new DurableMemoryStore(directory, SEGMENT_BYTES, 0);
+        return store;
+    }
+
+    private int account(String username) {
+        return store.accounts().insertAccount(new Account(username, "password")).getAccount_id();
+    }
+
+    private void insertMessages(int posted_by, int count) {
+        List<Message> batch = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            batch.add(new Message(posted_by, "test message " + i, 1669947792L + i));
+            if (batch.size() == 10_000 || i == count - 1) {
+                store.messages().insertMessages(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    private List<Path> snapshots() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "snapshot-*")) {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        }
+        return files;
+    }
+
+    /**
+     * With no snapshot, the log alone gives back every account and message, and new ids follow the old ones even
+     * when the last of them was deleted.
+     */
+    @Test
+    public void restoresFromTheLogAlone() {
+        int posted_by = account("testuser1");
+        account("testuser2");
+        store.accounts().deleteAccountByUsername("testuser2");
+        store.accounts().updateAccountPasswordById(new Account(posted_by, "testuser1", "new password"));
+        insertMessages(posted_by, 3);
+        store.messages().updateMessageTextReturning(1, "updated message 1");
+        store.messages().deleteMessageById(3);
+        List<Account> accounts = store.accounts().getAllAccounts();
+        List<Message> messages = store.messages().getAllMessages();
+
+        crashAndRestore();
+
+        Assert.assertEquals(accounts, store.accounts().getAllAccounts());
+        Assert.assertEquals(messages, store.messages().getAllMessages());
+        Assert.assertEquals("new password", store.accounts().getAccountById(posted_by).getPassword());
+        Assert.assertEquals(3, account("testuser3"));
+        Assert.assertEquals(4, store.messages().insertMessage(new Message(posted_by, "test message 4", 1669947796))
+            .getMessage_id());
+    }
+
+    /**
+     * A snapshot of more than one chunk, loaded in parallel, and the log written after it give back the state
+     * before the crash; the log epochs and snapshots it replaces are deleted.
+     */
+    @Test
+    public void parallelRestoreFromSnapshotAndLogEqualsTheStateBeforeTheCrash() throws IOException {
+        int posted_by = account("testuser1");
+        // more than the 65536 messages of one snapshot chunk
+        insertMessages(posted_by, 150_000);
+        store.snapshot();
+        store.snapshot();
+        Assert.assertEquals(1, snapshots().size());
+        for (int id = 1; id <= 150_000; id += 1000) {
+            store.messages().updateMessageTextReturning(id, "updated message " + id);
+            store.messages().deleteMessageById(id + 500);
+        }
+        insertMessages(posted_by, 10);
+        List<Message> messages = store.messages().getAllMessages();
+
+        crashAndRestore();
+
+        Assert.assertEquals(messages, store.messages().getAllMessages());
+        Assert.assertEquals(store.accounts().getAllAccounts().size(), 1);
+        Assert.assertEquals(150_011, store.messages().insertMessage(new Message(posted_by, "next", 1669947792))
+            .getMessage_id());
+    }
+
+    /**
+     * A snapshot taken while writes go on may hold some of the writes of the epoch after it; replaying that epoch
+     * over it still gives the state the writes left.
+     */
+    @Test
+    public void snapshotDuringWritesHandsOverToTheNextEpoch() throws Exception {
+        int posted_by = account("testuser1");
+        insertMessages(posted_by, 20_000);
+        AtomicBoolean done = new AtomicBoolean();
+        Thread writer = new Thread(() -> {
+            for (int id = 1; id <= 20_000; id += 7) {
+                store.messages().updateMessageTextReturning(id, "updated message " + id);
+                store.messages().deleteMessageById(id + 3);
+                store.messages().insertMessage(new Message(posted_by, "during snapshot " + id, 1669947792L + id));
+            }
+            done.set(true);
+        });
+        writer.start();
+        int snapshots = 0;
+        while (!done.get()) {
+            store.snapshot();
+            snapshots++;
+        }
+        writer.join();
+        List<Message> messages = store.messages().getAllMessages();
+
+        crashAndRestore();
+
+        Assert.assertTrue(snapshots > 0);
+        Assert.assertEquals(messages, store.messages().getAllMessages());
+    }
+
+    /**
+     * A snapshot chunk that does not match its CRC fails the restore instead of restoring other data than was
+     * written.
+     */
+    @Test
+    public void damagedSnapshotChunkFailsTheRestore() throws IOException {
+        int posted_by = account("testuser1");
+        insertMessages(posted_by, 100);
+        store.snapshot();
+        store.close();
+        store = null;
+
+        Path snapshot = snapshots().get(0);
+        try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer first = ByteBuffer.allocate(1);
+            channel.read(first, 10);
+            first.put(0, (byte) (first.get(0) ^ 0xff)).rewind();
+            channel.write(first, 10);
+        }
+
+        try {
+            crashAndRestore();
+            Assert.fail("a damaged snapshot was restored");
+        } catch (UncheckedIOException expected) {
+            store = null;
+            Assert.assertTrue(expected.getCause().getMessage().contains("is damaged"));
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package DAO;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Model.Account;
+
+public class InMemoryAccountRepositoryTest {
+    InMemoryAccountRepository accounts;
+
+    /**
+     * Before every test, start with one account.
+     */
+    @Before
+    public void setUp() {
+        accounts = new InMemoryAccountRepository();
+        accounts.insertAccount(new Account("testuser1", "password"));
+    }
+
+    /**
+     * Usernames stay unique, and ids are not handed out again after a delete.
+     */
+    @Test
+    public void insertKeepsUsernamesUniqueAndNeverReusesIds() {
+        Assert.assertNull(accounts.insertAccount(new Account("testuser1", "other password")));
+        Assert.assertNull(accounts.insertAccount(new Account(null, "password")));
+        Assert.assertEquals(new Account(2, "testuser2", "password"),
+            accounts.insertAccount(new Account("testuser2", "password")));
+        Assert.assertTrue(accounts.deleteAccountById(2));
+        Assert.assertEquals(3, accounts.insertAccount(new Account("testuser2", "password")).getAccount_id());
+    }
+
+    /**
+     * Both indexes find the account, and agree after updates and deletes.
+     */
+    @Test
+    public void lookupsAgreeAfterUpdatesAndDeletes() {
+        Assert.assertTrue(accounts.updateAccountPasswordById(new Account(1, "ignored", "by id")));
+        Assert.assertEquals("by id", accounts.getAccountByUserName("testuser1").getPassword());
+        Assert.assertTrue(accounts.updateAccountPasswordByUsername(new Account("testuser1", "by username")));
+        Assert.assertEquals(new Account(1, "testuser1", "by username"), accounts.getAccountById(1));
+        Assert.assertFalse(accounts.updateAccountPasswordById(new Account(9, "testuser9", "password")));
+        Assert.assertFalse(accounts.updateAccountPasswordByUsername(new Account(null, "password")));
+
+        Assert.assertTrue(accounts.deleteAccountByUsername("testuser1"));
+        Assert.assertNull(accounts.getAccountById(1));
+        Assert.assertNull(accounts.getAccountByUserName("testuser1"));
+        Assert.assertFalse(accounts.deleteAccountByUsername("testuser1"));
+        Assert.assertFalse(accounts.deleteAccountById(1));
+        Assert.assertTrue(accounts.getAllAccounts().isEmpty());
+    }
+
+    /**
+     * Accounts handed out are copies, so changing one does not change what is stored.
+     */
+    @Test
+    public void accountsHandedOutAreCopies() {
+        accounts.getAccountById(1).setPassword("changed");
+        accounts.getAllAccounts().get(0).setPassword("changed");
+
+        Assert.assertEquals("password", accounts.getAccountByUserName("testuser1").getPassword());
+    }
+
+    /**
+     * getExistingAccountIds keeps only the ids of existing accounts.
+     */
+    @Test
+    public void existingAccountIds() {
+        accounts.insertAccount(new Account("testuser2", "password"));
+
+        Assert.assertEquals(new HashSet<>(Arrays.asList(1, 2)),
+            accounts.getExistingAccountIds(Arrays.asList(1, 2, 3, null)));
+    }
+
+    /**
+     * Restoring an account under a new username drops the old one from the username index.
+     */
+    @Test
+    public void restoreReplacesTheUsername() {
+        accounts.restore(new Account(1, "renamed", "password"));
+        accounts.restoreDeletion(5);
+
+        Assert.assertNull(accounts.getAccountByUserName("testuser1"));
+        Assert.assertEquals(1, accounts.getAccountByUserName("renamed").getAccount_id());
+        Assert.assertEquals(6, accounts.insertAccount(new Account("testuser6", "password")).getAccount_id());
+    }
+}
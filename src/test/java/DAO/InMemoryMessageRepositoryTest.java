@@ -0,0 +1,157 @@
+package DAO;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Model.Account;
+import Model.Message;
+
+public class InMemoryMessageRepositoryTest {
+    InMemoryAccountRepository accounts;
+    InMemoryMessageRepository messages;
+    int posted_by;
+
+    /**
+     * Before every test, start with one account and no messages.
+     */
+    @Before
+    public void setUp() {
+        accounts = new InMemoryAccountRepository();
+        messages = new InMemoryMessageRepository(accounts);
+        posted_by = accounts.insertAccount(new Account("testuser1", "password")).getAccount_id();
+    }
+
+    private Message insert(int posted_by, String text, long time_posted_epoch) {
+        return messages.insertMessage(new Message(posted_by, text, time_posted_epoch));
+    }
+
+    private static List<Integer> ids(List<Message> messages) {
+        return messages.stream().map(Message::getMessage_id).collect(Collectors.toList());
+    }
+
+    /**
+     * Inserts get increasing ids that are not handed out again after a delete, and need an existing posted_by.
+     */
+    @Test
+    public void insertChecksPostedByAndNeverReusesIds() {
+        Assert.assertEquals(1, insert(posted_by, "test message 1", 1669947792).getMessage_id());
+        Assert.assertEquals(2, insert(posted_by, "test message 2", 1669947793).getMessage_id());
+        Assert.assertNull(insert(99, "no such account", 1669947794));
+        Assert.assertNotNull(messages.deleteMessageById(2));
+        Assert.assertEquals(3, insert(posted_by, "test message 3", 1669947795).getMessage_id());
+
+        List<Message> batch = messages.insertMessages(Arrays.asList(new Message(posted_by, "batch 1", 1),
+            new Message(99, "batch 2", 2), new Message(posted_by, "batch 3", 3)));
+        Assert.assertEquals(4, batch.get(0).getMessage_id());
+        Assert.assertNull(batch.get(1));
+        Assert.assertEquals(5, batch.get(2).getMessage_id());
+        Assert.assertEquals(Arrays.asList(1, 3, 4, 5), ids(messages.getAllMessages()));
+    }
+
+    /**
+     * Messages handed out are copies, so changing one does not change what is stored.
+     */
+    @Test
+    public void messagesHandedOutAreCopies() {
+        insert(posted_by, "test message 1", 1669947792);
+        messages.getMessageById(1).setMessage_text("changed");
+        messages.getAllMessages().get(0).setMessage_text("changed");
+
+        Assert.assertEquals(new Message(1, posted_by, "test message 1", 1669947792), messages.getMessageById(1));
+    }
+
+    /**
+     * An update keeps posted_by and the time, a delete returns the message once, and neither finds a missing one.
+     */
+    @Test
+    public void updateAndDelete() {
+        insert(posted_by, "test message 1", 1669947792);
+
+        Assert.assertEquals(new Message(1, posted_by, "updated", 1669947792),
+            messages.updateMessageTextReturning(1, "updated"));
+        Assert.assertNull(messages.updateMessageTextReturning(2, "updated"));
+        Assert.assertEquals(new Message(1, posted_by, "updated", 1669947792), messages.deleteMessageById(1));
+        Assert.assertNull(messages.deleteMessageById(1));
+        Assert.assertNull(messages.updateMessageTextReturning(1, "updated"));
+        Assert.assertTrue(messages.getAllMessagesByUserId(posted_by).isEmpty());
+    }
+
+    /**
+     * Pages run forward from after_id and backward from before_id, skipping deleted ids, and cursors at the ends of
+     * the int range give empty pages instead of overflowing.
+     */
+    @Test
+    public void pagesByMessageId() {
+        for (int i = 1; i <= 10; i++) {
+            insert(posted_by, "test message " + i, 1669947792L + i);
+        }
+        messages.deleteMessageById(5);
+
+        Assert.assertEquals(Arrays.asList(4, 6, 7), ids(messages.getMessagesAfterId(3, 3)));
+        Assert.assertEquals(Arrays.asList(1, 2), ids(messages.getMessagesAfterId(-7, 2)));
+        Assert.assertEquals(Arrays.asList(6, 4, 3), ids(messages.getMessagesBeforeId(7, 3)));
+        Assert.assertEquals(Arrays.asList(10, 9), ids(messages.getMessagesBeforeId(Integer.MAX_VALUE, 2)));
+        Assert.assertEquals(Collections.singletonList(1), ids(messages.getMessagesBeforeId(2, 5)));
+
+        Assert.assertTrue(messages.getMessagesAfterId(10, 5).isEmpty());
+        Assert.assertTrue(messages.getMessagesAfterId(Integer.MAX_VALUE, 5).isEmpty());
+        Assert.assertTrue(messages.getMessagesBeforeId(1, 5).isEmpty());
+        Assert.assertTrue(messages.getMessagesBeforeId(0, 5).isEmpty());
+        Assert.assertTrue(messages.getMessagesBeforeId(Integer.MIN_VALUE, 5).isEmpty());
+    }
+
+    /**
+     * A user's messages come newest first, ties on the time broken by the higher id, within the inclusive range
+     * and up to the limit.
+     */
+    @Test
+    public void timelineIsNewestFirstWithinTheRange() {
+        int other = accounts.insertAccount(new Account("testuser2", "password")).getAccount_id();
+        insert(posted_by, "at 100", 100);
+        insert(other, "other at 150", 150);
+        insert(posted_by, "at 200", 200);
+        insert(posted_by, "also at 200", 200);
+        insert(posted_by, "at 300", 300);
+
+        Assert.assertEquals(Arrays.asList(5, 4, 3, 1), ids(messages.getAllMessagesByUserId(posted_by)));
+        Assert.assertEquals(Arrays.asList(4, 3), ids(messages.getMessagesByUserId(posted_by, 100, 250, 2)));
+        Assert.assertEquals(Arrays.asList(4, 3), ids(messages.getMessagesByUserId(posted_by, 200, 200, 10)));
+        Assert.assertTrue(messages.getMessagesByUserId(posted_by, 300, 100, 10).isEmpty());
+        Assert.assertTrue(messages.getAllMessagesByUserId(99).isEmpty());
+    }
+
+    /**
+     * getMessagesByIds finds the ids that exist and ignores the others.
+     */
+    @Test
+    public void messagesByIds() {
+        insert(posted_by, "test message 1", 1669947792);
+        insert(posted_by, "test message 2", 1669947793);
+
+        Map<Integer, Message> found = messages.getMessagesByIds(Arrays.asList(2, 3, null, 1));
+        Assert.assertEquals(2, found.size());
+        Assert.assertEquals("test message 2", found.get(2).getMessage_text());
+        Assert.assertEquals("test message 1", found.get(1).getMessage_text());
+    }
+
+    /**
+     * Restoring a newer version of a message replaces it in the timeline, and restored ids are not handed out again.
+     */
+    @Test
+    public void restoreReplacesAndKeepsIdsTaken() {
+        messages.restore(new Message(3, posted_by, "restored", 100));
+        messages.restore(new Message(3, posted_by, "restored again", 100));
+        messages.restoreDeletion(7);
+
+        Assert.assertEquals(Collections.singletonList(3), ids(messages.getAllMessagesByUserId(posted_by)));
+        Assert.assertEquals("restored again", messages.getMessageById(3).getMessage_text());
+        Assert.assertEquals(8, insert(posted_by, "test message 8", 1669947792).getMessage_id());
+    }
+}
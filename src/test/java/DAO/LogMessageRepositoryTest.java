@@ -0,0 +1,153 @@
+package DAO;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import Model.Account;
+import Model.Message;
+
+public class LogMessageRepositoryTest {
+    private static final int SEGMENT_BYTES = 4096;
+    // long enough that the maintenance thread never compacts on its own during a test
+    private static final long FLUSH_MILLIS = 60_000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    Path directory;
+    InMemoryAccountRepository accounts;
+    int posted_by;
+    LogMessageRepository repository;
+
+    /**
+     * Before every test, open a repository on an empty directory, with one account to post as.
+     */
+    @Before
+    public void setUp() throws IOException {
+        directory = folder.newFolder("messages").toPath();
+        accounts = new InMemoryAccountRepository();
+        posted_by = accounts.insertAccount(new Account("testuser1", "password")).getAccount_id();
+        repository = new LogMessageRepository(accounts, directory, SEGMENT_BYTES, FLUSH_MILLIS);
+    }
+
+    @After
+    public void tearDown() {
+        repository.close();
+    }
+
+    private LogMessageRepository reopen() {
+        repository.close();
+        repository = new LogMessageRepository(accounts, directory, SEGMENT_BYTES, FLUSH_MILLIS);
+        return repository;
+    }
+
+    private Message insert(String text, long time_posted_epoch) {
+        return repository.insertMessage(new Message(posted_by, text, time_posted_epoch));
+    }
+
+    /**
+     * A restart reads back inserts, updates and deletes, and does not hand out the id of a deleted last message
+     * again.
+     */
+    @Test
+    public void restartRebuildsTheMessagesFromTheLog() {
+        insert("test message 1", 1669947792);
+        insert("test message 2", 1669947793);
+        insert("test message 3", 1669947794);
+        repository.updateMessageTextReturning(1, "updated message 1");
+        repository.deleteMessageById(3);
+        List<Message> before = repository.getAllMessages();
+
+        reopen();
+
+        Assert.assertEquals(before, repository.getAllMessages());
+        Assert.assertEquals(new Message(1, posted_by, "updated message 1", 1669947792), repository.getMessageById(1));
+        Assert.assertNull(repository.getMessageById(3));
+        List<Message> timeline = repository.getAllMessagesByUserId(posted_by);
+        Assert.assertEquals(2, timeline.size());
+        Assert.assertEquals(2, timeline.get(0).getMessage_id());
+        Assert.assertEquals(4, insert("test message 4", 1669947795).getMessage_id());
+    }
+
+    /**
+     * Compaction drops the records left behind by updates and deletes, keeps every live message, and the
+     * compacted log is what a restart reads.
+     */
+    @Test
+    public void compactionKeepsTheLiveMessagesAndShrinksTheLog() throws IOException {
+        for (int i = 1; i <= 100; i++) {
+            insert("test message " + i, 1669947792L + i);
+        }
+        for (int round = 0; round < 5; round++) {
+            for (int id = 1; id <= 100; id++) {
+                repository.updateMessageTextReturning(id, "update " + round + " of message " + id);
+            }
+        }
+        for (int id = 2; id <= 100; id += 2) {
+            repository.deleteMessageById(id);
+        }
+        List<Message> before = repository.getAllMessages();
+        long bytesBefore = repository.getLogBytes();
+
+        repository.compactIfWasteful();
+
+        Assert.assertTrue(repository.getLogBytes() < bytesBefore);
+        Assert.assertEquals(before, repository.getAllMessages());
+        Assert.assertEquals(before, reopen().getAllMessages());
+        // the deleted message 100 was the last id handed out
+        Assert.assertEquals(101, insert("test message 101", 1669947893).getMessage_id());
+    }
+
+    /**
+     * Inserts, updates and deletes made while compactions run are neither lost nor undone, before or after a
+     * restart.
+     */
+    @Test
+    public void writesDuringCompactionAreKept() throws Exception {
+        Map<Integer, Message> expected = new TreeMap<>();
+        AtomicBoolean done = new AtomicBoolean();
+        Thread writer = new Thread(() -> {
+            Random random = new Random(42);
+            for (int i = 0; i < 20_000; i++) {
+                int id = 1 + random.nextInt(Math.max(1, expected.size() + 10));
+                int operation = random.nextInt(10);
+                if (operation < 3) {
+                    Message inserted = insert("message " + i, 1669947792L + i);
+                    expected.put(inserted.getMessage_id(), inserted);
+                } else if (operation < 9) {
+                    Message updated = repository.updateMessageTextReturning(id, "update " + i);
+                    if (updated != null) expected.put(id, updated);
+                } else if (repository.deleteMessageById(id) != null) {
+                    expected.remove(id);
+                }
+            }
+            done.set(true);
+        });
+        writer.start();
+        int compactions = 0;
+        while (!done.get()) {
+            long bytesBefore = repository.getLogBytes();
+            repository.compactIfWasteful();
+            if (repository.getLogBytes() != bytesBefore) compactions++;
+        }
+        writer.join();
+
+        Assert.assertTrue("no compaction ran", compactions > 0);
+        List<Message> expectedMessages = new ArrayList<>(expected.values());
+        Assert.assertEquals(expectedMessages, repository.getAllMessages());
+        Assert.assertEquals(expectedMessages, reopen().getAllMessages());
+    }
+}
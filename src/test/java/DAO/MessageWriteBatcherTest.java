@@ -0,0 +1,149 @@
+package DAO;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Model.Account;
+import Model.Message;
+import Util.ConnectionUnavailableException;
+
+public class MessageWriteBatcherTest {
+    InMemoryAccountRepository accounts;
+    InMemoryMessageRepository messages;
+    int posted_by;
+    MessageWriteBatcher batcher;
+
+    /**
+     * Before every test, start with one account and no messages.
+     */
+    @Before
+    public void setUp() {
+        accounts = new InMemoryAccountRepository();
+        messages = new InMemoryMessageRepository(accounts);
+        posted_by = accounts.insertAccount(new Account("testuser1", "password")).getAccount_id();
+    }
+
+    /**
+     * After every test, stop the writer thread of the test's batcher.
+     */
+    @After
+    public void tearDown() {
+        if (batcher != null) batcher.close();
+    }
+
+    private List<CompletableFuture<Message>> submit(int count) {
+        List<CompletableFuture<Message>> futures = new ArrayList<>();
+        for (int i = 1; i <= count; i++) {
+            futures.add(batcher.submit(new Message(posted_by, "test message " + i, 1669947792L + i)));
+        }
+        return futures;
+    }
+
+    private static Message await(CompletableFuture<Message> future) throws Exception {
+        return future.get(5, TimeUnit.SECONDS);
+    }
+
+    /**
+     * A batch is written as soon as it holds maxRows messages, without waiting out maxDelayMillis.
+     */
+    @Test
+    public void flushesWhenMaxRowsIsReached() throws Exception {
+        batcher = new MessageWriteBatcher(messages, 4, 60_000, 100);
+
+        List<CompletableFuture<Message>> futures = submit(4);
+
+        for (int i = 0; i < 4; i++) {
+            Assert.assertEquals(i + 1, await(futures.get(i)).getMessage_id());
+        }
+        Assert.assertEquals(1, batcher.getFlushCount());
+        Assert.assertEquals(4, batcher.getRowCount());
+    }
+
+    /**
+     * A batch that never fills up is written once its first message has waited maxDelayMillis.
+     */
+    @Test
+    public void flushesWhenMaxDelayHasPassed() throws Exception {
+        batcher = new MessageWriteBatcher(messages, 100, 200, 100);
+
+        long start = System.nanoTime();
+        List<CompletableFuture<Message>> futures = submit(2);
+        Assert.assertEquals(1, await(futures.get(0)).getMessage_id());
+        Assert.assertEquals(2, await(futures.get(1)).getMessage_id());
+
+        Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(200));
+        Assert.assertEquals(1, batcher.getFlushCount());
+    }
+
+    /**
+     * A row that cannot be inserted completes its own future with null, and the rest of its batch is written.
+     */
+    @Test
+    public void failedRowDoesNotFailItsBatch() throws Exception {
+        batcher = new MessageWriteBatcher(messages, 3, 60_000, 100);
+
+        CompletableFuture<Message> first = batcher.submit(new Message(posted_by, "test message 1", 1669947792));
+        CompletableFuture<Message> missingAccount = batcher.submit(new Message(99, "no such account", 1669947793));
+        CompletableFuture<Message> last = batcher.submit(new Message(posted_by, "test message 3", 1669947794));
+
+        Assert.assertEquals("test message 1", await(first).getMessage_text());
+        Assert.assertNull(await(missingAccount));
+        Assert.assertEquals("test message 3", await(last).getMessage_text());
+        Assert.assertEquals(2, messages.getAllMessages().size());
+    }
+
+    /**
+     * When the repository cannot get a connection, every future of the batch fails with that same exception, so
+     * callers can still tell it apart from other failures.
+     */
+    @Test
+    public void connectionFailureFailsTheBatch() throws Exception {
+        ConnectionUnavailableException failure = new ConnectionUnavailableException(new SQLException("pool exhausted"));
+        batcher = new MessageWriteBatcher(new InMemoryMessageRepository(accounts) {
+            @Override
+            public List<Message> insertMessages(List<Message> insertMessages) {
+                throw failure;
+            }
+        }, 2, 60_000, 100);
+
+        for (CompletableFuture<Message> future : submit(2)) {
+            try {
+                await(future);
+                Assert.fail("the batch was written");
+            } catch (ExecutionException e) {
+                Assert.assertSame(failure, e.getCause());
+            }
+        }
+    }
+
+    /**
+     * close() writes the messages still waiting for their batch to fill, without waiting out maxDelayMillis, and
+     * later submits fail.
+     */
+    @Test
+    public void closeWritesPendingMessages() throws Exception {
+        batcher = new MessageWriteBatcher(messages, 100, 60_000, 100);
+        List<CompletableFuture<Message>> futures = submit(3);
+
+        long start = System.nanoTime();
+        batcher.close();
+
+        Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        for (int i = 0; i < 3; i++) {
+            Assert.assertTrue(futures.get(i).isDone());
+            Assert.assertEquals(i + 1, futures.get(i).get().getMessage_id());
+        }
+        Assert.assertEquals(3, messages.getAllMessages().size());
+        Assert.assertTrue(batcher.submit(new Message(posted_by, "too late", 1669947795))
+            .isCompletedExceptionally());
+    }
+}
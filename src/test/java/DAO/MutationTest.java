@@ -0,0 +1,112 @@
+package DAO;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import Model.Account;
+import Model.Message;
+
+public class MutationTest {
+
+    private static ByteBuffer smallBuffer() {
+        return ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * An account record decodes to the same account, with a UTF-8 username, and the buffer grows to fit it.
+     */
+    @Test
+    public void accountRoundTrip() {
+        Account account = new Account(7, "testuser1", "pässword");
+        ByteBuffer record = Mutation.encode(smallBuffer(), account);
+
+        Mutation mutation = Mutation.decode(record, record.position());
+        Assert.assertEquals(Mutation.ACCOUNT, mutation.kind);
+        Assert.assertEquals(7, mutation.id);
+        Assert.assertEquals(account, mutation.account);
+        Assert.assertNull(mutation.message);
+    }
+
+    /**
+     * An account with no password keeps it null.
+     */
+    @Test
+    public void nullPasswordRoundTrip() {
+        ByteBuffer record = Mutation.encode(smallBuffer(), new Account(7, "пользователь ✓", null));
+
+        // Account.equals() does not take a null password
+        Account account = Mutation.decode(record, 0).account;
+        Assert.assertEquals(7, account.getAccount_id());
+        Assert.assertEquals("пользователь ✓", account.getUsername());
+        Assert.assertNull(account.getPassword());
+    }
+
+    /**
+     * A message record decodes to the same message, with a UTF-8 text and a time that needs all 64 bits.
+     */
+    @Test
+    public void messageRoundTrip() {
+        Message message = new Message(123456, 42, "héllo wörld, 你好 😀", Long.MAX_VALUE - 1);
+        ByteBuffer record = Mutation.encode(smallBuffer(), message);
+
+        Mutation mutation = Mutation.decode(record, record.position());
+        Assert.assertEquals(Mutation.MESSAGE, mutation.kind);
+        Assert.assertEquals(123456, mutation.id);
+        Assert.assertEquals(message, mutation.message);
+        Assert.assertNull(mutation.account);
+    }
+
+    /**
+     * A message with no text keeps it null, rather than turning it into an empty string.
+     */
+    @Test
+    public void nullTextRoundTrip() {
+        ByteBuffer record = Mutation.encode(smallBuffer(), new Message(1, 2, null, 3));
+
+        Message message = Mutation.decode(record, 0).message;
+        Assert.assertNull(message.getMessage_text());
+        Assert.assertEquals(2, message.getPosted_by());
+        Assert.assertEquals(3, message.getTime_posted_epoch());
+    }
+
+    /**
+     * Deletion records keep their kind and id.
+     */
+    @Test
+    public void deletionRoundTrip() {
+        Mutation account = Mutation.decode(Mutation.encodeDeletion(smallBuffer(), Mutation.ACCOUNT_DELETED, 5), 0);
+        Mutation message = Mutation.decode(Mutation.encodeDeletion(smallBuffer(), Mutation.MESSAGE_DELETED, 6), 0);
+
+        Assert.assertEquals(Mutation.ACCOUNT_DELETED, account.kind);
+        Assert.assertEquals(5, account.id);
+        Assert.assertEquals(Mutation.MESSAGE_DELETED, message.kind);
+        Assert.assertEquals(6, message.id);
+    }
+
+    /**
+     * A record is decoded where it starts in a larger buffer, as in a log segment or a snapshot chunk, whatever its
+     * byte order.
+     */
+    @Test
+    public void decodesAtAnOffset() {
+        Message message = new Message(9, 8, "test message 1", 1669947792);
+        ByteBuffer buffer = ByteBuffer.allocate(256).order(ByteOrder.BIG_ENDIAN);
+        buffer.put(new byte[17]);
+        ByteBuffer record = Mutation.encode(buffer, message);
+
+        Assert.assertSame(buffer, record);
+        Assert.assertEquals(message, Mutation.decode(record, 17).message);
+    }
+
+    /**
+     * A byte that is no known kind is rejected instead of being read as some record.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownKindIsRejected() {
+        ByteBuffer record = ByteBuffer.allocate(5).order(ByteOrder.LITTLE_ENDIAN).put(0, (byte) 99);
+        Mutation.decode(record, 0);
+    }
+}
@@ -0,0 +1,173 @@
+package DAO;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Model.Account;
+import Model.Message;
+
+public class OffHeapMessageRepositoryTest {
+    // small enough that most tests spread the records over many chunks
+    private static final int CHUNK_BYTES = 256;
+
+    InMemoryAccountRepository accounts;
+    OffHeapMessageRepository messages;
+    int posted_by;
+
+    /**
+     * Before every test, start with one account and no messages.
+     */
+    @Before
+    public void setUp() {
+        accounts = new InMemoryAccountRepository();
+        posted_by = accounts.insertAccount(new Account("testuser1", "password")).getAccount_id();
+        messages = new OffHeapMessageRepository(accounts, CHUNK_BYTES);
+    }
+
+    private Message insert(String text, long time_posted_epoch) {
+        return messages.insertMessage(new Message(posted_by, text, time_posted_epoch));
+    }
+
+    private static String text(int i) {
+        // 1 to 70 characters, some of them more than one byte in UTF-8
+        StringBuilder text = new StringBuilder("message " + i + " ");
+        for (int c = 0; c < i % 60; c++) {
+            text.append("aé€😀".charAt(c % 3));
+        }
+        return text.toString();
+    }
+
+    /**
+     * Messages of many lengths, spread over many chunks, read back as they were written, by id, in pages, in
+     * timelines and streamed.
+     */
+    @Test
+    public void recordsAcrossChunksReadBack() throws Exception {
+        List<Message> expected = new ArrayList<>();
+        for (int i = 1; i <= 500; i++) {
+            expected.add(new Message(i, posted_by, text(i), 1669947792L + i));
+            Assert.assertEquals(i, insert(text(i), 1669947792L + i).getMessage_id());
+        }
+        Assert.assertTrue(messages.getOffHeapBytes() > 100 * CHUNK_BYTES);
+
+        Assert.assertEquals(expected, messages.getAllMessages());
+        Assert.assertEquals(expected.get(249), messages.getMessageById(250));
+        Assert.assertEquals(expected.subList(100, 110), messages.getMessagesAfterId(100, 10));
+        Assert.assertEquals(500, messages.getAllMessagesByUserId(posted_by).size());
+        List<Message> streamed = new ArrayList<>();
+        messages.streamAllMessages(message -> streamed.add(new Message(message.getMessage_id(),
+            message.getPosted_by(), message.getMessage_text(), message.getTime_posted_epoch())));
+        Assert.assertEquals(expected, streamed);
+    }
+
+    /**
+     * A text that fills a whole chunk, multi-byte characters and a null text are kept exactly; a record larger than
+     * a chunk is refused.
+     */
+    @Test
+    public void longUtf8AndNullTexts() {
+        // a record is 20 bytes of fields and the text
+        StringBuilder filling = new StringBuilder();
+        while (filling.length() < CHUNK_BYTES - 20) filling.append('x');
+        String utf8 = "héllo wörld, 你好, 😀";
+
+        Assert.assertEquals(filling.toString(), messages.getMessageById(insert(filling.toString(), 1).getMessage_id())
+            .getMessage_text());
+        Assert.assertEquals(utf8, messages.getMessageById(insert(utf8, 2).getMessage_id()).getMessage_text());
+        Assert.assertNull(messages.getMessageById(insert(null, 3).getMessage_id()).getMessage_text());
+        try {
+            insert(filling + "y", 4);
+            Assert.fail("a record larger than a chunk was stored");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    /**
+     * Compaction keeps every live message, with its latest text, and frees the room of the records left behind.
+     */
+    @Test
+    public void compactionKeepsTheSameContents() {
+        for (int i = 1; i <= 200; i++) {
+            insert(text(i), 1669947792L + i);
+        }
+        for (int id = 1; id <= 200; id += 3) {
+            messages.updateMessageTextReturning(id, "updated " + text(id));
+        }
+        for (int id = 2; id <= 200; id += 3) {
+            messages.deleteMessageById(id);
+        }
+        List<Message> before = messages.getAllMessages();
+        List<Message> timeline = messages.getAllMessagesByUserId(posted_by);
+        long bytesBefore = messages.getOffHeapBytes();
+
+        Assert.assertTrue(messages.compact());
+
+        Assert.assertTrue(messages.getOffHeapBytes() < bytesBefore);
+        Assert.assertEquals(before, messages.getAllMessages());
+        Assert.assertEquals(timeline, messages.getAllMessagesByUserId(posted_by));
+        Assert.assertEquals(201, insert("test message 201", 1669947993).getMessage_id());
+    }
+
+    /**
+     * The writes made while compactions run, on the background thread and on this one, are neither lost nor undone.
+     */
+    @Test
+    public void writesDuringCompactionAreKept() throws InterruptedException {
+        Map<Integer, Message> expected = new TreeMap<>();
+        AtomicBoolean done = new AtomicBoolean();
+        Thread writer = new Thread(() -> {
+            Random random = new Random(42);
+            for (int i = 0; i < 20_000; i++) {
+                int id = 1 + random.nextInt(expected.size() + 10);
+                int operation = random.nextInt(10);
+                if (operation < 3) {
+                    Message inserted = insert(text(i), 1669947792L + i);
+                    expected.put(inserted.getMessage_id(), inserted);
+                } else if (operation < 9) {
+                    Message updated = messages.updateMessageTextReturning(id, "update " + i);
+                    if (updated != null) expected.put(id, updated);
+                } else if (messages.deleteMessageById(id) != null) {
+                    expected.remove(id);
+                }
+            }
+            done.set(true);
+        });
+        writer.start();
+        while (!done.get()) {
+            messages.compact();
+        }
+        writer.join();
+        // let a compaction started by the last writes finish
+        while (!messages.compact()) {
+            Thread.sleep(10);
+        }
+
+        Assert.assertEquals(new ArrayList<>(expected.values()), messages.getAllMessages());
+    }
+
+    /**
+     * Cursors at the ends of the int range give empty pages instead of overflowing.
+     */
+    @Test
+    public void pagingCursorsAtTheEndsOfTheIntRange() {
+        for (int i = 1; i <= 3; i++) {
+            insert(text(i), 1669947792L + i);
+        }
+
+        Assert.assertEquals(Arrays.asList(3, 2), Arrays.asList(messages.getMessagesBeforeId(Integer.MAX_VALUE, 2)
+            .stream().map(Message::getMessage_id).toArray()));
+        Assert.assertTrue(messages.getMessagesBeforeId(1, 5).isEmpty());
+        Assert.assertTrue(messages.getMessagesBeforeId(Integer.MIN_VALUE, 5).isEmpty());
+        Assert.assertTrue(messages.getMessagesAfterId(Integer.MAX_VALUE, 5).isEmpty());
+        Assert.assertEquals(3, messages.getMessagesAfterId(Integer.MIN_VALUE, 5).size());
+    }
+}
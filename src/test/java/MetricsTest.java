@@ -0,0 +1,86 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Controller.SocialMediaController;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class MetricsTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient for interacting
+     * locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/metrics after GET localhost:8080/messages/1 twice and
+     * GET localhost:8080/messages/abc once
+     * 
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: Prometheus text with the status counts (the invalid id fails with 500) and latency histogram
+     *  of the route, the timing of the query behind it, the connection pool counters and the message cache
+     *  counters (the first request misses the cache, the second hits it)
+     */
+    @Test
+    public void getMetricsAfterRequests() throws IOException, InterruptedException {
+        HttpRequest getMessageRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/1"))
+                .build();
+        webClient.send(getMessageRequest, HttpResponse.BodyHandlers.ofString());
+        webClient.send(getMessageRequest, HttpResponse.BodyHandlers.ofString());
+        HttpRequest badRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/abc"))
+                .build();
+        webClient.send(badRequest, HttpResponse.BodyHandlers.ofString());
+
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/metrics"))
+                .build();
+        HttpResponse<String> response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+        int status = response.statusCode();
+        String body = response.body();
+
+        Assert.assertEquals(200, status);
+        Assert.assertTrue(body, body.contains("http_requests_total{route=\"GET /messages/{message_id}\",status=\"200\"} 2\n"));
+        Assert.assertTrue(body, body.contains("http_requests_total{route=\"GET /messages/{message_id}\",status=\"500\"} 1\n"));
+        Assert.assertTrue(body, body.contains("http_request_duration_seconds_count{route=\"GET /messages/{message_id}\"} 3\n"));
+        Assert.assertTrue(body, body.contains("http_request_duration_seconds_bucket{route=\"GET /messages/{message_id}\",le=\"+Inf\"} 3\n"));
+        Assert.assertTrue(body, body.contains("http_requests_in_flight{route=\"GET /messages/{message_id}\"} 0\n"));
+        Assert.assertTrue(body, body.contains("db_query_duration_seconds_count{sql=\"SELECT * FROM Message WHERE message_id = ?;\"}"));
+        Assert.assertTrue(body, body.contains("# TYPE db_pool_borrows_total counter\n"));
+        Assert.assertTrue(body, body.contains("db_pool_connections{state=\"active\"} "));
+        Assert.assertTrue(body, body.contains("# TYPE db_pool_statement_cache_hits_total counter\n"));
+        Assert.assertTrue(body, body.contains("db_pool_statement_cache_misses_total "));
+        Assert.assertTrue(body, body.contains("db_pool_statement_cache_evictions_total "));
+        Assert.assertTrue(body, body.contains("cache_hits_total{cache=\"message\"} 1\n"));
+        Assert.assertTrue(body, body.contains("cache_misses_total{cache=\"message\"} 1\n"));
+        Assert.assertTrue(body, body.contains("cache_size{cache=\"message\"} 1\n"));
+    }
+}
@@ -0,0 +1,113 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class RetrieveMessagesForUserRangeTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, add three more messages for user 1, restart the Javalin app, and
+     * create a new webClient and ObjectMapper for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        insertMessages();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/accounts/1/messages
+     * 
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: JSON representation of all messages of the user, newest first
+     */
+    @Test
+    public void getMessagesFromUserNewestFirst() throws IOException, InterruptedException {
+        List<Message> expectedResult = new ArrayList<>();
+        expectedResult.add(new Message(3, 1, "third", 1669947900));
+        expectedResult.add(new Message(4, 1, "second", 1669947850));
+        expectedResult.add(new Message(2, 1, "first", 1669947800));
+        expectedResult.add(new Message(1, 1, "test message 1", 1669947792));
+
+        Assert.assertEquals(expectedResult, getMessages(""));
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/accounts/1/messages?since_epoch=1669947800&limit=2
+     * 
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: the two newest messages posted at or after since_epoch
+     */
+    @Test
+    public void getMessagesFromUserInRange() throws IOException, InterruptedException {
+        List<Message> expectedResult = new ArrayList<>();
+        expectedResult.add(new Message(4, 1, "second", 1669947850));
+        expectedResult.add(new Message(2, 1, "first", 1669947800));
+
+        Assert.assertEquals(expectedResult, getMessages("?since_epoch=1669947800&until_epoch=1669947899&limit=2"));
+    }
+
+
+    private List<Message> getMessages(String query) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/accounts/1/messages" + query))
+                .build();
+        HttpResponse response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, response.statusCode());
+        return objectMapper.readValue(response.body().toString(), new TypeReference<List<Message>>(){});
+    }
+
+    private void insertMessages(){
+        try (Connection conn = ConnectionUtil.getConnection();
+                PreparedStatement ps = conn.prepareStatement(
+                        "insert into message (posted_by, message_text, time_posted_epoch) values (1, ?, ?)")) {
+                String[] texts = {"first", "third", "second"};
+                long[] times = {1669947800L, 1669947900L, 1669947850L};
+                for(int i = 0; i < texts.length; i++){
+                        ps.setString(1, texts[i]);
+                        ps.setLong(2, times[i]);
+                        ps.executeUpdate();
+                }
+        } catch (SQLException e) {
+                e.printStackTrace();
+        }
+    }
+
+}
@@ -0,0 +1,144 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Model.MessagePage;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class RetrieveMessagesPageTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, add four more messages, restart the Javalin app, and create a new
+     * webClient and ObjectMapper for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        insertMessages(4);
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Sending http requests to GET localhost:8080/messages?limit=2, following next_cursor as after_id
+     * 
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: pages of 2, 2 and 1 messages in ascending message_id order, the last one without a next_cursor
+     */
+    @Test
+    public void getMessagesPagesForward() throws IOException, InterruptedException {
+        MessagePage first = getPage("limit=2");
+        Assert.assertEquals(ids(1, 2), idsOf(first));
+        Assert.assertEquals(Integer.valueOf(2), first.getNext_cursor());
+
+        MessagePage second = getPage("limit=2&after_id=" + first.getNext_cursor());
+        Assert.assertEquals(ids(3, 4), idsOf(second));
+        Assert.assertEquals(Integer.valueOf(4), second.getNext_cursor());
+
+        MessagePage last = getPage("limit=2&after_id=" + second.getNext_cursor());
+        Assert.assertEquals(ids(5), idsOf(last));
+        Assert.assertNull(last.getNext_cursor());
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages?limit=3&before_id=5
+     * 
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: messages 4, 3 and 2, newest first, with next_cursor 2
+     */
+    @Test
+    public void getMessagesPageBackward() throws IOException, InterruptedException {
+        MessagePage page = getPage("limit=3&before_id=5");
+        Assert.assertEquals(ids(4, 3, 2), idsOf(page));
+        Assert.assertEquals(Integer.valueOf(2), page.getNext_cursor());
+        Assert.assertEquals(new Message(2, 1, "page message 1", 1669947800), page.getMessages().get(2));
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages?limit=0
+     * 
+     * Expected Response:
+     *  Status Code: 400
+     *  Response Body: 
+     */
+    @Test
+    public void getMessagesPageInvalidLimit() throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages?limit=0"))
+                .build();
+        HttpResponse response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+
+        Assert.assertEquals(400, response.statusCode());
+        Assert.assertTrue(response.body().toString().isEmpty());
+    }
+
+
+    private MessagePage getPage(String query) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages?" + query))
+                .build();
+        HttpResponse response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, response.statusCode());
+        return objectMapper.readValue(response.body().toString(), MessagePage.class);
+    }
+
+    private List<Integer> idsOf(MessagePage page){
+        List<Integer> ids = new ArrayList<>();
+        for(Message message : page.getMessages()){
+            ids.add(message.getMessage_id());
+        }
+        return ids;
+    }
+
+    private List<Integer> ids(Integer... ids){
+        return List.of(ids);
+    }
+
+    private void insertMessages(int count){
+        try (Connection conn = ConnectionUtil.getConnection();
+                PreparedStatement ps = conn.prepareStatement(
+                        "insert into message (posted_by, message_text, time_posted_epoch) values (1, ?, ?)")) {
+                for(int i = 1; i <= count; i++){
+                        ps.setString(1, "page message " + i);
+                        ps.setLong(2, 1669947800L + i - 1);
+                        ps.executeUpdate();
+                }
+        } catch (SQLException e) {
+                e.printStackTrace();
+        }
+    }
+
+}
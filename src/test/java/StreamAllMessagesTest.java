@@ -0,0 +1,158 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class StreamAllMessagesTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages?stream=json
+     * 
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: JSON represenation of a list of message objects
+     */
+    @Test
+    public void streamAllMessagesAsJsonArray() throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages?stream=json"))
+                .build();
+        HttpResponse response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+        int status = response.statusCode();
+
+        Assert.assertEquals(200, status);
+
+        List<Message> expectedResult = new ArrayList<>();
+        expectedResult.add(new Message(1, 1, "test message 1", 1669947792));
+        List<Message> actualResult = objectMapper.readValue(response.body().toString(), new TypeReference<List<Message>>(){});
+        Assert.assertEquals(expectedResult, actualResult);
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages?stream=ndjson
+     * 
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: one JSON message object per line, read by a query that shows in the query metrics
+     */
+    @Test
+    public void streamAllMessagesAsNdjson() throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages?stream=ndjson"))
+                .build();
+        HttpResponse response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+        int status = response.statusCode();
+
+        Assert.assertEquals(200, status);
+
+        String[] lines = response.body().toString().split("\n");
+        Assert.assertEquals(1, lines.length);
+        Message expectedResult = new Message(1, 1, "test message 1", 1669947792);
+        Assert.assertEquals(expectedResult, objectMapper.readValue(lines[0], Message.class));
+        String metrics = ConnectionUtil.getQueryMetrics().toPrometheusText();
+        Assert.assertTrue(metrics, metrics.contains("db_query_duration_seconds_count{sql=\"SELECT * FROM Message ORDER BY message_id;\"}"));
+        Assert.assertTrue(metrics, metrics.contains("db_query_duration_seconds_count{sql=\"SET LAZY_QUERY_EXECUTION TRUE\"}"));
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages?stream=json, and closing the database session of the
+     * query once the first part of the response has arrived.
+     * 
+     * Expected Response:
+     *  Status Code: 200, sent before the failure
+     *  Response Body: the messages read before the failure, in an array that is never closed, so it does not
+     *  parse as a list of messages
+     */
+    @Test
+    public void streamAllMessagesFailingPartWayIsNotValidJson() throws IOException, InterruptedException, SQLException {
+        try(Connection connection = ConnectionUtil.getConnection();
+            Statement statement = connection.createStatement()){
+            statement.executeUpdate("INSERT INTO Message (posted_by, message_text, time_posted_epoch) " +
+                "SELECT 1, REPEAT('streamed ', 25) || X, 1669947792 + X FROM SYSTEM_RANGE(1, 20000);");
+        }
+
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages?stream=json"))
+                .build();
+        HttpResponse<InputStream> response = webClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
+        Assert.assertEquals(200, response.statusCode());
+
+        String body;
+        try(InputStream in = response.body()){
+            byte[] first = in.readNBytes(1024);
+            abortOtherSessions();
+            try{
+                body = new String(first, StandardCharsets.UTF_8) + new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            }catch(IOException e){
+                // the server may also abort the connection instead of ending the body
+                return;
+            }
+        }
+
+        Assert.assertTrue(body.startsWith("[{"));
+        Assert.assertFalse(body.endsWith("]"));
+        try{
+            objectMapper.readValue(body, new TypeReference<List<Message>>(){});
+            Assert.fail("a truncated stream parsed as a complete list");
+        }catch(JsonProcessingException expected){
+        }
+    }
+
+    // close every database session but this one, the streaming query's among them. The idle connections closed
+    // too are thrown away by the pool's validation once they have been idle for 500 ms.
+    private static void abortOtherSessions() throws SQLException, InterruptedException {
+        try(Connection connection = ConnectionUtil.getConnection();
+            Statement statement = connection.createStatement()){
+            statement.execute("SELECT ABORT_SESSION(SESSION_ID) FROM INFORMATION_SCHEMA.SESSIONS " +
+                "WHERE SESSION_ID <> SESSION_ID();");
+        }
+        Thread.sleep(600);
+    }
+}
@@ -119,4 +119,39 @@ public class UserLoginTest {
         Assert.assertEquals("", response.body().toString());
 
     }
+
+    /**
+     * Sending an http request to POST localhost:8080/login for a username that does not exist yet, then registering
+     * it with POST localhost:8080/register, then logging in again
+     * 
+     * Expected Response:
+     *  Status Code: 401, then 200 for the register and 200 for the second login, straight away
+     *  Response Body: JSON representation of the new user object
+     */
+    @Test
+    public void loginSucceedsRightAfterRegister() throws IOException, InterruptedException {
+        String body = "{" +
+                "\"username\": \"testuser2\", " +
+                "\"password\": \"password\" }";
+        HttpRequest loginRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/login"))
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .header("Content-Type", "application/json")
+                .build();
+        HttpRequest registerRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/register"))
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .header("Content-Type", "application/json")
+                .build();
+
+        // caches testuser2 as missing
+        Assert.assertEquals(401, webClient.send(loginRequest, HttpResponse.BodyHandlers.ofString()).statusCode());
+        Assert.assertEquals(200, webClient.send(registerRequest, HttpResponse.BodyHandlers.ofString()).statusCode());
+        HttpResponse response = webClient.send(loginRequest, HttpResponse.BodyHandlers.ofString());
+
+        Assert.assertEquals(200, response.statusCode());
+        Account expectedResult = new Account(2, "testuser2", "password");
+        Account actualResult = objectMapper.readValue(response.body().toString(), Account.class);
+        Assert.assertEquals(expectedResult, actualResult);
+    }
 }
@@ -0,0 +1,177 @@
+package Util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ConcurrentIntMapTest {
+
+    // ConcurrentIntMap's hash, to pick keys that land in chosen slots
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static void assertSameEntries(Map<Integer, String> expected, ConcurrentIntMap<String> map, int maxKey) {
+        Assert.assertEquals(expected.size(), map.size());
+        for (int key = -maxKey; key <= maxKey; key++) {
+            Assert.assertEquals("key " + key, expected.get(key), map.get(key));
+        }
+        List<String> values = map.values();
+        values.sort(null);
+        List<String> expectedValues = new ArrayList<>(expected.values());
+        expectedValues.sort(null);
+        Assert.assertEquals(expectedValues, values);
+    }
+
+    /**
+     * Random puts, removes and updates, over few enough keys that most removes hit and the tables grow and shrink
+     * their load many times, give the same entries as a HashMap.
+     */
+    @Test
+    public void randomOperationsMatchHashMap() {
+        Random random = new Random(42);
+        ConcurrentIntMap<String> map = new ConcurrentIntMap<>();
+        Map<Integer, String> expected = new HashMap<>();
+        int maxKey = 2000;
+        for (int i = 0; i < 200_000; i++) {
+            int key = random.nextInt(2 * maxKey + 1) - maxKey;
+            String value = "value " + i;
+            switch (random.nextInt(5)) {
+                case 0:
+                case 1:
+                    Assert.assertEquals(expected.put(key, value), map.put(key, value));
+                    break;
+                case 2:
+                    Assert.assertEquals(expected.remove(key), map.remove(key));
+                    break;
+                case 3:
+                    Assert.assertEquals(expected.putIfAbsent(key, value), map.putIfAbsent(key, value));
+                    break;
+                default:
+                    Assert.assertEquals(expected.computeIfPresent(key, (k, v) -> v + "!"),
+                        map.computeIfPresent(key, v -> v + "!"));
+            }
+            if (i % 20_000 == 0) assertSameEntries(expected, map, maxKey);
+        }
+        assertSameEntries(expected, map, maxKey);
+
+        // grow well past the initial tables, then empty them again
+        for (int key = 0; key < 100_000; key++) {
+            Assert.assertEquals(expected.put(key, "grown " + key), map.put(key, "grown " + key));
+        }
+        assertSameEntries(expected, map, 100_000);
+        for (int key = -maxKey; key < 100_000; key++) {
+            Assert.assertEquals(expected.remove(key), map.remove(key));
+        }
+        Assert.assertEquals(0, map.size());
+        Assert.assertNull(map.get(42));
+    }
+
+    /**
+     * Keys whose home is the last slot of a segment's table probe round to its first slots; removing them in any
+     * order must move back the entries that wrapped around, and only those.
+     */
+    @Test
+    public void removalsWrapAroundTheEndOfTheTable() {
+        // keys of segment 0 whose home is one of the last two or the first slot of the initial 16-slot table
+        List<Integer> keys = new ArrayList<>();
+        int[] wanted = { 15, 15, 15, 14, 0, 0, 15, 1 };
+        for (int home : wanted) {
+            for (int key = 1; ; key++) {
+                int hash = hash(key);
+                if (hash >>> 28 == 0 && (hash & 15) == home && !keys.contains(key)) {
+                    keys.add(key);
+                    break;
+                }
+            }
+        }
+
+        Random random = new Random(7);
+        for (int round = 0; round < 200; round++) {
+            ConcurrentIntMap<String> map = new ConcurrentIntMap<>();
+            Map<Integer, String> expected = new HashMap<>();
+            List<Integer> order = new ArrayList<>(keys);
+            Collections.shuffle(order, random);
+            for (int key : order) {
+                map.put(key, "value " + key);
+                expected.put(key, "value " + key);
+            }
+            Collections.shuffle(order, random);
+            for (int key : order) {
+                Assert.assertEquals(expected.remove(key), map.remove(key));
+                for (int other : keys) {
+                    Assert.assertEquals("key " + other + " after removing " + key, expected.get(other), map.get(other));
+                }
+                Assert.assertEquals(expected.size(), map.size());
+            }
+        }
+    }
+
+    /**
+     * Readers running alongside writers, optimistic reads included, only ever see a value that was put for the key
+     * they asked for, and the map ends up with what each writer last put.
+     */
+    @Test
+    public void concurrentReadersSeeOnlyValuesOfTheirKey() throws InterruptedException {
+        ConcurrentIntMap<long[]> map = new ConcurrentIntMap<>();
+        int writers = 2;
+        int keys = 5000;
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<String> failure = new AtomicReference<>();
+        List<Map<Integer, Long>> expected = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+
+        for (int w = 0; w < writers; w++) {
+            int writer = w;
+            Map<Integer, Long> written = new HashMap<>();
+            expected.add(written);
+            threads.add(new Thread(() -> {
+                Random random = new Random(writer);
+                for (long version = 0; version < 300_000; version++) {
+                    // each writer owns the keys congruent to its number
+                    int key = random.nextInt(keys / writers) * writers + writer;
+                    if (random.nextInt(4) == 0) {
+                        map.remove(key);
+                        written.remove(key);
+                    } else {
+                        map.put(key, new long[] { key, version });
+                        written.put(key, version);
+                    }
+                }
+            }));
+        }
+        for (int r = 0; r < 2; r++) {
+            threads.add(new Thread(() -> {
+                Random random = new Random();
+                while (!done.get()) {
+                    int key = random.nextInt(keys);
+                    long[] value = map.get(key);
+                    if (value != null && value[0] != key) failure.set("got the value of " + value[0] + " for " + key);
+                }
+            }));
+        }
+        for (Thread thread : threads) thread.start();
+        for (int w = 0; w < writers; w++) threads.get(w).join();
+        done.set(true);
+        for (Thread thread : threads) thread.join();
+
+        Assert.assertNull(failure.get());
+        int size = 0;
+        for (Map<Integer, Long> written : expected) {
+            size += written.size();
+            for (Map.Entry<Integer, Long> entry : written.entrySet()) {
+                Assert.assertEquals((long) entry.getValue(), map.get(entry.getKey())[1]);
+            }
+        }
+        Assert.assertEquals(size, map.size());
+    }
+}
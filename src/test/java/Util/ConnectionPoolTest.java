@@ -0,0 +1,389 @@
+package Util;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import javax.sql.DataSource;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ConnectionPoolTest {
+    private static final AtomicInteger databases = new AtomicInteger();
+
+    JdbcDataSource h2;
+    // isValid() calls on the physical connections, which the pool makes when validating an idle connection
+    AtomicInteger validations;
+    DataSource dataSource;
+    ConnectionPool pool;
+
+    /**
+     * Before every test, point a counting DataSource at a fresh in-memory database.
+     */
+    @Before
+    public void setUp() {
+        h2 = new JdbcDataSource();
+        h2.setURL("jdbc:h2:mem:pool" + databases.incrementAndGet() + ";DB_CLOSE_DELAY=-1");
+        validations = new AtomicInteger();
+        dataSource = (DataSource) Proxy.newProxyInstance(DataSource.class.getClassLoader(),
+            new Class<?>[] { DataSource.class }, (proxy, method, args) -> {
+                Object result = invoke(h2, method, args);
+                return method.getName().equals("getConnection") ? counting((Connection) result) : result;
+            });
+    }
+
+    @After
+    public void tearDown() {
+        if (pool != null) pool.close();
+    }
+
+    private Connection counting(Connection physical) {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+            new Class<?>[] { Connection.class }, (proxy, method, args) -> {
+                if (method.getName().equals("isValid")) validations.incrementAndGet();
+                return invoke(physical, method, args);
+            });
+    }
+
+    private static Object invoke(Object target, java.lang.reflect.Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private ConnectionPool newPool(int minSize, int maxSize, long idleTimeoutMillis, long borrowTimeoutMillis) {
+        return new ConnectionPool(dataSource, minSize, maxSize, idleTimeoutMillis, borrowTimeoutMillis, 0, 8,
+            new QueryMetrics(-1));
+    }
+
+    // one connection, so every borrow gets the same physical connection and statement cache
+    private ConnectionPool newStatementCachePool(int statementCacheSize) {
+        return new ConnectionPool(dataSource, 0, 1, 60_000, 1000, 0, statementCacheSize, new QueryMetrics(-1));
+    }
+
+    // the driver's statement behind the pool's proxy
+    private static PreparedStatement physical(PreparedStatement statement) throws SQLException {
+        return statement.unwrap(PreparedStatement.class);
+    }
+
+    private static void awaitTrue(String what, BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) Assert.fail("timed out waiting until " + what);
+            Thread.sleep(50);
+        }
+    }
+
+    /**
+     * With every connection borrowed, borrow() gives up after borrowTimeoutMillis with an SQLException and counts
+     * the timeout.
+     */
+    @Test
+    public void borrowTimesOutWhenPoolIsExhausted() throws SQLException {
+        pool = newPool(0, 1, 60_000, 200);
+        try (Connection held = pool.borrow()) {
+            long start = System.nanoTime();
+            try {
+                pool.borrow();
+                Assert.fail("borrow() should have timed out");
+            } catch (SQLException expected) {
+                long waitedMillis = (System.nanoTime() - start) / 1_000_000;
+                Assert.assertTrue("waited " + waitedMillis + " ms", waitedMillis >= 150);
+            }
+        }
+        Assert.assertEquals(1, pool.statistics().getTimeoutCount());
+        // the connection given back is free again
+        pool.borrow().close();
+    }
+
+    /**
+     * Connections idle longer than idleTimeoutMillis are closed by the housekeeper, down to minSize and no further.
+     */
+    @Test
+    public void idleConnectionsAreEvictedDownToMinSize() throws SQLException, InterruptedException {
+        pool = newPool(1, 3, 100, 1000);
+        Connection first = pool.borrow();
+        Connection second = pool.borrow();
+        Connection third = pool.borrow();
+        Assert.assertEquals(3, pool.statistics().getTotalConnections());
+        first.close();
+        second.close();
+        third.close();
+
+        awaitTrue("idle connections are evicted", () -> pool.statistics().getTotalConnections() == 1);
+        Thread.sleep(1500);
+        Assert.assertEquals(1, pool.statistics().getTotalConnections());
+        Assert.assertEquals(2, pool.statistics().getDestroyedCount());
+    }
+
+    /**
+     * The housekeeper opens connections until minSize are open, also after some were lost.
+     */
+    @Test
+    public void housekeeperTopsUpToMinSize() throws SQLException, InterruptedException {
+        // the housekeeper runs every idleTimeoutMillis / 2, and at least a second apart
+        pool = newPool(2, 4, 2000, 1000);
+        awaitTrue("the pool is filled to minSize", () -> pool.statistics().getIdleConnections() == 2);
+
+        // break both idle connections behind the pool's back, so borrowing destroys them
+        Connection borrowed = pool.borrow();
+        Connection other = pool.borrow();
+        borrowed.unwrap(Connection.class).close();
+        other.unwrap(Connection.class).close();
+        borrowed.close();
+        other.close();
+        Assert.assertEquals(0, pool.statistics().getTotalConnections());
+
+        awaitTrue("the pool is topped up to minSize", () -> pool.statistics().getIdleConnections() == 2);
+    }
+
+    /**
+     * A connection given back less than 500 ms ago is handed out again without a round trip to the database;
+     * one idle for longer is validated with isValid() first, and replaced if it is broken.
+     */
+    @Test
+    public void idleConnectionIsValidatedAfter500Millis() throws SQLException, InterruptedException {
+        pool = newPool(0, 1, 60_000, 1000);
+        pool.borrow().close();
+        pool.borrow().close();
+        Assert.assertEquals(0, validations.get());
+
+        Thread.sleep(600);
+        pool.borrow().close();
+        Assert.assertEquals(1, validations.get());
+        Assert.assertEquals(0, pool.statistics().getValidationFailureCount());
+
+        // the database drops the connection while it sits idle in the pool
+        Connection connection = pool.borrow();
+        Connection physical = connection.unwrap(Connection.class);
+        connection.close();
+        physical.close();
+        Thread.sleep(600);
+        try (Connection replacement = pool.borrow()) {
+            Assert.assertFalse(replacement.isClosed());
+        }
+        Assert.assertEquals(1, pool.statistics().getValidationFailureCount());
+        Assert.assertEquals(2, pool.statistics().getCreatedCount());
+    }
+
+    /**
+     * A connection given back in the middle of a transaction is rolled back and set to auto-commit again, so the
+     * next borrower neither sees the work nor inherits the transaction.
+     */
+    @Test
+    public void givenBackConnectionIsRolledBackAndAutoCommitAgain() throws SQLException {
+        pool = newPool(0, 1, 60_000, 1000);
+        try (Connection connection = pool.borrow(); Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE t (x INT)");
+        }
+
+        Connection connection = pool.borrow();
+        connection.setAutoCommit(false);
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("INSERT INTO t VALUES (1)");
+        }
+        connection.close();
+        Assert.assertTrue(connection.isClosed());
+
+        try (Connection next = pool.borrow(); Statement statement = next.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM t")) {
+            Assert.assertTrue(next.getAutoCommit());
+            rs.next();
+            Assert.assertEquals(0, rs.getInt(1));
+        }
+        // the same physical connection, not a new one
+        Assert.assertEquals(1, pool.statistics().getCreatedCount());
+    }
+
+    /**
+     * Preparing the same SQL again, on the same or a later borrow of the connection, hands out the statement
+     * prepared the first time, and counts a hit.
+     */
+    @Test
+    public void cachedStatementIsReused() throws SQLException {
+        pool = newStatementCachePool(8);
+        PreparedStatement first;
+        try (Connection connection = pool.borrow(); PreparedStatement statement = connection.prepareStatement("SELECT ?")) {
+            first = physical(statement);
+        }
+        try (Connection connection = pool.borrow(); PreparedStatement statement = connection.prepareStatement("SELECT ?")) {
+            Assert.assertSame(first, physical(statement));
+            statement.setInt(1, 42);
+            try (ResultSet rs = statement.executeQuery()) {
+                rs.next();
+                Assert.assertEquals(42, rs.getInt(1));
+            }
+        }
+        Assert.assertFalse(first.isClosed());
+        Assert.assertEquals(1, pool.statistics().getStatementHitCount());
+        Assert.assertEquals(1, pool.statistics().getStatementMissCount());
+    }
+
+    /**
+     * Closing a cached statement clears its parameters, its batch and its fetch size, so the next user cannot run
+     * with what the previous one left behind.
+     */
+    @Test
+    public void releasedStatementIsReset() throws SQLException {
+        pool = newStatementCachePool(8);
+        try (Connection connection = pool.borrow(); Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE t (x INT)");
+        }
+        int defaultFetchSize;
+        try (Connection connection = pool.borrow();
+             PreparedStatement statement = connection.prepareStatement("INSERT INTO t VALUES (?)")) {
+            defaultFetchSize = statement.getFetchSize();
+            statement.setFetchSize(defaultFetchSize + 7);
+            statement.setInt(1, 1);
+            statement.addBatch();
+            statement.setInt(1, 2);
+        }
+
+        try (Connection connection = pool.borrow();
+             PreparedStatement statement = connection.prepareStatement("INSERT INTO t VALUES (?)")) {
+            Assert.assertEquals(1, pool.statistics().getStatementHitCount());
+            Assert.assertEquals(defaultFetchSize, statement.getFetchSize());
+            Assert.assertEquals(0, statement.executeBatch().length);
+            try {
+                statement.executeUpdate();
+                Assert.fail("the parameter set by the previous user was kept");
+            } catch (SQLException expected) {
+            }
+        }
+        try (Connection connection = pool.borrow(); Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM t")) {
+            rs.next();
+            Assert.assertEquals(0, rs.getInt(1));
+        }
+    }
+
+    /**
+     * Preparing SQL whose cached statement is still open gets a statement of its own, closed for real when it is
+     * closed, and leaves the cached one to its user.
+     */
+    @Test
+    public void nestedOpenOfTheSameSqlGetsItsOwnStatement() throws SQLException {
+        pool = newStatementCachePool(8);
+        try (Connection connection = pool.borrow()) {
+            PreparedStatement outer = connection.prepareStatement("SELECT ?");
+            PreparedStatement inner = connection.prepareStatement("SELECT ?");
+            PreparedStatement outerPhysical = physical(outer);
+            PreparedStatement innerPhysical = physical(inner);
+            Assert.assertNotSame(outerPhysical, innerPhysical);
+
+            outer.setInt(1, 1);
+            inner.setInt(1, 2);
+            try (ResultSet rs = outer.executeQuery()) {
+                rs.next();
+                Assert.assertEquals(1, rs.getInt(1));
+            }
+            inner.close();
+            Assert.assertTrue(innerPhysical.isClosed());
+            Assert.assertFalse(outerPhysical.isClosed());
+            outer.close();
+
+            try (PreparedStatement again = connection.prepareStatement("SELECT ?")) {
+                Assert.assertSame(outerPhysical, physical(again));
+            }
+        }
+        Assert.assertEquals(1, pool.statistics().getStatementHitCount());
+        Assert.assertEquals(2, pool.statistics().getStatementMissCount());
+    }
+
+    /**
+     * A full statement cache evicts the least recently used statement and closes it, at once if it is free or when
+     * its user closes it otherwise.
+     */
+    @Test
+    public void evictedStatementIsClosed() throws SQLException {
+        pool = newStatementCachePool(2);
+        try (Connection connection = pool.borrow()) {
+            PreparedStatement a;
+            PreparedStatement b;
+            try (PreparedStatement statement = connection.prepareStatement("SELECT 1")) {
+                a = physical(statement);
+            }
+            try (PreparedStatement statement = connection.prepareStatement("SELECT 2")) {
+                b = physical(statement);
+            }
+            // SELECT 1 is now more recently used than SELECT 2
+            connection.prepareStatement("SELECT 1").close();
+            connection.prepareStatement("SELECT 3").close();
+
+            Assert.assertTrue(b.isClosed());
+            Assert.assertFalse(a.isClosed());
+            Assert.assertEquals(1, pool.statistics().getStatementEvictionCount());
+
+            // evicted while open: still usable until it is closed
+            PreparedStatement open = connection.prepareStatement("SELECT 1");
+            connection.prepareStatement("SELECT 4").close();
+            connection.prepareStatement("SELECT 5").close();
+            Assert.assertFalse(a.isClosed());
+            try (ResultSet rs = open.executeQuery()) {
+                rs.next();
+                Assert.assertEquals(1, rs.getInt(1));
+            }
+            open.close();
+            Assert.assertTrue(a.isClosed());
+            Assert.assertEquals(3, pool.statistics().getStatementEvictionCount());
+        }
+    }
+
+    /**
+     * Statements from createStatement() are timed too, keyed by the SQL of each execute call.
+     */
+    @Test
+    public void plainStatementsAreTimed() throws SQLException {
+        QueryMetrics queryMetrics = new QueryMetrics(-1);
+        pool = new ConnectionPool(dataSource, 0, 1, 60_000, 1000, 0, 8, queryMetrics);
+        try (Connection connection = pool.borrow(); Statement statement = connection.createStatement()) {
+            statement.execute("SET LAZY_QUERY_EXECUTION TRUE");
+            try (ResultSet rs = statement.executeQuery("SELECT 7")) {
+                rs.next();
+                Assert.assertEquals(7, rs.getInt(1));
+            }
+            statement.execute("SET LAZY_QUERY_EXECUTION FALSE");
+        }
+
+        String text = queryMetrics.toPrometheusText();
+        String count = "db_query_duration_seconds_count{sql=";
+        Assert.assertTrue(text, text.contains(count + "\"SET LAZY_QUERY_EXECUTION TRUE\"} 1\n"));
+        Assert.assertTrue(text, text.contains(count + "\"SELECT 7\"} 1\n"));
+    }
+
+    /**
+     * Statements the borrower did not close are closed when the connection is given back, a cached one by putting it
+     * back in the cache, so the next borrower reuses it instead of preparing a new one.
+     */
+    @Test
+    public void statementsLeftOpenAreClosedOnGiveBack() throws SQLException {
+        pool = newStatementCachePool(8);
+        Connection connection = pool.borrow();
+        PreparedStatement cached = connection.prepareStatement("SELECT ?");
+        Statement plain = connection.createStatement();
+        PreparedStatement cachedPhysical = physical(cached);
+        Statement plainPhysical = plain.unwrap(Statement.class);
+        connection.close();
+
+        Assert.assertTrue(cached.isClosed());
+        Assert.assertTrue(plainPhysical.isClosed());
+        Assert.assertFalse(cachedPhysical.isClosed());
+        try (Connection next = pool.borrow(); PreparedStatement statement = next.prepareStatement("SELECT ?")) {
+            Assert.assertSame(cachedPhysical, physical(statement));
+        }
+        Assert.assertEquals(1, pool.statistics().getStatementHitCount());
+        Assert.assertEquals(1, pool.statistics().getStatementMissCount());
+    }
+}
@@ -0,0 +1,79 @@
+package Util;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class IntLongIndexTest {
+
+    /**
+     * Keys never set, and keys that are not positive, have no value.
+     */
+    @Test
+    public void unsetKeysHaveNoValue() {
+        IntLongIndex index = new IntLongIndex();
+        index.set(5, 50);
+
+        Assert.assertEquals(IntLongIndex.NONE, index.get(4));
+        Assert.assertEquals(IntLongIndex.NONE, index.get(0));
+        Assert.assertEquals(IntLongIndex.NONE, index.get(-5));
+        Assert.assertEquals(IntLongIndex.NONE, index.get(Integer.MIN_VALUE));
+        Assert.assertEquals(IntLongIndex.NONE, index.get(Integer.MAX_VALUE));
+        Assert.assertEquals(50, index.get(5));
+    }
+
+    /**
+     * Values are kept on both sides of page boundaries, and setting NONE removes one.
+     */
+    @Test
+    public void valuesAcrossPages() {
+        IntLongIndex index = new IntLongIndex();
+        int[] keys = { 1, 65535, 65536, 65537, 131072, 1 << 24, Integer.MAX_VALUE };
+        for (int key : keys) {
+            index.set(key, (long) key << 8);
+        }
+        for (int key : keys) {
+            Assert.assertEquals((long) key << 8, index.get(key));
+        }
+        index.set(65536, IntLongIndex.NONE);
+        Assert.assertEquals(IntLongIndex.NONE, index.get(65536));
+        Assert.assertEquals(65535L << 8, index.get(65535));
+        // removing from a page that was never created leaves it so
+        index.set(3 << 16, IntLongIndex.NONE);
+        Assert.assertEquals(IntLongIndex.NONE, index.get(3 << 16));
+    }
+
+    /**
+     * Random sets give the same values as a HashMap.
+     */
+    @Test
+    public void randomSetsMatchHashMap() {
+        IntLongIndex index = new IntLongIndex();
+        Map<Integer, Long> expected = new HashMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 100_000; i++) {
+            int key = 1 + random.nextInt(300_000);
+            long value = random.nextInt(4) == 0 ? IntLongIndex.NONE : random.nextLong() & Long.MAX_VALUE;
+            index.set(key, value);
+            if (value == IntLongIndex.NONE) {
+                expected.remove(key);
+            } else {
+                expected.put(key, value);
+            }
+        }
+        for (int key = 1; key <= 300_000; key++) {
+            Assert.assertEquals(expected.getOrDefault(key, IntLongIndex.NONE).longValue(), index.get(key));
+        }
+    }
+
+    /**
+     * A key that is not positive cannot be set.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void keysMustBePositive() {
+        new IntLongIndex().set(0, 1);
+    }
+}
@@ -0,0 +1,119 @@
+package Util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LruCacheTest {
+
+    /**
+     * A load that an invalidation of its key overtakes is returned to its caller but not cached, so the stale value
+     * it read cannot outlive the invalidation; neither does it replace a newer value put meanwhile.
+     */
+    @Test
+    public void loadDoesNotOverwriteAnInvalidation() {
+        LruCache<Integer, String> cache = new LruCache<>(100, 60_000);
+
+        // the loader stands in for a read that an update and its invalidation race past
+        Assert.assertEquals("old", cache.getOrLoad(1, key -> {
+            cache.invalidate(key);
+            return "old";
+        }));
+        Assert.assertNull(cache.get(1));
+
+        Assert.assertEquals("old", cache.getOrLoad(2, key -> {
+            cache.put(key, "new");
+            return "old";
+        }));
+        Assert.assertEquals("new", cache.get(2));
+
+        Map<Integer, String> loaded = cache.getAllOrLoad(Arrays.asList(3), keys -> {
+            cache.invalidate(3);
+            Map<Integer, String> values = new HashMap<>();
+            values.put(3, "old");
+            return values;
+        });
+        Assert.assertEquals("old", loaded.get(3));
+        Assert.assertNull(cache.get(3));
+
+        // with nothing in between, the loaded value is cached
+        Assert.assertEquals("loaded", cache.getOrLoad(4, key -> "loaded"));
+        Assert.assertEquals("loaded", cache.getOrLoad(4, key -> "loaded again"));
+    }
+
+    /**
+     * An entry is served until its time to live has passed, then dropped and counted as expired, and a null load
+     * is never cached.
+     */
+    @Test
+    public void entriesExpireAfterTheirTimeToLive() throws InterruptedException {
+        LruCache<Integer, String> cache = new LruCache<>(100, 100);
+        cache.put(1, "value");
+        Assert.assertNull(cache.getOrLoad(2, key -> null));
+
+        Assert.assertEquals("value", cache.get(1));
+        Thread.sleep(200);
+        Assert.assertNull(cache.get(1));
+
+        CacheStatistics statistics = cache.statistics();
+        Assert.assertEquals(0, statistics.getSize());
+        Assert.assertEquals(1, statistics.getHitCount());
+        Assert.assertEquals(2, statistics.getMissCount());
+        Assert.assertEquals(1, statistics.getExpirationCount());
+    }
+
+    /**
+     * A full segment evicts its least recently used entry, and only from itself: keys of other segments stay.
+     */
+    @Test
+    public void fullSegmentEvictsItsLeastRecentlyUsedEntry() {
+        // 16 segments of 2 entries; Integer keys 0, 16 and 32 share segment 0, key 1 is in segment 1
+        LruCache<Integer, String> cache = new LruCache<>(32, 60_000);
+        cache.put(1, "one");
+        cache.put(0, "zero");
+        cache.put(16, "sixteen");
+        Assert.assertEquals("zero", cache.get(0));
+        cache.put(32, "thirty-two");
+
+        Assert.assertNull(cache.get(16));
+        Assert.assertEquals("zero", cache.get(0));
+        Assert.assertEquals("thirty-two", cache.get(32));
+        Assert.assertEquals("one", cache.get(1));
+        Assert.assertEquals(1, cache.statistics().getEvictionCount());
+        Assert.assertEquals(3, cache.size());
+    }
+
+    /**
+     * getAllOrLoad loads all missing keys with one call, and returns the values in the order the keys were asked
+     * for, cached or not, leaving out the keys that have none.
+     */
+    @Test
+    public void getAllOrLoadKeepsTheOrderOfTheKeys() {
+        LruCache<Integer, String> cache = new LruCache<>(100, 60_000);
+        cache.put(1, "cached 1");
+        cache.put(2, "cached 2");
+        List<Set<Integer>> loads = new ArrayList<>();
+
+        Map<Integer, String> result = cache.getAllOrLoad(Arrays.asList(5, 1, 4, 3, 2), keys -> {
+            loads.add(new HashSet<>(keys));
+            Map<Integer, String> values = new HashMap<>();
+            values.put(3, "loaded 3");
+            values.put(5, "loaded 5");
+            return values;
+        });
+
+        Assert.assertEquals(Arrays.asList(5, 1, 3, 2), new ArrayList<>(result.keySet()));
+        Assert.assertEquals(Arrays.asList("loaded 5", "cached 1", "loaded 3", "cached 2"),
+            new ArrayList<>(result.values()));
+        Assert.assertEquals(Arrays.asList(new HashSet<>(Arrays.asList(3, 4, 5))), loads);
+        Assert.assertEquals("loaded 3", cache.get(3));
+        Assert.assertNull(cache.get(4));
+    }
+}
@@ -0,0 +1,170 @@
+package Util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.exc.UnrecognizedPropertyException;
+
+import Model.Account;
+import Model.Message;
+
+public class ModelCodecModuleTest {
+    // the reflective bean codecs ModelCodecModule stands in for
+    private static final ObjectMapper BEAN = new ObjectMapper();
+
+    private static final List<Account> ACCOUNTS = Arrays.asList(
+        new Account(1, "testuser1", "password"),
+        new Account(0, null, null),
+        new Account(Integer.MAX_VALUE, "üsér \"quoted\" \\ \n 😀", "pässword"));
+
+    private static final List<Message> MESSAGES = Arrays.asList(
+        new Message(1, 1, "test message 1", 1669947792),
+        new Message(0, 0, null, 0),
+        new Message(Integer.MIN_VALUE, -1, "héllo wörld, 你好 😀 \t \u0001 </script>", Long.MAX_VALUE));
+
+    // Account and Message equals() do not take null fields, so compare what the bean codec makes of them
+    private static void assertSameFields(Object expected, Object actual) throws IOException {
+        Assert.assertEquals(BEAN.writeValueAsString(expected), BEAN.writeValueAsString(actual));
+    }
+
+    /**
+     * Accounts, messages and lists of messages are written to the same bytes as by the bean serializers, fields in
+     * the same order and null fields written as null.
+     */
+    @Test
+    public void serializersWriteTheSameBytes() throws IOException {
+        for (Account account : ACCOUNTS) {
+            Assert.assertArrayEquals(BEAN.writeValueAsBytes(account), JsonCodec.MAPPER.writeValueAsBytes(account));
+        }
+        for (Message message : MESSAGES) {
+            Assert.assertArrayEquals(BEAN.writeValueAsBytes(message), JsonCodec.MAPPER.writeValueAsBytes(message));
+        }
+        Assert.assertArrayEquals(BEAN.writeValueAsBytes(MESSAGES), JsonCodec.MAPPER.writeValueAsBytes(MESSAGES));
+        Assert.assertArrayEquals(BEAN.writeValueAsBytes(MESSAGES),
+            JsonCodec.INSTANCE.toJsonString(MESSAGES, List.class).getBytes("UTF-8"));
+
+        Assert.assertEquals("{\"account_id\":0,\"username\":null,\"password\":null}",
+            JsonCodec.MAPPER.writeValueAsString(ACCOUNTS.get(1)));
+        Assert.assertEquals("{\"message_id\":1,\"posted_by\":1,\"message_text\":\"test message 1\","
+            + "\"time_posted_epoch\":1669947792}", JsonCodec.MAPPER.writeValueAsString(MESSAGES.get(0)));
+    }
+
+    /**
+     * writeMessage, used to stream messages one by one, writes the same array as the bean serializer writes for the
+     * whole list.
+     */
+    @Test
+    public void streamedMessagesMatchTheBeanList() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JsonGenerator generator = JsonCodec.createGenerator(out)) {
+            generator.writeStartArray();
+            for (Message message : MESSAGES) {
+                ModelCodecModule.writeMessage(message, generator);
+            }
+            generator.writeEndArray();
+        }
+
+        Assert.assertArrayEquals(BEAN.writeValueAsBytes(MESSAGES), out.toByteArray());
+    }
+
+    /**
+     * Reading fields in any order, with nulls, missing fields, numbers given as strings and nulls for numbers gives
+     * the same objects as the bean deserializers.
+     */
+    @Test
+    public void deserializersReadTheSameObjects() throws IOException {
+        String[] messages = {
+            "{\"message_id\":1,\"posted_by\":2,\"message_text\":\"text\",\"time_posted_epoch\":3}",
+            "{\"time_posted_epoch\":9223372036854775807,\"message_text\":\"😀\",\"posted_by\":2,\"message_id\":1}",
+            "{\"posted_by\":2,\"message_text\":null}",
+            "{\"posted_by\":\"7\",\"time_posted_epoch\":\"8\",\"message_id\":null}",
+            "{}",
+        };
+        for (String json : messages) {
+            assertSameFields(BEAN.readValue(json, Message.class), JsonCodec.MESSAGE_READER.readValue(json));
+        }
+
+        String[] accounts = {
+            "{\"account_id\":1,\"username\":\"testuser1\",\"password\":\"password\"}",
+            "{\"password\":\"password\",\"username\":\"testuser1\"}",
+            "{\"username\":null,\"password\":null,\"account_id\":\"4\"}",
+        };
+        for (String json : accounts) {
+            assertSameFields(BEAN.readValue(json, Account.class), JsonCodec.ACCOUNT_READER.readValue(json));
+        }
+    }
+
+    /**
+     * An unknown property is rejected like the bean deserializers reject it, and skipped, value and all, like they
+     * skip it once FAIL_ON_UNKNOWN_PROPERTIES is off.
+     */
+    @Test
+    public void unknownPropertiesAreHandledLikeTheBeanCodecs() throws IOException {
+        String message = "{\"posted_by\":1,\"extra\":{\"nested\":[1,2]},\"message_text\":\"text\"}";
+        String account = "{\"username\":\"testuser1\",\"extra\":[true],\"password\":\"password\"}";
+
+        for (ObjectReader reader : new ObjectReader[] { BEAN.readerFor(Message.class), JsonCodec.MESSAGE_READER }) {
+            try {
+                reader.readValue(message);
+                Assert.fail("the unknown property was accepted");
+            } catch (UnrecognizedPropertyException expected) {
+                Assert.assertEquals("extra", expected.getPropertyName());
+            }
+        }
+        for (ObjectReader reader : new ObjectReader[] { BEAN.readerFor(Account.class), JsonCodec.ACCOUNT_READER }) {
+            try {
+                reader.readValue(account);
+                Assert.fail("the unknown property was accepted");
+            } catch (UnrecognizedPropertyException expected) {
+                Assert.assertEquals("extra", expected.getPropertyName());
+            }
+        }
+
+        assertSameFields(BEAN.readerFor(Message.class).without(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+                .readValue(message),
+            JsonCodec.MESSAGE_READER.without(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES).readValue(message));
+        assertSameFields(BEAN.readerFor(Account.class).without(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+                .readValue(account),
+            JsonCodec.ACCOUNT_READER.without(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES).readValue(account));
+    }
+
+    /**
+     * MESSAGE_LIST_READER, which reads the body of POST /messages/batch, reads the same list as the bean codecs,
+     * nulls and all, and rejects what they reject.
+     */
+    @Test
+    public void messageListReaderMatchesTheBeanCodecs() throws IOException {
+        String json = "[{\"posted_by\":1,\"message_text\":\"first\",\"time_posted_epoch\":1},null,"
+            + "{\"time_posted_epoch\":3,\"message_text\":null,\"posted_by\":2},{}]";
+        ObjectReader bean = BEAN.readerForListOf(Message.class);
+
+        List<Message> expected = bean.readValue(json);
+        List<Message> actual = JsonCodec.MESSAGE_LIST_READER.readValue(json);
+        Assert.assertEquals(4, actual.size());
+        Assert.assertNull(actual.get(1));
+        assertSameFields(expected, actual);
+
+        for (String invalid : new String[] { "[{\"posted_by\":1,\"extra\":1}]", "[1]", "[\"text\"]" }) {
+            boolean beanRejects = rejects(bean, invalid);
+            Assert.assertEquals(invalid, beanRejects, rejects(JsonCodec.MESSAGE_LIST_READER, invalid));
+        }
+    }
+
+    private static boolean rejects(ObjectReader reader, String json) {
+        try {
+            reader.readValue(json);
+            return false;
+        } catch (IOException e) {
+            return true;
+        }
+    }
+}
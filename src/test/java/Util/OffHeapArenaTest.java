@@ -0,0 +1,75 @@
+package Util;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class OffHeapArenaTest {
+
+    /**
+     * Ranges are handed out one after the other in a chunk, and one that does not fit in what is left starts the next
+     * chunk instead of spanning two.
+     */
+    @Test
+    public void rangesNeverSpanChunks() {
+        OffHeapArena arena = new OffHeapArena(100);
+
+        long first = arena.allocate(60);
+        long second = arena.allocate(40);
+        long third = arena.allocate(1);
+        long fourth = arena.allocate(99);
+        long fifth = arena.allocate(2);
+
+        Assert.assertEquals(0L, first);
+        Assert.assertEquals(60L, second);
+        Assert.assertEquals(1L << 32, third);
+        Assert.assertEquals((1L << 32) | 1, fourth);
+        Assert.assertEquals(2L << 32, fifth);
+        Assert.assertEquals(202, arena.getUsedBytes());
+        Assert.assertEquals(300, arena.getCapacityBytes());
+    }
+
+    /**
+     * What is written through buffer() and RecordBuffers.offset() stays there while later chunks are added.
+     */
+    @Test
+    public void writtenRangesKeepTheirBytes() {
+        OffHeapArena arena = new OffHeapArena(64);
+        long[] addresses = new long[100];
+        for (int i = 0; i < addresses.length; i++) {
+            addresses[i] = arena.allocate(24);
+            ByteBuffer buffer = arena.buffer(addresses[i]);
+            int at = RecordBuffers.offset(addresses[i]);
+            buffer.putInt(at, i);
+            buffer.putLong(at + 16, -i);
+        }
+        for (int i = 0; i < addresses.length; i++) {
+            ByteBuffer buffer = arena.buffer(addresses[i]);
+            int at = RecordBuffers.offset(addresses[i]);
+            Assert.assertEquals(i, buffer.getInt(at));
+            Assert.assertEquals(-i, buffer.getLong(at + 16));
+            Assert.assertTrue(buffer.isDirect());
+        }
+        Assert.assertEquals(50 * 64, arena.getCapacityBytes());
+    }
+
+    /**
+     * A range larger than a chunk, or a chunk size that is not positive, is rejected.
+     */
+    @Test
+    public void oversizedRangesAreRejected() {
+        OffHeapArena arena = new OffHeapArena(64);
+        Assert.assertEquals(0L, arena.allocate(64));
+        try {
+            arena.allocate(65);
+            Assert.fail("65 bytes were allocated in a chunk of 64");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            new OffHeapArena(0);
+            Assert.fail("an arena of empty chunks was created");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package Util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class RecordBuffersTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // the record at address starts at offset(address) in buffer(address), and its buffer is the one numbered by the
+    // high 32 bits
+    private static void assertAddressing(RecordBuffers records, long[] addresses, int[] lengths) {
+        for (int i = 0; i < addresses.length; i++) {
+            ByteBuffer buffer = records.buffer(addresses[i]);
+            int at = RecordBuffers.offset(addresses[i]);
+            Assert.assertTrue(at >= 0 && at + lengths[i] <= buffer.capacity());
+            Assert.assertEquals(i, buffer.getInt(at));
+            Assert.assertEquals((byte) i, buffer.get(at + lengths[i] - 1));
+            if (i > 0 && addresses[i] >>> 32 == addresses[i - 1] >>> 32) {
+                Assert.assertSame(records.buffer(addresses[i - 1]), buffer);
+            }
+        }
+    }
+
+    private static ByteBuffer record(int i, int length, ByteOrder order) {
+        ByteBuffer record = ByteBuffer.allocate(length).order(order);
+        record.putInt(0, i);
+        record.put(length - 1, (byte) i);
+        return record;
+    }
+
+    /**
+     * OffHeapArena addresses point at their records, across chunks.
+     */
+    @Test
+    public void offHeapArenaAddresses() {
+        OffHeapArena arena = new OffHeapArena(100);
+        int[] lengths = new int[50];
+        long[] addresses = new long[lengths.length];
+        for (int i = 0; i < lengths.length; i++) {
+            lengths[i] = 5 + i % 40;
+            addresses[i] = arena.allocate(lengths[i]);
+            ByteBuffer chunk = arena.buffer(addresses[i]);
+            // a duplicate is big-endian whatever the chunk is
+            ByteBuffer target = chunk.duplicate();
+            target.position(RecordBuffers.offset(addresses[i]));
+            target.put(record(i, lengths[i], chunk.order()));
+        }
+        assertAddressing(arena, addresses, lengths);
+    }
+
+    /**
+     * SegmentedLog addresses point at their payloads, across segments.
+     */
+    @Test
+    public void segmentedLogAddresses() throws IOException {
+        SegmentedLog log = SegmentedLog.open(folder.newFolder("log").toPath(), 100,
+            (segments, address, length) -> { });
+        int[] lengths = new int[50];
+        long[] addresses = new long[lengths.length];
+        for (int i = 0; i < lengths.length; i++) {
+            lengths[i] = 5 + i % 40;
+            addresses[i] = log.append(record(i, lengths[i], ByteOrder.LITTLE_ENDIAN));
+            Assert.assertEquals(lengths[i], log.length(addresses[i]));
+        }
+        assertAddressing(log, addresses, lengths);
+        log.close();
+    }
+}
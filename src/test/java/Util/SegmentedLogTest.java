@@ -0,0 +1,171 @@
+package Util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SegmentedLogTest {
+    // payload length and CRC32, as in SegmentedLog
+    private static final int HEADER = 8;
+    private static final int SEGMENT_BYTES = 64;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    Path directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = folder.newFolder("log").toPath();
+    }
+
+    private static ByteBuffer payload(String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String text(SegmentedLog log, long address, int length) {
+        byte[] bytes = new byte[length];
+        ByteBuffer view = log.buffer(address).duplicate();
+        view.position(RecordBuffers.offset(address));
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // opens the log and returns its records, in order
+    private List<String> reopen() throws IOException {
+        List<String> records = new ArrayList<>();
+        SegmentedLog.open(directory, SEGMENT_BYTES, (log, address, length) -> records.add(text(log, address, length)))
+            .close();
+        return records;
+    }
+
+    private SegmentedLog write(String... records) throws IOException {
+        SegmentedLog log = SegmentedLog.open(directory, SEGMENT_BYTES, (segments, address, length) -> { });
+        for (String record : records) {
+            log.append(payload(record));
+        }
+        log.force();
+        return log;
+    }
+
+    private void overwrite(String file, int at, ByteBuffer bytes) throws IOException {
+        try (FileChannel channel = FileChannel.open(directory.resolve(file), StandardOpenOption.WRITE)) {
+            channel.write(bytes, at);
+        }
+    }
+
+    private List<String> files() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(file -> file.getFileName().toString()).sorted().collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Records are read back in order, across segment files, and appending goes on after the last one.
+     */
+    @Test
+    public void recordsAreReadBackInOrderAcrossSegments() throws IOException {
+        // each record takes 26 bytes, so two fit in a segment of 64
+        write("record number 1000", "record number 2000", "record number 3000").close();
+        Assert.assertEquals(Arrays.asList("000000-000000.log", "000000-000001.log"), files());
+        Assert.assertEquals(Arrays.asList("record number 1000", "record number 2000", "record number 3000"),
+            reopen());
+
+        write("record number 4000").close();
+        Assert.assertEquals(Arrays.asList("record number 1000", "record number 2000", "record number 3000",
+            "record number 4000"), reopen());
+    }
+
+    /**
+     * A record whose header was written but whose payload was not is where the log ends, and the next append
+     * overwrites it.
+     */
+    @Test
+    public void tornRecordEndsTheLogAndIsOverwritten() throws IOException {
+        write("first", "second").close();
+        // a header claiming 20 bytes after the second record, with no matching payload
+        ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN).putInt(20).putInt(12345);
+        header.flip();
+        overwrite("000000-000000.log", 2 * HEADER + "first".length() + "second".length(), header);
+        Assert.assertEquals(Arrays.asList("first", "second"), reopen());
+
+        write("third").close();
+        Assert.assertEquals(Arrays.asList("first", "second", "third"), reopen());
+    }
+
+    /**
+     * A record whose payload does not match its CRC is where the log ends, even if complete records follow it.
+     */
+    @Test
+    public void crcMismatchEndsTheLog() throws IOException {
+        write("first", "second", "third").close();
+        overwrite("000000-000000.log", 2 * HEADER + "first".length(), payload("X"));
+        Assert.assertEquals(Arrays.asList("first"), reopen());
+
+        write("fourth").close();
+        Assert.assertEquals(Arrays.asList("first", "fourth"), reopen());
+    }
+
+    /**
+     * After replace() the directory opens as the new generation, and the old generation's files are gone.
+     */
+    @Test
+    public void replaceSwitchesToTheNextGeneration() throws IOException {
+        SegmentedLog log = write("old 1", "old 2", "old 3");
+        SegmentedLog next = log.nextGeneration();
+        next.append(payload("new 1"));
+        log.replace(next);
+        next.close();
+
+        Assert.assertEquals(Arrays.asList("000001-000000.log", "GENERATION"), files());
+        Assert.assertEquals(Arrays.asList("new 1"), reopen());
+    }
+
+    /**
+     * A generation that was written but never passed to replace() is ignored and deleted on open.
+     */
+    @Test
+    public void interruptedCompactionKeepsTheCurrentGeneration() throws IOException {
+        SegmentedLog log = write("old 1", "old 2");
+        SegmentedLog next = log.nextGeneration();
+        next.append(payload("new 1"));
+        next.close();
+        log.close();
+
+        Assert.assertEquals(Arrays.asList("old 1", "old 2"), reopen());
+        Assert.assertEquals(Arrays.asList("000000-000000.log"), files());
+    }
+
+    /**
+     * forEachAfter() hands over the records appended after end(), including those in segments started since.
+     */
+    @Test
+    public void forEachAfterReadsTheRecordsAppendedSinceTheMark() throws IOException {
+        SegmentedLog log = write("record number 1000");
+        long mark = log.end();
+        log.append(payload("record number 2000"));
+        log.append(payload("record number 3000"));
+        log.append(payload("record number 4000"));
+
+        List<String> tail = new ArrayList<>();
+        log.forEachAfter(mark, (segments, address, length) -> tail.add(text(segments, address, length)));
+        Assert.assertEquals(Arrays.asList("record number 2000", "record number 3000", "record number 4000"), tail);
+        log.close();
+    }
+}
@@ -0,0 +1,194 @@
+package Util;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import DAO.MessageDAO;
+import Model.Message;
+
+public class UnitOfWorkTest {
+
+    /**
+     * Before every test, reset the database to one account and one message.
+     */
+    @Before
+    public void setUp() {
+        ConnectionUtil.resetTestDatabase();
+    }
+
+    /**
+     * After every test, end a unit of work a failed test left active on this thread.
+     */
+    @After
+    public void tearDown() {
+        UnitOfWork unitOfWork = UnitOfWork.current();
+        if (unitOfWork != null) unitOfWork.close();
+    }
+
+    // message count as seen through connection, inside or outside a unit of work
+    private static int countMessages(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM message")) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+
+    private static int countCommittedMessages() throws SQLException {
+        try (Connection connection = ConnectionUtil.borrow()) {
+            return countMessages(connection);
+        }
+    }
+
+    private static void insertMessage(Connection connection, String text) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("INSERT INTO message (posted_by, message_text, time_posted_epoch) VALUES (1, '"
+                + text + "', 1669947792)");
+        }
+    }
+
+    /**
+     * Every getConnection() of a unit of work is the same connection, already in the unit's transaction; turning
+     * auto-commit off on it starts a nested transaction, which its rollback() undoes back to its start and no further.
+     */
+    @Test
+    public void setAutoCommitFalseStartsANestedTransaction() throws SQLException {
+        try (UnitOfWork unitOfWork = UnitOfWork.begin()) {
+            Connection connection = ConnectionUtil.getConnection();
+            Assert.assertSame(connection, ConnectionUtil.getConnection());
+            Assert.assertTrue(connection.getAutoCommit());
+            insertMessage(connection, "before the nested transaction");
+
+            connection.setAutoCommit(false);
+            Assert.assertFalse(connection.getAutoCommit());
+            insertMessage(connection, "in the nested transaction");
+            Assert.assertEquals(3, countMessages(connection));
+            connection.rollback();
+
+            Assert.assertEquals(2, countMessages(connection));
+            Assert.assertEquals(1, countCommittedMessages());
+            unitOfWork.commit();
+        }
+        Assert.assertEquals(2, countCommittedMessages());
+    }
+
+    /**
+     * A nested commit keeps its work and moves the savepoint, so a later rollback only undoes what came after it.
+     */
+    @Test
+    public void rollbackReturnsToTheLastNestedCommit() throws SQLException {
+        try (UnitOfWork unitOfWork = UnitOfWork.begin()) {
+            Connection connection = ConnectionUtil.getConnection();
+            connection.setAutoCommit(false);
+            insertMessage(connection, "committed");
+            connection.commit();
+            insertMessage(connection, "rolled back");
+            connection.rollback();
+            connection.close();
+
+            Assert.assertEquals(2, countMessages(connection));
+            unitOfWork.commit();
+        }
+        Assert.assertEquals(2, countCommittedMessages());
+    }
+
+    /**
+     * Closing the connection in the middle of a nested transaction rolls the nested transaction back, and closing
+     * the unit of work without commit() rolls everything back.
+     */
+    @Test
+    public void closeWithoutCommitRollsBack() throws SQLException {
+        try (UnitOfWork unitOfWork = UnitOfWork.begin()) {
+            try (Connection connection = ConnectionUtil.getConnection()) {
+                insertMessage(connection, "in the unit of work");
+                connection.setAutoCommit(false);
+                insertMessage(connection, "never committed");
+            }
+            Connection connection = ConnectionUtil.getConnection();
+            Assert.assertFalse(connection.isClosed());
+            Assert.assertTrue(connection.getAutoCommit());
+            Assert.assertEquals(2, countMessages(connection));
+        }
+        Assert.assertNull(UnitOfWork.current());
+        Assert.assertEquals(1, countCommittedMessages());
+    }
+
+    /**
+     * afterCommit actions run once the unit of work commits, not on a nested commit and not when it rolls back;
+     * without a unit of work they run right away.
+     */
+    @Test
+    public void afterCommitRunsOnlyOnTheOuterCommit() throws SQLException {
+        List<String> ran = new ArrayList<>();
+
+        try (UnitOfWork unitOfWork = UnitOfWork.begin()) {
+            Connection connection = ConnectionUtil.getConnection();
+            connection.setAutoCommit(false);
+            insertMessage(connection, "rolled back");
+            UnitOfWork.afterCommit(() -> ran.add("rolled back"));
+            connection.commit();
+        }
+        Assert.assertTrue(ran.isEmpty());
+
+        try (UnitOfWork unitOfWork = UnitOfWork.begin()) {
+            Connection connection = ConnectionUtil.getConnection();
+            connection.setAutoCommit(false);
+            insertMessage(connection, "committed");
+            UnitOfWork.afterCommit(() -> ran.add("committed"));
+            connection.commit();
+            Assert.assertTrue(ran.isEmpty());
+            unitOfWork.commit();
+            Assert.assertEquals(Arrays.asList("committed"), ran);
+        }
+
+        UnitOfWork.afterCommit(() -> ran.add("no unit of work"));
+        Assert.assertEquals(Arrays.asList("committed", "no unit of work"), ran);
+        Assert.assertEquals(2, countCommittedMessages());
+    }
+
+    /**
+     * DAO calls inside a unit of work, one of them running its own transaction that rolls a failed batch back and
+     * retries row by row: nothing is visible to others before the commit, a rolled back unit keeps nothing, and a
+     * committed one keeps exactly the rows that succeeded.
+     */
+    @Test
+    public void nestedDaoCallsCommitOrRollBackWithTheUnitOfWork() throws SQLException {
+        MessageDAO messageDAO = new MessageDAO();
+
+        for (boolean commit : new boolean[] { false, true }) {
+            try (UnitOfWork unitOfWork = UnitOfWork.begin()) {
+                Message single = messageDAO.insertMessage(new Message(1, "single", 1669947793));
+                // account 99 does not exist, so the batch fails and is retried one row at a time
+                List<Message> batch = messageDAO.insertMessages(Arrays.asList(
+                    new Message(1, "batch 1", 1669947794),
+                    new Message(99, "no such account", 1669947795),
+                    new Message(1, "batch 3", 1669947796)));
+
+                Assert.assertNotNull(single);
+                Assert.assertNotNull(batch.get(0));
+                Assert.assertNull(batch.get(1));
+                Assert.assertNotNull(batch.get(2));
+                Assert.assertEquals(4, messageDAO.getAllMessages().size());
+                Assert.assertEquals(1, countCommittedMessages());
+                if (commit) unitOfWork.commit();
+            }
+            Assert.assertEquals(commit ? 4 : 1, countCommittedMessages());
+        }
+
+        List<String> texts = new ArrayList<>();
+        for (Message message : messageDAO.getAllMessages()) {
+            texts.add(message.getMessage_text());
+        }
+        Assert.assertEquals(Arrays.asList("test message 1", "single", "batch 1", "batch 3"), texts);
+    }
+}
@@ -0,0 +1,187 @@
+package Util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class WriteAheadLogTest {
+    // payload length and CRC32, as in SegmentedLog
+    private static final int HEADER = 8;
+    private static final int SEGMENT_BYTES = 4096;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    Path directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = folder.newFolder("wal").toPath();
+    }
+
+    private static ByteBuffer payload(String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // opens the log from fromEpoch, collecting the records read into records
+    private WriteAheadLog open(long fromEpoch, List<String> records) throws IOException {
+        return WriteAheadLog.open(directory, SEGMENT_BYTES, fromEpoch, (log, address, length) -> {
+            byte[] bytes = new byte[length];
+            ByteBuffer view = log.buffer(address).duplicate();
+            view.position(RecordBuffers.offset(address));
+            view.get(bytes);
+            records.add(new String(bytes, StandardCharsets.UTF_8));
+        });
+    }
+
+    private List<String> reopen(long fromEpoch) throws IOException {
+        List<String> records = new ArrayList<>();
+        open(fromEpoch, records).close();
+        return records;
+    }
+
+    private void append(WriteAheadLog log, String... records) throws IOException {
+        long sequence = 0;
+        for (String record : records) {
+            sequence = log.append(payload(record));
+        }
+        log.sync(sequence);
+    }
+
+    private List<String> epochs() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(file -> file.getFileName().toString()).sorted().collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Every open starts a new epoch, so records appended after a restart follow the ones read back.
+     */
+    @Test
+    public void recordsAreReadBackInOrderAcrossRestarts() throws IOException {
+        WriteAheadLog log = open(0, new ArrayList<>());
+        append(log, "one", "two");
+        Assert.assertEquals(2, log.getAppended());
+        log.close();
+
+        List<String> records = new ArrayList<>();
+        log = open(0, records);
+        Assert.assertEquals(Arrays.asList("one", "two"), records);
+        append(log, "three");
+        log.close();
+
+        Assert.assertEquals(Arrays.asList("one", "two", "three"), reopen(0));
+        Assert.assertEquals(Arrays.asList("wal-000000", "wal-000001", "wal-000002"), epochs());
+    }
+
+    /**
+     * A record cut short at the end of an epoch is dropped, and the records appended after the restart are read
+     * back after the complete ones.
+     */
+    @Test
+    public void tornTailIsDroppedOnReplay() throws IOException {
+        WriteAheadLog log = open(0, new ArrayList<>());
+        append(log, "first", "second", "third");
+        log.close();
+        // the last byte of "third" never reached the disk
+        try (FileChannel channel = FileChannel.open(directory.resolve("wal-000000").resolve("000000-000000.log"),
+                StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[] { 0 }), 3 * HEADER + "firstsecondthir".length());
+        }
+
+        List<String> records = new ArrayList<>();
+        log = open(0, records);
+        Assert.assertEquals(Arrays.asList("first", "second"), records);
+        append(log, "fourth");
+        log.close();
+
+        Assert.assertEquals(Arrays.asList("first", "second", "fourth"), reopen(0));
+    }
+
+    /**
+     * After rotate(), a snapshot of the earlier epochs lets the log be opened from the new epoch, which reads only
+     * its records and deletes the older epochs.
+     */
+    @Test
+    public void openFromTheRotatedEpochSkipsAndDeletesTheEarlierOnes() throws IOException {
+        WriteAheadLog log = open(0, new ArrayList<>());
+        append(log, "before 1", "before 2");
+        long epoch = log.rotate();
+        Assert.assertEquals(1, epoch);
+        append(log, "after 1");
+        log.close();
+
+        Assert.assertEquals(Arrays.asList("before 1", "before 2", "after 1"), reopen(0));
+        Assert.assertEquals(Arrays.asList("after 1"), reopen(epoch));
+        Assert.assertFalse(epochs().contains("wal-000000"));
+    }
+
+    /**
+     * deleteBefore() removes the epochs a snapshot holds, while the log goes on appending to the current one.
+     */
+    @Test
+    public void deleteBeforeKeepsTheCurrentEpoch() throws IOException {
+        WriteAheadLog log = open(0, new ArrayList<>());
+        append(log, "before");
+        long epoch = log.rotate();
+        append(log, "after");
+        log.deleteBefore(epoch);
+        Assert.assertEquals(Arrays.asList("wal-000001"), epochs());
+        append(log, "later");
+        log.close();
+
+        Assert.assertEquals(Arrays.asList("after", "later"), reopen(epoch));
+    }
+
+    /**
+     * Records appended and synced by many threads are all read back, each once.
+     */
+    @Test
+    public void concurrentAppendsAreAllDurable() throws Exception {
+        WriteAheadLog log = open(0, new ArrayList<>());
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int thread = t;
+            threads.add(new Thread(() -> {
+                try {
+                    for (int i = 0; i < 100; i++) {
+                        log.sync(log.append(payload(thread + ":" + i)));
+                    }
+                } catch (IOException e) {
+                    throw new AssertionError(e);
+                }
+            }));
+        }
+        for (Thread thread : threads) thread.start();
+        for (Thread thread : threads) thread.join();
+        Assert.assertEquals(400, log.getAppended());
+        log.close();
+
+        List<String> records = reopen(0);
+        List<String> expected = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            for (int i = 0; i < 100; i++) {
+                expected.add(t + ":" + i);
+            }
+        }
+        Collections.sort(records);
+        Collections.sort(expected);
+        Assert.assertEquals(expected, records);
+    }
+}